@@ -0,0 +1,27 @@
+package com.keylesspalace.tusky
+
+import android.os.Debug
+import android.os.SystemClock
+import android.util.Log
+
+private const val WARMUP_ROUNDS = 20
+private const val MEASURED_ROUNDS = 50
+
+/**
+ * Runs [block] a few times to warm up the JIT, then logs the average time of a run and the bytes
+ * it allocated on this thread with [tag].
+ */
+@Suppress("DEPRECATION") // the allocation counters are still the only per-thread figure on device
+fun benchmark(tag: String, name: String, block: () -> Unit) {
+    repeat(WARMUP_ROUNDS) { block() }
+
+    Debug.resetThreadAllocSize()
+    Debug.startAllocCounting()
+    val start = SystemClock.elapsedRealtimeNanos()
+    repeat(MEASURED_ROUNDS) { block() }
+    val timePerRun = (SystemClock.elapsedRealtimeNanos() - start) / MEASURED_ROUNDS / 1000
+    Debug.stopAllocCounting()
+    val allocatedPerRun = Debug.getThreadAllocSize() / MEASURED_ROUNDS
+
+    Log.i(tag, "$name: ${timePerRun}µs and ${allocatedPerRun / 1024}KiB per run")
+}
@@ -0,0 +1,55 @@
+package com.keylesspalace.tusky
+
+import android.text.Spanned
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.reflect.TypeToken
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.json.EntityTypeAdapterFactory
+import com.keylesspalace.tusky.json.SpannedTypeAdapter
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Compares the time and allocations the streaming entity adapters and Gson reflection need to
+ * parse a recorded home timeline page of 40 statuses.
+ * Results are logged with the tag [TAG].
+ */
+@RunWith(AndroidJUnit4::class)
+class EntityTypeAdapterBenchmark {
+
+    private val reflectionGson = GsonBuilder()
+            .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+            .create()
+
+    private val streamingGson = GsonBuilder()
+            .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+            .registerTypeAdapterFactory(EntityTypeAdapterFactory())
+            .create()
+
+    // the test resources are shared as assets, see build.gradle
+    private val page = InstrumentationRegistry.getInstrumentation().context.assets
+            .open("json/home_timeline.json")
+            .bufferedReader()
+            .use { it.readText() }
+
+    @Test
+    fun parseHomeTimelinePage() {
+        assertEquals(40, parse(streamingGson).size)
+
+        // a run is one page
+        benchmark(TAG, "reflection") { parse(reflectionGson) }
+        benchmark(TAG, "streaming") { parse(streamingGson) }
+    }
+
+    private fun parse(gson: Gson): List<Status> = gson.fromJson(page, statusListType)
+
+    companion object {
+        private const val TAG = "EntityTypeAdapterBenchmark"
+
+        private val statusListType = object : TypeToken<List<Status>>() {}.type
+    }
+}
@@ -38,7 +38,7 @@ class TimelineDAOTest {
         val ignoredTwo = makeStatus(accountId = 2)
 
         for ((status, author, reblogger) in listOf(setOne, setTwo, ignoredOne, ignoredTwo)) {
-            timelineDao.insertInTransaction(status, author, reblogger)
+            timelineDao.insertInTransaction(status, author, reblogger, TimelineStatusChildren.EMPTY)
         }
 
         val resultsFromDb = timelineDao.getStatusesForAccount(setOne.first.timelineUserId,
@@ -57,7 +57,7 @@ class TimelineDAOTest {
     @Test
     fun doNotOverwrite() {
         val (status, author) = makeStatus()
-        timelineDao.insertInTransaction(status, author, null)
+        timelineDao.insertInTransaction(status, author, null, TimelineStatusChildren.EMPTY)
 
         val placeholder = createPlaceholder(status.serverId, status.timelineUserId)
 
@@ -98,10 +98,10 @@ class TimelineDAOTest {
         )
 
         for ((status, author, reblogAuthor) in listOf(oldThisAccount, oldAnotherAccount, recentThisAccount, recentAnotherAccount)) {
-            timelineDao.insertInTransaction(status, author, reblogAuthor)
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
         }
 
-        timelineDao.cleanup(now - TimelineRepository.CLEANUP_INTERVAL)
+        timelineDao.cleanup(now - TimelineRepository.CLEANUP_INTERVAL, 100)
 
         assertEquals(
                 listOf(recentThisAccount),
@@ -116,6 +116,37 @@ class TimelineDAOTest {
         )
     }
 
+    @Test
+    fun trimAndCleanupAccounts() {
+        val statuses = (1L..5L).map { makeStatus(statusId = it, authorServerId = "author$it") } +
+                makeStatus(statusId = 6, reblog = true, authorServerId = "author6") +
+                makeStatus(accountId = 2, statusId = 1, authorServerId = "author1")
+        for ((status, author, reblogAuthor) in statuses) {
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
+        }
+        assertEquals(listOf(1L, 2L), timelineDao.getTimelineUserIds().sorted())
+
+        // keep the three newest statuses of account 1
+        val maxKey = timelineDao.getSortKeyAt(1, 3)!!
+        assertEquals(timelineSortKey("3"), maxKey)
+        assertNull(timelineDao.getSortKeyAt(2, 3))
+        assertEquals(2, timelineDao.trimStatuses(1, maxKey, 2))
+        assertEquals(1, timelineDao.trimStatuses(1, maxKey, 2))
+
+        assertEquals(
+                listOf("6", "5", "4"),
+                timelineDao.getStatusesForAccount(1, null, null, 100).blockingGet()
+                        .map { it.status.serverId }
+        )
+        assertEquals(1, timelineDao.getStatusesForAccount(2, null, null, 100).blockingGet().size)
+
+        // authors of statuses 1-3 of account 1 are gone, the reblogger of status 6 is kept
+        assertEquals(3, timelineDao.cleanupAccounts(100))
+        assertEquals(0, timelineDao.cleanupAccounts(100))
+        val fromDb = timelineDao.getStatusesForAccount(1, null, null, 100).blockingGet()
+        assertEquals(statuses[5].third, fromDb.first().reblogAccount)
+    }
+
     @Test
     fun overwriteDeletedStatus() {
 
@@ -128,7 +159,7 @@ class TimelineDAOTest {
         timelineDao.deleteRange(1, oldStatuses.last().first.serverId, oldStatuses.first().first.serverId)
 
         for ((status, author, reblogAuthor) in oldStatuses) {
-            timelineDao.insertInTransaction(status, author, reblogAuthor)
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
         }
 
         // status 2 gets deleted, newly loaded status contain only 1 + 3
@@ -140,7 +171,7 @@ class TimelineDAOTest {
         timelineDao.deleteRange(1, newStatuses.last().first.serverId, newStatuses.first().first.serverId)
 
         for ((status, author, reblogAuthor) in newStatuses) {
-            timelineDao.insertInTransaction(status, author, reblogAuthor)
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
         }
 
         //make sure status 2 is no longer in db
@@ -152,6 +183,83 @@ class TimelineDAOTest {
         )
     }
 
+    @Test
+    fun insertPage() {
+        val old = listOf(makeStatus(statusId = 4), makeStatus(statusId = 3), makeStatus(statusId = 2))
+        for ((status, author, reblogAuthor) in old) {
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
+        }
+        val placeholder = createPlaceholder("3", 1)
+
+        // status 3 got deleted, status 4 changed
+        val page = listOf(makeStatus(statusId = 5), makeStatus(statusId = 4, reblog = true),
+                makeStatus(statusId = 2))
+        val children = makeChildren(page[1].first)
+        timelineDao.insertPage(TimelinePage(
+                timelineUserId = 1,
+                accounts = page.flatMap { (_, author, reblogAuthor) -> listOfNotNull(author, reblogAuthor) }
+                        .distinct(),
+                statuses = page.map { it.first },
+                children = children,
+                placeholders = listOf(placeholder, createPlaceholder("2", 1)),
+                removePlaceholdersBetween = null
+        ))
+
+        val fromDb = timelineDao.getStatusesForAccount(1, null, null, 100).blockingGet()
+        // the placeholder for 2 is ignored because the status is stored already
+        assertEquals(
+                listOf(page[0].first, page[1].first, placeholder, page[2].first),
+                fromDb.map { it.status }
+        )
+        assertEquals(children, timelineDao.getChildren(1, listOf("4")))
+    }
+
+    @Test
+    fun insertGetChildren() {
+        val (status, author) = makeStatus(statusId = 5)
+        val (otherStatus, otherAuthor) = makeStatus(statusId = 6)
+        val children = makeChildren(status)
+        timelineDao.insertInTransaction(status, author, null, children)
+        timelineDao.insertInTransaction(otherStatus, otherAuthor, null, makeChildren(otherStatus))
+
+        assertEquals(children, timelineDao.getChildren(1, listOf(status.serverId)))
+
+        // children are replaced, not merged, when the status is stored again
+        val updated = TimelineStatusChildren(children.attachments.take(1), emptyList(), emptyList())
+        timelineDao.insertInTransaction(status, author, null, updated)
+        assertEquals(updated, timelineDao.getChildren(1, listOf(status.serverId)))
+
+        // and removed together with the status
+        timelineDao.delete(1, status.serverId)
+        assertEquals(TimelineStatusChildren.EMPTY, timelineDao.getChildren(1, listOf(status.serverId)))
+        assertEquals(makeChildren(otherStatus), timelineDao.getChildren(1, listOf(otherStatus.serverId)))
+    }
+
+    @Test
+    fun leaveOutFilteredStatuses() {
+        val statuses = listOf(makeStatus(statusId = 3), makeStatus(statusId = 2), makeStatus(statusId = 1))
+        for ((status, author, reblogAuthor) in statuses) {
+            timelineDao.insertInTransaction(status, author, reblogAuthor, TimelineStatusChildren.EMPTY)
+        }
+        timelineDao.insertFilterVerdicts(listOf(
+                TimelineFilterVerdictEntity("3", 1, filterVersion = 7, filtered = true),
+                TimelineFilterVerdictEntity("2", 1, filterVersion = 7, filtered = false),
+                TimelineFilterVerdictEntity("1", 1, filterVersion = 6, filtered = true)
+        ))
+
+        val fromDb = timelineDao.getStatusesForAccount(1, null, null, 100, filterVersion = 7).blockingGet()
+        // the verdict for 1 is from other filters
+        assertEquals(listOf("2" to false, "1" to null), fromDb.map { it.status.serverId to it.filtered })
+
+        val unfiltered = timelineDao.getStatusesForAccount(1, null, null, 100).blockingGet()
+        assertEquals(listOf("3", "2", "1"), unfiltered.map { it.status.serverId })
+
+        // storing a status again drops its verdict
+        val (status, author) = statuses[0]
+        timelineDao.insertInTransaction(status, author, null, TimelineStatusChildren.EMPTY)
+        assertEquals(3, timelineDao.getStatusesForAccount(1, null, null, 100, filterVersion = 7).blockingGet().size)
+    }
+
     private fun makeStatus(
             accountId: Long = 1,
             statusId: Long = 10,
@@ -196,7 +304,6 @@ class TimelineDAOTest {
                 inReplyToAccountId = "inReplyToAccountId$statusId",
                 content = "Content!$statusId",
                 createdAt = createdAt,
-                emojis = "emojis$statusId",
                 reblogsCount = 1 * statusId.toInt(),
                 favouritesCount = 2 * statusId.toInt(),
                 reblogged = even,
@@ -205,8 +312,6 @@ class TimelineDAOTest {
                 sensitive = even,
                 spoilerText = "spoier$statusId",
                 visibility = Status.Visibility.PRIVATE,
-                attachments = "attachments$accountId",
-                mentions = "mentions$accountId",
                 application = "application$accountId",
                 reblogServerId = if (reblog) (statusId * 100).toString() else null,
                 reblogAccountId = reblogAuthor?.serverId,
@@ -216,6 +321,24 @@ class TimelineDAOTest {
         return Triple(status, author, reblogAuthor)
     }
 
+    private fun makeChildren(status: TimelineStatusEntity): TimelineStatusChildren {
+        return TimelineStatusChildren(
+                attachments = listOf(0, 1).map { position ->
+                    TimelineAttachmentEntity(status.serverId, status.timelineUserId, position,
+                            "attachment$position", "url$position", "preview$position",
+                            0.5f, -0.5f, null, "IMAGE", "description$position", null)
+                },
+                mentions = listOf(
+                        TimelineMentionEntity(status.serverId, status.timelineUserId, 0,
+                                "mention", "url", "username@domain", "username")
+                ),
+                emojis = listOf(
+                        TimelineEmojiEntity(status.serverId, status.timelineUserId, 0,
+                                "tusky", "http://tusky.cool/emoji.jpg", "http://tusky.cool/emoji.png", true)
+                )
+        )
+    }
+
     private fun createPlaceholder(serverId: String, timelineUserId: Long): TimelineStatusEntity {
         return TimelineStatusEntity(
                 serverId = serverId,
@@ -226,7 +349,6 @@ class TimelineDAOTest {
                 inReplyToAccountId = null,
                 content = null,
                 createdAt = 0L,
-                emojis = null,
                 reblogsCount = 0,
                 favouritesCount = 0,
                 reblogged = false,
@@ -235,8 +357,6 @@ class TimelineDAOTest {
                 sensitive = false,
                 spoilerText = null,
                 visibility = null,
-                attachments = null,
-                mentions = null,
                 application = null,
                 reblogServerId = null,
                 reblogAccountId = null,
@@ -0,0 +1,316 @@
+package com.keylesspalace.tusky
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.keylesspalace.tusky.db.*
+import com.keylesspalace.tusky.entity.Attachment
+import com.keylesspalace.tusky.entity.Emoji
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.repository.toAttachment
+import com.keylesspalace.tusky.repository.toEmoji
+import com.keylesspalace.tusky.repository.toMention
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures insert and read throughput of the timeline cache for 1000 statuses.
+ * The "json" numbers are for the layout of database version 25, a single status table with
+ * attachments, mentions and emojis stored as JSON columns, written and read with the queries of
+ * that version. The "columns" numbers are what the cache does now.
+ * Results are logged with the tag [TAG].
+ */
+@RunWith(AndroidJUnit4::class)
+class TimelineDaoBenchmark {
+    private lateinit var timelineDao: TimelineDao
+    private lateinit var db: AppDatabase
+    private lateinit var sqlDb: SupportSQLiteDatabase
+    private val gson = Gson()
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+        timelineDao = db.timelineDao()
+        sqlDb = db.openHelper.writableDatabase
+        LEGACY_SCHEMA.forEach(sqlDb::execSQL)
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun insertAndRead() {
+        val rows = (1..STATUS_COUNT).map { makeRow(it.toLong()) }
+        val statusIds = rows.map { it.first.serverId }
+
+        // warm up statement caches and the JIT
+        repeat(2) {
+            runColumns(rows, statusIds)
+            timelineDao.removeAllForAccount(ACCOUNT_ID)
+            runJson(rows)
+            clearLegacyTables()
+        }
+
+        val (columnsInsert, columnsRead) = runColumns(rows, statusIds)
+        val (jsonInsert, jsonRead) = runJson(rows)
+
+        Log.i(TAG, "$STATUS_COUNT statuses, columns: insert ${columnsInsert}ms read ${columnsRead}ms")
+        Log.i(TAG, "$STATUS_COUNT statuses, json: insert ${jsonInsert}ms read ${jsonRead}ms")
+    }
+
+    /** @return insert and read time in milliseconds */
+    private fun runColumns(rows: List<Row>, statusIds: List<String>): Pair<Long, Long> {
+        val insertStart = SystemClock.elapsedRealtime()
+        for ((status, account, children) in rows) {
+            timelineDao.insertInTransaction(status, account, null, children)
+        }
+        val insertTime = SystemClock.elapsedRealtime() - insertStart
+
+        val readStart = SystemClock.elapsedRealtime()
+        val fromDb = timelineDao.getStatusesForAccount(ACCOUNT_ID, null, null, STATUS_COUNT)
+                .blockingGet()
+        val children = statusIds.chunked(READ_PAGE_SIZE)
+                .map { page -> timelineDao.getChildren(ACCOUNT_ID, page) }
+        val attachments = children.flatMap { page -> page.attachments.map { it.toAttachment() } }
+        val mentions = children.flatMap { page -> page.mentions.map { it.toMention() } }
+        val emojis = children.flatMap { page -> page.emojis.map { it.toEmoji() } }
+        val readTime = SystemClock.elapsedRealtime() - readStart
+
+        assertEquals(STATUS_COUNT, fromDb.size)
+        assertEquals(STATUS_COUNT * 2, attachments.size)
+        assertEquals(STATUS_COUNT, mentions.size)
+        assertEquals(STATUS_COUNT * 3, emojis.size)
+        return insertTime to readTime
+    }
+
+    /**
+     * Stores and loads [rows] like version 25 did: every status is inserted in its own transaction
+     * with its children encoded to JSON, and read back with the old timeline query.
+     * @return insert and read time in milliseconds
+     */
+    private fun runJson(rows: List<Row>): Pair<Long, Long> {
+        val insertAccount = sqlDb.compileStatement(LEGACY_INSERT_ACCOUNT)
+        val insertStatus = sqlDb.compileStatement(LEGACY_INSERT_STATUS)
+
+        val insertStart = SystemClock.elapsedRealtime()
+        for ((status, account, children) in rows) {
+            val attachments = gson.toJson(children.attachments.map { it.toAttachment() })
+            val mentions = gson.toJson(children.mentions.map { it.toMention() })
+            val emojis = gson.toJson(children.emojis.map { it.toEmoji() })
+            sqlDb.beginTransaction()
+            try {
+                insertAccount.bindString(1, account.serverId)
+                insertAccount.bindLong(2, account.timelineUserId)
+                insertAccount.bindString(3, account.localUsername)
+                insertAccount.bindString(4, account.username)
+                insertAccount.bindString(5, account.displayName)
+                insertAccount.bindString(6, account.url)
+                insertAccount.bindString(7, account.avatar)
+                insertAccount.bindString(8, account.emojis)
+                insertAccount.bindLong(9, if (account.bot) 1 else 0)
+                insertAccount.executeInsert()
+
+                insertStatus.bindString(1, status.serverId)
+                insertStatus.bindString(2, status.url!!)
+                insertStatus.bindLong(3, status.timelineUserId)
+                insertStatus.bindString(4, status.authorServerId!!)
+                insertStatus.bindNull(5)
+                insertStatus.bindNull(6)
+                insertStatus.bindString(7, status.content!!)
+                insertStatus.bindLong(8, status.createdAt)
+                insertStatus.bindString(9, emojis)
+                insertStatus.bindLong(10, status.reblogsCount.toLong())
+                insertStatus.bindLong(11, status.favouritesCount.toLong())
+                insertStatus.bindLong(12, if (status.reblogged) 1 else 0)
+                insertStatus.bindLong(13, if (status.bookmarked) 1 else 0)
+                insertStatus.bindLong(14, if (status.favourited) 1 else 0)
+                insertStatus.bindLong(15, if (status.sensitive) 1 else 0)
+                insertStatus.bindString(16, status.spoilerText!!)
+                insertStatus.bindLong(17, status.visibility!!.num.toLong())
+                insertStatus.bindString(18, attachments)
+                insertStatus.bindString(19, mentions)
+                insertStatus.bindNull(20)
+                insertStatus.bindNull(21)
+                insertStatus.bindNull(22)
+                insertStatus.bindNull(23)
+                insertStatus.bindLong(24, 0)
+                insertStatus.executeInsert()
+                sqlDb.setTransactionSuccessful()
+            } finally {
+                sqlDb.endTransaction()
+            }
+        }
+        val insertTime = SystemClock.elapsedRealtime() - insertStart
+
+        val readStart = SystemClock.elapsedRealtime()
+        var statusCount = 0
+        var attachmentCount = 0
+        var mentionCount = 0
+        var emojiCount = 0
+        sqlDb.query(LEGACY_SELECT, arrayOf<Any>(ACCOUNT_ID, STATUS_COUNT)).use { cursor ->
+            val attachmentsColumn = cursor.getColumnIndexOrThrow("attachments")
+            val mentionsColumn = cursor.getColumnIndexOrThrow("mentions")
+            val emojisColumn = cursor.getColumnIndexOrThrow("emojis")
+            while (cursor.moveToNext()) {
+                val attachments: ArrayList<Attachment> =
+                        gson.fromJson(cursor.getString(attachmentsColumn), attachmentsType)
+                val mentions = gson.fromJson(cursor.getString(mentionsColumn),
+                        Array<Status.Mention>::class.java)
+                val emojis: List<Emoji> = gson.fromJson(cursor.getString(emojisColumn), emojisType)
+                statusCount++
+                attachmentCount += attachments.size
+                mentionCount += mentions.size
+                emojiCount += emojis.size
+            }
+        }
+        val readTime = SystemClock.elapsedRealtime() - readStart
+
+        assertEquals(STATUS_COUNT, statusCount)
+        assertEquals(STATUS_COUNT * 2, attachmentCount)
+        assertEquals(STATUS_COUNT, mentionCount)
+        assertEquals(STATUS_COUNT * 3, emojiCount)
+        return insertTime to readTime
+    }
+
+    private fun clearLegacyTables() {
+        sqlDb.execSQL("DELETE FROM `LegacyTimelineStatusEntity`")
+        sqlDb.execSQL("DELETE FROM `LegacyTimelineAccountEntity`")
+    }
+
+    private fun makeRow(statusId: Long): Row {
+        val serverId = statusId.toString()
+        val account = TimelineAccountEntity(
+                "author${statusId % 50}",
+                ACCOUNT_ID,
+                "localUsername",
+                "username@example.com",
+                "displayName",
+                "https://example.com/@username",
+                "https://example.com/avatar.png",
+                "[]",
+                false
+        )
+        val status = TimelineStatusEntity(
+                serverId = serverId,
+                url = "https://example.com/statuses/$serverId",
+                timelineUserId = ACCOUNT_ID,
+                authorServerId = account.serverId,
+                inReplyToId = null,
+                inReplyToAccountId = null,
+                content = "<p>Status $serverId with :blobcat: and @mention</p>",
+                createdAt = statusId,
+                reblogsCount = 1,
+                favouritesCount = 2,
+                reblogged = false,
+                favourited = false,
+                bookmarked = false,
+                sensitive = false,
+                spoilerText = "",
+                visibility = Status.Visibility.PUBLIC,
+                application = null,
+                reblogServerId = null,
+                reblogAccountId = null,
+                poll = null,
+                muted = false
+        )
+        val children = TimelineStatusChildren(
+                attachments = (0 until 2).map { position ->
+                    TimelineAttachmentEntity(serverId, ACCOUNT_ID, position,
+                            "$serverId-$position", "https://example.com/media/$serverId/$position.png",
+                            "https://example.com/media/$serverId/$position-small.png",
+                            0.1f, -0.2f, null, Attachment.Type.IMAGE.name, "Description $position",
+                            "LEHV6nWB2yk8pyo0adR*.7kCMdnj")
+                },
+                mentions = listOf(
+                        TimelineMentionEntity(serverId, ACCOUNT_ID, 0, "mention",
+                                "https://example.com/@mention", "mention@example.com", "mention")
+                ),
+                emojis = (0 until 3).map { position ->
+                    TimelineEmojiEntity(serverId, ACCOUNT_ID, position, "blobcat$position",
+                            "https://example.com/emoji/$position.png",
+                            "https://example.com/emoji/$position-static.png", true)
+                }
+        )
+        return Row(status, account, children)
+    }
+
+    private data class Row(
+            val status: TimelineStatusEntity,
+            val account: TimelineAccountEntity,
+            val children: TimelineStatusChildren
+    )
+
+    companion object {
+        private const val TAG = "TimelineDaoBenchmark"
+        private const val STATUS_COUNT = 1000
+        private const val ACCOUNT_ID = 1L
+        // SQLite limits the number of bound variables of a query
+        private const val READ_PAGE_SIZE = 500
+
+        private val attachmentsType = object : TypeToken<ArrayList<Attachment>>() {}.type
+        private val emojisType = object : TypeToken<List<Emoji>>() {}.type
+
+        /** the timeline tables of version 25, see schemas/.../25.json */
+        private val LEGACY_SCHEMA = listOf(
+                "CREATE TABLE `LegacyTimelineAccountEntity` (`serverId` TEXT NOT NULL, " +
+                        "`timelineUserId` INTEGER NOT NULL, `localUsername` TEXT NOT NULL, " +
+                        "`username` TEXT NOT NULL, `displayName` TEXT NOT NULL, `url` TEXT NOT NULL, " +
+                        "`avatar` TEXT NOT NULL, `emojis` TEXT NOT NULL, `bot` INTEGER NOT NULL, " +
+                        "PRIMARY KEY(`serverId`, `timelineUserId`))",
+                "CREATE TABLE `LegacyTimelineStatusEntity` (`serverId` TEXT NOT NULL, `url` TEXT, " +
+                        "`timelineUserId` INTEGER NOT NULL, `authorServerId` TEXT, `inReplyToId` TEXT, " +
+                        "`inReplyToAccountId` TEXT, `content` TEXT, `createdAt` INTEGER NOT NULL, " +
+                        "`emojis` TEXT, `reblogsCount` INTEGER NOT NULL, `favouritesCount` INTEGER NOT NULL, " +
+                        "`reblogged` INTEGER NOT NULL, `bookmarked` INTEGER NOT NULL, " +
+                        "`favourited` INTEGER NOT NULL, `sensitive` INTEGER NOT NULL, `spoilerText` TEXT, " +
+                        "`visibility` INTEGER, `attachments` TEXT, `mentions` TEXT, `application` TEXT, " +
+                        "`reblogServerId` TEXT, `reblogAccountId` TEXT, `poll` TEXT, `muted` INTEGER, " +
+                        "PRIMARY KEY(`serverId`, `timelineUserId`), " +
+                        "FOREIGN KEY(`authorServerId`, `timelineUserId`) " +
+                        "REFERENCES `LegacyTimelineAccountEntity`(`serverId`, `timelineUserId`) " +
+                        "ON UPDATE NO ACTION ON DELETE NO ACTION )",
+                "CREATE INDEX `index_LegacyTimelineStatusEntity_authorServerId_timelineUserId` " +
+                        "ON `LegacyTimelineStatusEntity` (`authorServerId`, `timelineUserId`)"
+        )
+
+        private const val LEGACY_INSERT_ACCOUNT = "INSERT OR REPLACE INTO " +
+                "`LegacyTimelineAccountEntity` VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+
+        private const val LEGACY_INSERT_STATUS = "INSERT OR REPLACE INTO " +
+                "`LegacyTimelineStatusEntity` VALUES " +
+                "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+
+        /** TimelineDao.getStatusesForAccount() of version 25, without maxId and sinceId */
+        private const val LEGACY_SELECT = """
+SELECT s.serverId, s.url, s.timelineUserId,
+s.authorServerId, s.inReplyToId, s.inReplyToAccountId, s.createdAt,
+s.emojis, s.reblogsCount, s.favouritesCount, s.reblogged, s.favourited, s.bookmarked, s.sensitive,
+s.spoilerText, s.visibility, s.mentions, s.application, s.reblogServerId,s.reblogAccountId,
+s.content, s.attachments, s.poll, s.muted,
+a.serverId as 'a_serverId', a.timelineUserId as 'a_timelineUserId',
+a.localUsername as 'a_localUsername', a.username as 'a_username',
+a.displayName as 'a_displayName', a.url as 'a_url', a.avatar as 'a_avatar',
+a.emojis as 'a_emojis', a.bot as 'a_bot',
+rb.serverId as 'rb_serverId', rb.timelineUserId 'rb_timelineUserId',
+rb.localUsername as 'rb_localUsername', rb.username as 'rb_username',
+rb.displayName as 'rb_displayName', rb.url as 'rb_url', rb.avatar as 'rb_avatar',
+rb.emojis as'rb_emojis', rb.bot as 'rb_bot'
+FROM LegacyTimelineStatusEntity s
+LEFT JOIN LegacyTimelineAccountEntity a ON (s.timelineUserId = a.timelineUserId AND s.authorServerId = a.serverId)
+LEFT JOIN LegacyTimelineAccountEntity rb ON (s.timelineUserId = rb.timelineUserId AND s.reblogAccountId = rb.serverId)
+WHERE s.timelineUserId = ?
+ORDER BY LENGTH(s.serverId) DESC, s.serverId DESC
+LIMIT ?"""
+    }
+}
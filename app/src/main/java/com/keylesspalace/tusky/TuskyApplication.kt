@@ -21,9 +21,11 @@ import android.content.res.Configuration
 import android.util.Log
 import androidx.emoji.text.EmojiCompat
 import androidx.preference.PreferenceManager
+import androidx.work.DelegatingWorkerFactory
 import androidx.work.WorkManager
 import com.keylesspalace.tusky.components.notifications.NotificationWorkerFactory
 import com.keylesspalace.tusky.di.AppInjector
+import com.keylesspalace.tusky.service.SendTootWorkerFactory
 import com.keylesspalace.tusky.settings.PrefKeys
 import com.keylesspalace.tusky.util.EmojiCompatFont
 import com.keylesspalace.tusky.util.LocaleManager
@@ -44,6 +46,9 @@ class TuskyApplication : Application(), HasAndroidInjector {
     @Inject
     lateinit var notificationWorkerFactory: NotificationWorkerFactory
 
+    @Inject
+    lateinit var sendTootWorkerFactory: SendTootWorkerFactory
+
     override fun onCreate() {
         // Uncomment me to get StrictMode violation logs
 //        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
@@ -83,7 +88,10 @@ class TuskyApplication : Application(), HasAndroidInjector {
         WorkManager.initialize(
                 this,
                 androidx.work.Configuration.Builder()
-                        .setWorkerFactory(notificationWorkerFactory)
+                        .setWorkerFactory(DelegatingWorkerFactory().apply {
+                            addFactory(notificationWorkerFactory)
+                            addFactory(sendTootWorkerFactory)
+                        })
                         .build()
         )
     }
@@ -57,6 +57,7 @@ import net.accelf.yuito.QuoteInlineHelper;
 
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -70,6 +71,30 @@ import static com.keylesspalace.tusky.viewdata.PollViewDataKt.buildDescription;
 public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
     public static class Key {
         public static final String KEY_CREATED = "created";
+        public static final String KEY_REBLOGGED = "reblogged";
+        public static final String KEY_FAVOURITED = "favourited";
+        public static final String KEY_BOOKMARKED = "bookmarked";
+        public static final String KEY_COUNTS = "counts";
+
+        /**
+         * @return the payload to update a view holder showing {@code oldItem} to {@code newItem},
+         * null if it has to be bound again
+         */
+        @Nullable
+        public static List<String> payloadOf(StatusViewData.Concrete oldItem, StatusViewData.Concrete newItem) {
+            int changes = oldItem.changes(newItem);
+            if ((changes & StatusViewData.Concrete.CHANGE_OTHER) != 0) {
+                return null;
+            }
+            // the timestamp is refreshed on every update
+            List<String> payload = new ArrayList<>(5);
+            payload.add(KEY_CREATED);
+            if ((changes & StatusViewData.Concrete.CHANGE_REBLOGGED) != 0) payload.add(KEY_REBLOGGED);
+            if ((changes & StatusViewData.Concrete.CHANGE_FAVOURITED) != 0) payload.add(KEY_FAVOURITED);
+            if ((changes & StatusViewData.Concrete.CHANGE_BOOKMARKED) != 0) payload.add(KEY_BOOKMARKED);
+            if ((changes & StatusViewData.Concrete.CHANGE_COUNTS) != 0) payload.add(KEY_COUNTS);
+            return payload;
+        }
     }
 
     private TextView displayName;
@@ -119,6 +144,11 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
 
     private final Drawable mediaPreviewUnloaded;
 
+    @Nullable
+    private StatusContentPrefetcher contentPrefetcher;
+    @Nullable
+    private StatusImagePreloader imagePreloader;
+
     protected StatusBaseViewHolder(View itemView) {
         super(itemView);
         displayName = itemView.findViewById(R.id.status_display_name);
@@ -203,6 +233,14 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
         username.setText(usernameText);
     }
 
+    public void setContentPrefetcher(@Nullable StatusContentPrefetcher contentPrefetcher) {
+        this.contentPrefetcher = contentPrefetcher;
+    }
+
+    public void setImagePreloader(@Nullable StatusImagePreloader imagePreloader) {
+        this.imagePreloader = imagePreloader;
+    }
+
     public void toggleContentWarning() {
         contentWarningButton.performClick();
     }
@@ -258,8 +296,10 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
                                 StatusDisplayOptions statusDisplayOptions,
                                 final StatusActionListener listener) {
         if (expanded) {
-            CharSequence emojifiedText = CustomEmojiHelper.emojify(content, emojis, this.content, statusDisplayOptions.animateEmojis());
-            LinkHelper.setClickableText(this.content, emojifiedText, mentions, listener);
+            if (contentPrefetcher == null || !contentPrefetcher.setContent(this.content, content)) {
+                CharSequence emojifiedText = CustomEmojiHelper.emojify(content, emojis, this.content, statusDisplayOptions.animateEmojis());
+                LinkHelper.setClickableText(this.content, emojifiedText, mentions, listener);
+            }
             for (int i = 0; i < mediaLabels.length; ++i) {
                 updateMediaLabel(i, sensitive, expanded);
             }
@@ -306,6 +346,7 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
             }
 
             avatarRadius = avatarRadius48dp;
+            onImageViewBound(StatusImagePreloader.SLOT_AVATAR, avatar);
 
         } else {
             int padding = Utils.dpToPx(avatar.getContext(), 12);
@@ -315,8 +356,10 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
             avatarInset.setBackground(null);
             ImageLoadingHelper.loadAvatar(rebloggedUrl, avatarInset, avatarRadius24dp,
                     statusDisplayOptions.animateAvatars());
+            onImageViewBound(StatusImagePreloader.SLOT_AVATAR_INSET, avatarInset);
 
             avatarRadius = avatarRadius36dp;
+            onImageViewBound(StatusImagePreloader.SLOT_AVATAR_REBLOGGED, avatar);
         }
 
         ImageLoadingHelper.loadAvatar(url, avatar, avatarRadius,
@@ -490,6 +533,12 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
         bookmarkButton.setChecked(bookmarked);
     }
 
+    private void onImageViewBound(int slot, View view) {
+        if (imagePreloader != null) {
+            imagePreloader.onViewBound(slot, view);
+        }
+    }
+
     private BitmapDrawable decodeBlurHash(String blurhash) {
         return ImageLoadingHelper.decodeBlurHash(this.avatar.getContext(), blurhash);
     }
@@ -515,19 +564,15 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
             if (focus != null) { // If there is a focal point for this attachment:
                 imageView.setFocalPoint(focus);
 
-                Glide.with(imageView)
-                        .load(previewUrl)
+                ImageLoadingHelper.mediaPreviewRequest(Glide.with(imageView), previewUrl)
                         .placeholder(placeholder)
-                        .centerInside()
                         .addListener(imageView)
                         .into(imageView);
             } else {
                 imageView.removeFocalPoint();
 
-                Glide.with(imageView)
-                        .load(previewUrl)
+                ImageLoadingHelper.mediaPreviewRequest(Glide.with(imageView), previewUrl)
                         .placeholder(placeholder)
-                        .centerInside()
                         .into(imageView);
             }
         }
@@ -573,6 +618,9 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
                     attachment.getMeta(),
                     useBlurhash ? attachment.getBlurhash() : null
             );
+            if (showingContent) {
+                onImageViewBound(StatusImagePreloader.mediaSlot(n, i), imageView);
+            }
 
             final Attachment.Type type = attachment.getType();
             if (showingContent && (type == Attachment.Type.VIDEO || type == Attachment.Type.GIFV)) {
@@ -870,15 +918,43 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
             // fetches another one from its delegate because it checks that it's set so we remove it
             // and let RecyclerView ask for a new delegate.
             itemView.setAccessibilityDelegate(null);
-        } else {
-            if (payloads instanceof List)
-                for (Object item : (List<?>) payloads) {
-                    if (Key.KEY_CREATED.equals(item)) {
-                        setCreatedAt(status.getCreatedAt(), statusDisplayOptions);
-                    }
-                }
+        } else if (payloads instanceof List) {
+            if (applyPayloads(status, statusDisplayOptions, (List<?>) payloads)) {
+                setDescriptionForStatus(status, statusDisplayOptions);
+            }
+        }
+    }
 
+    /**
+     * Updates the parts of the view named in {@code payloads}, see {@link Key#payloadOf}.
+     *
+     * @return true if something the description of the status mentions changed
+     */
+    private boolean applyPayloads(StatusViewData.Concrete status,
+                                  StatusDisplayOptions statusDisplayOptions,
+                                  List<?> payloads) {
+        boolean changed = false;
+        for (Object item : payloads) {
+            if (item instanceof List) {
+                // the payloads of several updates since the last bind
+                changed |= applyPayloads(status, statusDisplayOptions, (List<?>) item);
+            } else if (Key.KEY_CREATED.equals(item)) {
+                setCreatedAt(status.getCreatedAt(), statusDisplayOptions);
+            } else if (Key.KEY_REBLOGGED.equals(item)) {
+                setReblogged(status.isReblogged());
+                setRebloggingEnabled(status.getRebloggingEnabled(), status.getVisibility());
+                changed = true;
+            } else if (Key.KEY_FAVOURITED.equals(item)) {
+                setFavourited(status.isFavourited());
+                changed = true;
+            } else if (Key.KEY_BOOKMARKED.equals(item)) {
+                setBookmarked(status.isBookmarked());
+                changed = true;
+            } else if (Key.KEY_COUNTS.equals(item)) {
+                changed = true;
+            }
         }
+        return changed;
     }
 
     protected static boolean hasPreviewableAttachment(List<Attachment> attachments) {
@@ -1139,15 +1215,11 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
             // If media previews are disabled, show placeholder for cards as well
             if (statusDisplayOptions.mediaPreviewEnabled() && !status.isSensitive() && !TextUtils.isEmpty(card.getImage())) {
 
-                int topLeftRadius = 0;
-                int topRightRadius = 0;
-                int bottomRightRadius = 0;
-                int bottomLeftRadius = 0;
-
                 int radius = cardImage.getContext().getResources()
                         .getDimensionPixelSize(R.dimen.card_radius);
 
-                if (card.getWidth() > card.getHeight()) {
+                boolean vertical = card.getWidth() > card.getHeight();
+                if (vertical) {
                     cardView.setOrientation(LinearLayout.VERTICAL);
 
                     cardImage.getLayoutParams().height = cardImage.getContext().getResources()
@@ -1155,8 +1227,6 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
                     cardImage.getLayoutParams().width = ViewGroup.LayoutParams.MATCH_PARENT;
                     cardInfo.getLayoutParams().height = ViewGroup.LayoutParams.MATCH_PARENT;
                     cardInfo.getLayoutParams().width = ViewGroup.LayoutParams.WRAP_CONTENT;
-                    topLeftRadius = radius;
-                    topRightRadius = radius;
                 } else {
                     cardView.setOrientation(LinearLayout.HORIZONTAL);
                     cardImage.getLayoutParams().height = ViewGroup.LayoutParams.MATCH_PARENT;
@@ -1164,19 +1234,16 @@ public abstract class StatusBaseViewHolder extends RecyclerView.ViewHolder {
                             .getDimensionPixelSize(R.dimen.card_image_horizontal_width);
                     cardInfo.getLayoutParams().height = ViewGroup.LayoutParams.WRAP_CONTENT;
                     cardInfo.getLayoutParams().width = ViewGroup.LayoutParams.MATCH_PARENT;
-                    topLeftRadius = radius;
-                    bottomLeftRadius = radius;
                 }
 
-                RequestBuilder<Drawable> builder = Glide.with(cardImage).load(card.getImage());
+                RequestBuilder<Drawable> builder = ImageLoadingHelper.cardImageRequest(
+                        Glide.with(cardImage), card.getImage(), radius, vertical);
                 if (statusDisplayOptions.useBlurhash() && !TextUtils.isEmpty(card.getBlurhash())) {
                     builder = builder.placeholder(decodeBlurHash(card.getBlurhash()));
                 }
-                builder.transform(
-                        new CenterCrop(),
-                        new GranularRoundedCorners(topLeftRadius, topRightRadius, bottomRightRadius, bottomLeftRadius)
-                )
-                        .into(cardImage);
+                builder.into(cardImage);
+                onImageViewBound(vertical ? StatusImagePreloader.SLOT_CARD_VERTICAL
+                        : StatusImagePreloader.SLOT_CARD_HORIZONTAL, cardImage);
             } else if (statusDisplayOptions.useBlurhash() && !TextUtils.isEmpty(card.getBlurhash())) {
                 int radius = cardImage.getContext().getResources()
                         .getDimensionPixelSize(R.dimen.card_radius);
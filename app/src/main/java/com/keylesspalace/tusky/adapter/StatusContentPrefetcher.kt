@@ -0,0 +1,137 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.adapter
+
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.method.LinkMovementMethod
+import android.util.Log
+import android.util.LruCache
+import android.widget.TextView
+import androidx.annotation.MainThread
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import com.keylesspalace.tusky.interfaces.LinkListener
+import com.keylesspalace.tusky.util.LinkHelper
+import com.keylesspalace.tusky.util.addEmojiSpans
+import com.keylesspalace.tusky.util.loadEmojis
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import io.reactivex.Single
+import io.reactivex.android.schedulers.AndroidSchedulers
+import io.reactivex.disposables.CompositeDisposable
+import io.reactivex.schedulers.Schedulers
+
+/**
+ * Prepares the content of statuses for [StatusBaseViewHolder] in the background: custom emojis and
+ * clickable links are added and the text is measured with [PrecomputedTextCompat], so that binding
+ * a status only has to set the text.
+ *
+ * Statuses are prefetched when they are submitted to the list, see [prefetch]. The text style is
+ * taken from the bound views, statuses submitted before the first bind are bound the usual way.
+ */
+class StatusContentPrefetcher(
+        private val listener: LinkListener,
+        private val animateEmojis: Boolean
+) {
+
+    /** Compares by identity, view data of the same status share their content */
+    private class ContentKey(val content: Spanned) {
+        override fun equals(other: Any?) = other is ContentKey && other.content === content
+        override fun hashCode() = System.identityHashCode(content)
+    }
+
+    private val cache = LruCache<ContentKey, PrecomputedTextCompat>(CACHE_SIZE)
+    private val pending = HashSet<ContentKey>()
+    private val disposables = CompositeDisposable()
+    private var params: PrecomputedTextCompat.Params? = null
+
+    /**
+     * Starts preparing the visible content of the statuses in [items] which is not prepared yet.
+     */
+    @MainThread
+    fun prefetch(items: List<StatusViewData>) {
+        val params = params ?: return
+
+        val toPrefetch = items.mapNotNull { item ->
+            val status = item as? StatusViewData.Concrete ?: return@mapNotNull null
+            if (!status.spoilerText.isNullOrEmpty() && !status.isExpanded) {
+                // hidden behind a content warning
+                return@mapNotNull null
+            }
+            val key = ContentKey(status.content)
+            if (cache.get(key) != null || !pending.add(key)) null else key to status
+        }
+        if (toPrefetch.isEmpty()) {
+            return
+        }
+
+        disposables.add(Single.fromCallable {
+            toPrefetch.map { (key, status) -> key to precompute(status, params) }
+        }
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe({ results ->
+                    for ((key, text) in results) {
+                        pending.remove(key)
+                        if (text.params == this.params) {
+                            cache.put(key, text)
+                        }
+                    }
+                }, { throwable ->
+                    Log.w(TAG, "failed to prefetch status content", throwable)
+                    toPrefetch.forEach { (key, _) -> pending.remove(key) }
+                }))
+    }
+
+    /**
+     * Shows the prepared [content] in [view].
+     * @return false if the content is not prepared, the caller has to set it up itself then
+     */
+    @MainThread
+    fun setContent(view: TextView, content: Spanned): Boolean {
+        val viewParams = TextViewCompat.getTextMetricsParams(view)
+        if (viewParams != params) {
+            // first bind, or the text style changed
+            params = viewParams
+            cache.evictAll()
+            return false
+        }
+        val text = cache.get(ContentKey(content)) ?: return false
+
+        TextViewCompat.setPrecomputedText(view, text)
+        view.movementMethod = LinkMovementMethod.getInstance()
+        loadEmojis(text, view, animateEmojis)
+        return true
+    }
+
+    fun dispose() {
+        disposables.clear()
+        pending.clear()
+    }
+
+    private fun precompute(status: StatusViewData.Concrete, params: PrecomputedTextCompat.Params): PrecomputedTextCompat {
+        // the content is shared with the main thread, only ever change a copy of it
+        val text = SpannableStringBuilder(status.content)
+        addEmojiSpans(text, status.statusEmojis)
+        val clickableText = LinkHelper.createClickableText(text, status.mentions, listener)
+        return PrecomputedTextCompat.create(clickableText, params)
+    }
+
+    companion object {
+        private const val TAG = "StatusContentPrefetcher"
+        private const val CACHE_SIZE = 200
+    }
+}
@@ -0,0 +1,230 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.adapter
+
+import android.content.Context
+import android.view.View
+import androidx.annotation.MainThread
+import androidx.core.view.doOnNextLayout
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.request.target.Target
+import com.keylesspalace.tusky.R
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.util.CardViewMode
+import com.keylesspalace.tusky.util.StatusDisplayOptions
+import com.keylesspalace.tusky.util.cardImageRequest
+import com.keylesspalace.tusky.util.mediaPreviewRequest
+import com.keylesspalace.tusky.util.preloadAvatar
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Loads the avatars, media previews and card images of the statuses just ahead of the visible part
+ * of a timeline into Glide's memory cache while it is scrolled, so they can be shown right away when
+ * their statuses are bound.
+ *
+ * Images are requested the way [StatusBaseViewHolder] requests them and in the size of the views
+ * showing them, so a bind finds the preloaded image. Those sizes are learned from the first bound
+ * view of every kind, see [onViewBound], nothing is preloaded for a kind before that. Requests for
+ * statuses which left the preloaded range are cancelled.
+ */
+@MainThread
+class StatusImagePreloader(
+        context: Context,
+        private val requestManager: RequestManager,
+        private val dataSource: TimelineAdapter.AdapterDataSource<StatusViewData>,
+        var statusDisplayOptions: StatusDisplayOptions
+) : RecyclerView.OnScrollListener() {
+
+    private class Preload(val position: Int, val target: Target<*>)
+
+    /** Set to false while bandwidth should be saved, running requests are cancelled then. */
+    var enabled = true
+        set(value) {
+            field = value
+            if (!value) {
+                cancelAll()
+            }
+        }
+
+    private val avatarRadius48dp = context.resources.getDimensionPixelSize(R.dimen.avatar_radius_48dp)
+    private val avatarRadius36dp = context.resources.getDimensionPixelSize(R.dimen.avatar_radius_36dp)
+    private val avatarRadius24dp = context.resources.getDimensionPixelSize(R.dimen.avatar_radius_24dp)
+    private val cardRadius = context.resources.getDimensionPixelSize(R.dimen.card_radius)
+
+    /** the size of the image views by slot, 0 while not known yet */
+    private val widths = IntArray(SLOT_COUNT)
+    private val heights = IntArray(SLOT_COUNT)
+    private val measuring = BooleanArray(SLOT_COUNT)
+
+    private val preloads = ArrayDeque<Preload>()
+    private var preloadedFrom = 0
+    private var preloadedTo = -1
+    private var scrollingDown = true
+
+    /**
+     * Called by the view holders for every image view they load an image into, to learn the size
+     * images of the [slot] are shown in.
+     */
+    fun onViewBound(slot: Int, view: View) {
+        if (widths[slot] > 0 || measuring[slot]) {
+            return
+        }
+        measuring[slot] = true
+        // the layout params of the view may have just changed, wait for them to be applied
+        view.doOnNextLayout {
+            measuring[slot] = false
+            // Glide loads into the view without its padding
+            val width = it.width - it.paddingLeft - it.paddingRight
+            val height = it.height - it.paddingTop - it.paddingBottom
+            if (width > 0 && height > 0) {
+                widths[slot] = width
+                heights[slot] = height
+            }
+        }
+    }
+
+    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+        if (!enabled) {
+            return
+        }
+        val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+        val firstVisible = layoutManager.findFirstVisibleItemPosition()
+        val lastVisible = layoutManager.findLastVisibleItemPosition()
+        if (firstVisible == RecyclerView.NO_POSITION) {
+            return
+        }
+
+        if (dy != 0 && (dy > 0) != scrollingDown) {
+            // what was ahead is behind now
+            scrollingDown = dy > 0
+            cancelAll()
+        }
+
+        val from: Int
+        val to: Int
+        if (scrollingDown) {
+            from = lastVisible + 1
+            to = min(lastVisible + PRELOAD_AHEAD, dataSource.itemCount - 1)
+        } else {
+            from = max(firstVisible - PRELOAD_AHEAD, 0)
+            to = firstVisible - 1
+        }
+
+        // statuses which are visible now are loaded by their view holders, the running requests
+        // are shared with them
+        while (preloads.isNotEmpty() && preloads.first().position !in from..to) {
+            requestManager.clear(preloads.removeFirst().target)
+        }
+        while (preloads.isNotEmpty() && preloads.last().position !in from..to) {
+            requestManager.clear(preloads.removeLast().target)
+        }
+
+        // nearest first, keeps the preloads sorted by position
+        val positions = if (scrollingDown) from..to else to downTo from
+        for (position in positions) {
+            if (position !in preloadedFrom..preloadedTo) {
+                preload(position)
+            }
+        }
+        preloadedFrom = from
+        preloadedTo = to
+    }
+
+    fun cancelAll() {
+        preloads.forEach { requestManager.clear(it.target) }
+        preloads.clear()
+        preloadedFrom = 0
+        preloadedTo = -1
+    }
+
+    /** Preloads the images [StatusBaseViewHolder.setupWithStatus] would load for the status at [position]. */
+    private fun preload(position: Int) {
+        val status = dataSource.getItemAt(position) as? StatusViewData.Concrete ?: return
+        val options = statusDisplayOptions
+        val add = { target: Target<*> ->
+            if (scrollingDown) {
+                preloads.addLast(Preload(position, target))
+            } else {
+                preloads.addFirst(Preload(position, target))
+            }
+        }
+
+        val rebloggedAvatar = status.rebloggedAvatar
+        if (rebloggedAvatar.isNullOrEmpty()) {
+            preloadAvatar(SLOT_AVATAR, status.avatar, avatarRadius48dp, add)
+        } else {
+            preloadAvatar(SLOT_AVATAR_REBLOGGED, status.avatar, avatarRadius36dp, add)
+            preloadAvatar(SLOT_AVATAR_INSET, rebloggedAvatar, avatarRadius24dp, add)
+        }
+
+        val attachments = status.attachments
+        if (options.mediaPreviewEnabled && status.isShowingContent
+                && StatusBaseViewHolder.hasPreviewableAttachment(attachments)) {
+            val count = min(attachments.size, Status.MAX_MEDIA_ATTACHMENTS)
+            for (i in 0 until count) {
+                val previewUrl = attachments[i].previewUrl
+                val slot = mediaSlot(count, i)
+                if (!previewUrl.isNullOrEmpty() && widths[slot] > 0) {
+                    add(mediaPreviewRequest(requestManager, previewUrl).preload(widths[slot], heights[slot]))
+                }
+            }
+        }
+
+        val card = status.card
+        if (options.cardViewMode != CardViewMode.NONE && options.mediaPreviewEnabled
+                && attachments.isEmpty() && card != null && card.url.isNotEmpty()
+                && (!status.isCollapsible || !status.isCollapsed)
+                && !status.isSensitive && card.image.isNotEmpty()) {
+            val vertical = card.width > card.height
+            val slot = if (vertical) SLOT_CARD_VERTICAL else SLOT_CARD_HORIZONTAL
+            if (widths[slot] > 0) {
+                add(cardImageRequest(requestManager, card.image, cardRadius, vertical).preload(widths[slot], heights[slot]))
+            }
+        }
+    }
+
+    private fun preloadAvatar(slot: Int, url: String?, radius: Int, add: (Target<*>) -> Unit) {
+        if (url.isNullOrBlank() || widths[slot] == 0) {
+            return
+        }
+        add(preloadAvatar(requestManager, url, radius, statusDisplayOptions.animateAvatars,
+                widths[slot], heights[slot]))
+    }
+
+    companion object {
+        /** how many statuses ahead of the visible ones are preloaded */
+        private const val PRELOAD_AHEAD = 5
+
+        const val SLOT_AVATAR = 0
+        const val SLOT_AVATAR_REBLOGGED = 1
+        const val SLOT_AVATAR_INSET = 2
+        const val SLOT_CARD_VERTICAL = 3
+        const val SLOT_CARD_HORIZONTAL = 4
+        private const val SLOT_MEDIA = 5
+        private const val SLOT_COUNT = SLOT_MEDIA + Status.MAX_MEDIA_ATTACHMENTS * Status.MAX_MEDIA_ATTACHMENTS
+
+        /**
+         * @return the slot of the [index]th media preview of a status with [count] of them, their
+         * size depends on both
+         */
+        @JvmStatic
+        fun mediaSlot(count: Int, index: Int) = SLOT_MEDIA + (count - 1) * Status.MAX_MEDIA_ATTACHMENTS + index
+    }
+}
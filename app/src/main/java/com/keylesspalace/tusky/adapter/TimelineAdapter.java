@@ -44,6 +44,10 @@ public final class TimelineAdapter extends RecyclerView.Adapter {
     private final AdapterDataSource<StatusViewData> dataSource;
     private StatusDisplayOptions statusDisplayOptions;
     private final StatusActionListener statusListener;
+    @Nullable
+    private StatusContentPrefetcher contentPrefetcher;
+    @Nullable
+    private StatusImagePreloader imagePreloader;
 
     public TimelineAdapter(AdapterDataSource<StatusViewData> dataSource,
                            StatusDisplayOptions statusDisplayOptions,
@@ -53,6 +57,14 @@ public final class TimelineAdapter extends RecyclerView.Adapter {
         this.statusListener = statusListener;
     }
 
+    public void setContentPrefetcher(@Nullable StatusContentPrefetcher contentPrefetcher) {
+        this.contentPrefetcher = contentPrefetcher;
+    }
+
+    public void setImagePreloader(@Nullable StatusImagePreloader imagePreloader) {
+        this.imagePreloader = imagePreloader;
+    }
+
     public boolean getMediaPreviewEnabled() {
         return statusDisplayOptions.mediaPreviewEnabled();
     }
@@ -80,7 +92,10 @@ public final class TimelineAdapter extends RecyclerView.Adapter {
             case VIEW_TYPE_STATUS: {
                 View view = LayoutInflater.from(viewGroup.getContext())
                         .inflate(R.layout.item_status, viewGroup, false);
-                return new StatusViewHolder(view);
+                StatusViewHolder holder = new StatusViewHolder(view);
+                holder.setContentPrefetcher(contentPrefetcher);
+                holder.setImagePreloader(imagePreloader);
+                return holder;
             }
             case VIEW_TYPE_PLACEHOLDER: {
                 View view = LayoutInflater.from(viewGroup.getContext())
@@ -111,7 +126,7 @@ public final class TimelineAdapter extends RecyclerView.Adapter {
             holder.setupWithStatus((StatusViewData.Concrete) status,
                     statusListener,
                     statusDisplayOptions,
-                    payloads != null && !payloads.isEmpty() ? payloads.get(0) : null);
+                    payloads != null && !payloads.isEmpty() ? payloads : null);
         }
     }
 
@@ -48,6 +48,7 @@ class CacheUpdater @Inject constructor(
         Single.fromCallable {
             appDatabase.timelineDao().removeAllForAccount(accountId)
             appDatabase.timelineDao().removeAllUsersForAccount(accountId)
+            appDatabase.notificationsDao().removeAllForAccount(accountId)
         }
                 .subscribeOn(Schedulers.io())
                 .subscribe()
@@ -24,3 +24,4 @@ data class DomainMuteEvent(val instance: String): Dispatchable
 data class AnnouncementReadEvent(val announcementId: String): Dispatchable
 data class QuickReplyEvent(val status: Status) : Dispatchable
 data class StreamUpdateEvent(val status: Status, val targetKind: TimelineFragment.Kind, val targetIdentifier: String?, val first: Boolean) : Dispatchable
+data class StreamReconnectedEvent(val targetKind: TimelineFragment.Kind, val targetIdentifier: String?) : Dispatchable
@@ -26,6 +26,8 @@ import com.keylesspalace.tusky.components.drafts.DraftHelper
 import com.keylesspalace.tusky.components.search.SearchType
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.DraftAttachment
+import com.keylesspalace.tusky.db.DraftEntity
 import com.keylesspalace.tusky.db.InstanceEntity
 import com.keylesspalace.tusky.entity.*
 import com.keylesspalace.tusky.entity.Status
@@ -33,10 +35,15 @@ import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.service.ServiceClient
 import com.keylesspalace.tusky.service.TootToSend
 import com.keylesspalace.tusky.util.*
+import io.reactivex.Completable
+import io.reactivex.Maybe
+import io.reactivex.Observable
 import io.reactivex.Observable.just
+import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.Disposable
 import io.reactivex.rxkotlin.Singles
 import java.util.*
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 
 class ComposeViewModel @Inject constructor(
@@ -91,6 +98,9 @@ class ComposeViewModel @Inject constructor(
     val domain = accountManager.activeAccount?.domain!!
 
     private val mediaToDisposable = mutableMapOf<Long, Disposable>()
+    private val mediaToUpload = mutableMapOf<Long, Observable<UploadEvent>>()
+    /** uploads continue after compose was left once they are part of a saved draft */
+    private var draftSaved = false
 
     private val isEditingScheduledToot get() = !scheduledTootId.isNullOrEmpty()
 
@@ -165,15 +175,16 @@ class ComposeViewModel @Inject constructor(
             description: String? = null
     ): QueuedMedia {
         val mediaItem = QueuedMedia(
-                localId = System.currentTimeMillis(),
+                localId = nextLocalId.incrementAndGet(),
                 uri = uri,
                 type = type,
                 mediaSize = mediaSize,
                 description = description
         )
         media.value = media.value!! + mediaItem
-        mediaToDisposable[mediaItem.localId] = mediaUploader
-                .uploadMedia(mediaItem)
+        val upload = mediaUploader.uploadMedia(mediaItem)
+        mediaToUpload[mediaItem.localId] = upload
+        mediaToDisposable[mediaItem.localId] = upload
                 .subscribe({ event ->
                     val item = media.value?.find { it.localId == mediaItem.localId }
                             ?: return@subscribe
@@ -200,12 +211,13 @@ class ComposeViewModel @Inject constructor(
     }
 
     private fun addUploadedMedia(id: String, type: QueuedMedia.Type, uri: Uri, description: String?) {
-        val mediaItem = QueuedMedia(System.currentTimeMillis(), uri, type, 0, -1, id, description)
+        val mediaItem = QueuedMedia(nextLocalId.incrementAndGet(), uri, type, 0, -1, id, description)
         media.value = media.value!! + mediaItem
     }
 
     fun removeMediaFromQueue(item: QueuedMedia) {
         mediaToDisposable[item.localId]?.dispose()
+        mediaUploader.cancelUpload(item.localId)
         media.value = media.value!!.withoutFirstWhich { it.localId == item.localId }
     }
 
@@ -244,12 +256,8 @@ class ComposeViewModel @Inject constructor(
 
     fun saveDraft(content: String, contentWarning: String) {
 
-        val mediaUris: MutableList<String> = mutableListOf()
-        val mediaDescriptions: MutableList<String?> = mutableListOf()
-        media.value?.forEach { item ->
-            mediaUris.add(item.uri.toString())
-            mediaDescriptions.add(item.description)
-        }
+        val mediaItems = media.value.orEmpty()
+        draftSaved = true
 
         draftHelper.saveDraft(
                 draftId = draftId,
@@ -259,11 +267,47 @@ class ComposeViewModel @Inject constructor(
                 contentWarning = contentWarning,
                 sensitive = markMediaAsSensitive.value!!,
                 visibility = statusVisibility.value!!,
-                mediaUris = mediaUris,
-                mediaDescriptions = mediaDescriptions,
+                mediaUris = mediaItems.map { it.uri.toString() },
+                mediaDescriptions = mediaItems.map { it.description },
+                mediaIds = mediaItems.map { it.id },
                 poll = poll.value,
                 failedToSend = false
-        ).subscribe()
+        ).flatMapCompletable { savedDraft ->
+            updateMediaIdsWhenUploaded(savedDraft, mediaItems)
+        }.subscribe({}, { throwable ->
+            Log.w(TAG, "failed to save draft", throwable)
+        })
+    }
+
+    /**
+     * Adds the ids of the [mediaItems] which are still uploading to the saved draft once they are
+     * uploaded, so the draft can be sent without uploading them again. The ids are matched by the
+     * uri [draft] was saved with, the draft can be reordered before the uploads finish.
+     */
+    private fun updateMediaIdsWhenUploaded(draft: DraftEntity, mediaItems: List<QueuedMedia>): Completable {
+        val uploads = mediaItems.mapIndexedNotNull { index, item ->
+            val upload = mediaToUpload[item.localId]
+            if (item.id != null || upload == null) {
+                null
+            } else {
+                upload.ofType(UploadEvent.FinishedEvent::class.java)
+                        .firstElement()
+                        .map { event -> draft.attachments[index].uriString to event.attachment.id }
+                        .onErrorComplete()
+            }
+        }
+        if (uploads.isEmpty()) {
+            return Completable.complete()
+        }
+        return Maybe.merge(uploads)
+                .toList()
+                .flatMapCompletable { ids ->
+                    if (ids.isEmpty()) {
+                        Completable.complete()
+                    } else {
+                        draftHelper.updateMediaIds(draft.id, ids.toMap())
+                    }
+                }
     }
 
     /**
@@ -311,8 +355,7 @@ class ComposeViewModel @Inject constructor(
                             accountId = accountManager.activeAccount!!.id,
                             savedTootUid = savedTootUid,
                             draftId = draftId,
-                            idempotencyKey = randomAlphanumericString(16),
-                            retries = 0
+                            idempotencyKey = randomAlphanumericString(16)
                     )
 
                     serviceClient.sendToot(tootToSend)
@@ -443,7 +486,30 @@ class ComposeViewModel @Inject constructor(
                     }
         } else if (draftAttachments != null) {
             // when coming from DraftActivity
-            draftAttachments.forEach { attachment -> pickMedia(attachment.uri, attachment.description) }
+            draftAttachments.forEach { attachment ->
+                val id = attachment.id
+                if (id != null) {
+                    // uploaded before, maybe even before the app was restarted. Servers delete
+                    // media which is not attached to a status after a while, it is uploaded
+                    // again when it is gone.
+                    val mediaType = when (attachment.type) {
+                        DraftAttachment.Type.IMAGE -> QueuedMedia.Type.IMAGE
+                        DraftAttachment.Type.VIDEO -> QueuedMedia.Type.VIDEO
+                        DraftAttachment.Type.AUDIO -> QueuedMedia.Type.AUDIO
+                    }
+                    api.getMedia(id)
+                            .observeOn(AndroidSchedulers.mainThread())
+                            .subscribe({
+                                addUploadedMedia(id, mediaType, attachment.uri, attachment.description)
+                            }, { throwable ->
+                                Log.d(TAG, "uploading draft media $id again", throwable)
+                                pickMedia(attachment.uri, attachment.description)
+                            })
+                            .autoDispose()
+                } else {
+                    pickMedia(attachment.uri, attachment.description)
+                }
+            }
         } else composeOptions?.mediaAttachments?.forEach { a ->
             // when coming from redraft or ScheduledTootActivity
             val mediaType = when (a.type) {
@@ -502,11 +568,17 @@ class ComposeViewModel @Inject constructor(
         for (uploadDisposable in mediaToDisposable.values) {
             uploadDisposable.dispose()
         }
+        if (!draftSaved) {
+            mediaToDisposable.keys.forEach(mediaUploader::cancelUpload)
+        }
         super.onCleared()
     }
 
     private companion object {
         const val TAG = "ComposeViewModel"
+
+        /** local ids are unique in the whole app, uploads of all compose screens are keyed by them */
+        val nextLocalId = AtomicLong()
     }
 
 }
@@ -18,26 +18,40 @@ package com.keylesspalace.tusky.components.compose;
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.AsyncTask;
 
 import com.keylesspalace.tusky.util.IOUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import static com.keylesspalace.tusky.util.MediaUtilsKt.calculateInSampleSize;
 import static com.keylesspalace.tusky.util.MediaUtilsKt.getImageOrientation;
-import static com.keylesspalace.tusky.util.MediaUtilsKt.reorientBitmap;
+import static com.keylesspalace.tusky.util.MediaUtilsKt.getOrientationMatrix;
 
 /**
  * Reduces the file size of images to fit under a given limit by resizing them, maintaining both
  * aspect ratio and orientation.
  */
 public class DownsizeImageTask extends AsyncTask<Uri, Void, Boolean> {
+    /* Unfortunately, there isn't a determined worst case compression ratio for image formats.
+     * These are the sizes images are assumed to take at the initial quality, photos usually take
+     * less so they should fit the limit on the first try. */
+    private static final float JPEG_BYTES_PER_PIXEL = 1f;
+    private static final float PNG_BYTES_PER_PIXEL = 3f;
+    private static final int INITIAL_QUALITY = 85;
+    private static final int MIN_QUALITY = 40;
+    /* Images are never decoded larger than this, no matter how large the limit is, which keeps
+     * memory use and upload times in check. Roughly the 2048 px edge images were downsized to before. */
+    private static final long MAX_PIXELS = 2048 * 2048;
+
     private int sizeLimit;
     private ContentResolver contentResolver;
     private Listener listener;
@@ -75,72 +89,228 @@ public class DownsizeImageTask extends AsyncTask<Uri, Void, Boolean> {
         super.onPostExecute(successful);
     }
 
+    /**
+     * Decodes every image once, already scaled down close to the size it is expected to fit the
+     * limit in, and orients it in a single transformation. If it does not fit at the usual
+     * quality, the highest quality which fits is searched for, only if no quality is good enough
+     * the image is scaled down further. When memory runs out, the image is decoded again at half
+     * the size.
+     */
     public static boolean resize(Uri[] uris, int sizeLimit, ContentResolver contentResolver,
                                  File tempFile) {
-        for (Uri uri : uris) {
-            InputStream inputStream;
-            try {
-                inputStream = contentResolver.openInputStream(uri);
-            } catch (FileNotFoundException e) {
-                return false;
-            }
-            // Initially, just get the image dimensions.
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(inputStream, null, options);
-            IOUtils.closeQuietly(inputStream);
-            // Get EXIF data, for orientation info.
-            int orientation = getImageOrientation(uri, contentResolver);
-            /* Unfortunately, there isn't a determined worst case compression ratio for image
-             * formats. So, the only way to tell if they're too big is to compress them and
-             * test, and keep trying at smaller sizes. The initial estimate should be good for
-             * many cases, so it should only iterate once, but the loop is used to be absolutely
-             * sure it gets downsized to below the limit. */
-            int scaledImageSize = 1024;
-            do {
-                OutputStream stream;
-                try {
-                    stream = new FileOutputStream(tempFile);
-                } catch (FileNotFoundException e) {
+        Bitmap reusableBitmap = null;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            for (Uri uri : uris) {
+                // Initially, just get the image dimensions.
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;
+                if (!decodeBitmap(contentResolver, uri, bounds) || bounds.outWidth <= 0 || bounds.outHeight <= 0) {
                     return false;
                 }
-                try {
-                    inputStream = contentResolver.openInputStream(uri);
-                } catch (FileNotFoundException e) {
+                // Get EXIF data, for orientation info.
+                int orientation = getImageOrientation(uri, contentResolver);
+
+                long pixels = (long) bounds.outWidth * bounds.outHeight;
+                float scale = Math.min(estimateScale(pixels, sizeLimit, JPEG_BYTES_PER_PIXEL),
+                        estimateScale(pixels, MAX_PIXELS, 1f));
+                while (true) {
+                    int targetWidth = Math.round(bounds.outWidth * scale);
+                    int targetHeight = Math.round(bounds.outHeight * scale);
+                    if (targetWidth < 1 || targetHeight < 1) {
+                        return false;
+                    }
+                    try {
+                        BitmapFactory.Options options = decodeOptions(bounds, targetWidth, targetHeight);
+                        options.inBitmap = reusableBitmap;
+                        Bitmap bitmap = decodeBitmap(contentResolver, uri, options) ? options.inBitmap : null;
+                        if (bitmap == null) {
+                            return false;
+                        }
+                        reusableBitmap = bitmap;
+
+                        /* It's not likely the user will give transparent images over the upload
+                         * limit, but if they do, make sure the transparency is retained. */
+                        Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+                        float compressScale = estimateScale((long) bitmap.getWidth() * bitmap.getHeight(), sizeLimit,
+                                format == Bitmap.CompressFormat.PNG ? PNG_BYTES_PER_PIXEL : JPEG_BYTES_PER_PIXEL);
+                        if (!compressToFit(bitmap, orientation, compressScale, format, sizeLimit, buffer)) {
+                            return false;
+                        }
+                        break;
+                    } catch (OutOfMemoryError error) {
+                        if (reusableBitmap != null) {
+                            reusableBitmap.recycle();
+                            reusableBitmap = null;
+                        }
+                        scale /= 2;
+                    }
+                }
+
+                try (OutputStream stream = new FileOutputStream(tempFile)) {
+                    buffer.writeTo(stream);
+                } catch (IOException e) {
                     return false;
                 }
-                options.inSampleSize = calculateInSampleSize(options, scaledImageSize, scaledImageSize);
-                options.inJustDecodeBounds = false;
-                Bitmap scaledBitmap;
+            }
+            return true;
+        } finally {
+            if (reusableBitmap != null) {
+                reusableBitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * @return options which decode the image with {@code bounds} at about
+     * {@code targetWidth}x{@code targetHeight}: sampled down by a power of two first and scaled
+     * the rest of the way while decoding, so no larger bitmap is allocated in between.
+     */
+    private static BitmapFactory.Options decodeOptions(BitmapFactory.Options bounds,
+                                                       int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds, targetWidth, targetHeight);
+        int sampledWidth = bounds.outWidth / options.inSampleSize;
+        if (sampledWidth > targetWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        }
+        if ("image/jpeg".equals(bounds.outMimeType)) {
+            // jpeg has no transparency, half the memory of ARGB_8888
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        options.inMutable = true;
+        return options;
+    }
+
+    /**
+     * Decodes the image at {@code uri} with {@code options}, the decoded bitmap is stored in
+     * {@code options.inBitmap} unless only the bounds are decoded.
+     *
+     * @return false if the image could not be read
+     */
+    private static boolean decodeBitmap(ContentResolver contentResolver, Uri uri, BitmapFactory.Options options) {
+        InputStream inputStream;
+        try {
+            inputStream = contentResolver.openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                return false;
+            }
+            // the bitmap to reuse is too small or has another config, decode into a new one
+            IOUtils.closeQuietly(inputStream);
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return decodeBitmap(contentResolver, uri, options);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        if (!options.inJustDecodeBounds) {
+            if (bitmap == null) {
+                return false;
+            }
+            options.inBitmap = bitmap;
+        }
+        return true;
+    }
+
+    /**
+     * @return the factor both dimensions of an image with {@code pixels} have to be scaled by for
+     * it to be expected to fit the limit, at most 1
+     */
+    private static float estimateScale(long pixels, long sizeLimit, float bytesPerPixel) {
+        double maxPixels = sizeLimit / bytesPerPixel;
+        if (pixels <= maxPixels) {
+            return 1f;
+        }
+        return (float) Math.sqrt(maxPixels / pixels);
+    }
+
+    /**
+     * Compresses {@code source} into {@code buffer}, scaled by {@code scale} and oriented upright,
+     * at the highest quality which fits the limit. The image is scaled down further while even the
+     * lowest quality does not fit.
+     *
+     * @return false if the image could not be compressed
+     * @throws OutOfMemoryError if there is no memory for the scaled or oriented copy
+     */
+    private static boolean compressToFit(Bitmap source, int orientation, float scale,
+                                         Bitmap.CompressFormat format, int sizeLimit,
+                                         ByteArrayOutputStream buffer) {
+        while (true) {
+            Matrix matrix = getOrientationMatrix(orientation);
+            Bitmap bitmap;
+            if (scale >= 1f && matrix == null) {
+                bitmap = source;
+            } else {
+                if (matrix == null) {
+                    matrix = new Matrix();
+                }
+                matrix.preScale(Math.min(scale, 1f), Math.min(scale, 1f));
                 try {
-                    scaledBitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                } catch (OutOfMemoryError error) {
+                    bitmap = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+                } catch (IllegalArgumentException e) {
                     return false;
-                } finally {
-                    IOUtils.closeQuietly(inputStream);
                 }
-                if (scaledBitmap == null) {
-                    return false;
+            }
+
+            try {
+                if (compress(bitmap, format, INITIAL_QUALITY, buffer) <= sizeLimit) {
+                    return true;
                 }
-                Bitmap reorientedBitmap = reorientBitmap(scaledBitmap, orientation);
-                if (reorientedBitmap == null) {
-                    scaledBitmap.recycle();
-                    return false;
+                if (format == Bitmap.CompressFormat.JPEG) {
+                    // binary search for the highest quality which fits
+                    int low = MIN_QUALITY;
+                    int high = INITIAL_QUALITY - 1;
+                    int best = -1;
+                    int compressed = -1;
+                    while (low <= high) {
+                        int quality = (low + high) >>> 1;
+                        compressed = quality;
+                        if (compress(bitmap, format, quality, buffer) <= sizeLimit) {
+                            best = quality;
+                            low = quality + 1;
+                        } else {
+                            high = quality - 1;
+                        }
+                    }
+                    if (best != -1) {
+                        if (best != compressed) {
+                            compress(bitmap, format, best, buffer);
+                        }
+                        return true;
+                    }
+                    if (compressed != MIN_QUALITY) {
+                        compress(bitmap, format, MIN_QUALITY, buffer);
+                    }
                 }
-                Bitmap.CompressFormat format;
-                /* It's not likely the user will give transparent images over the upload limit, but
-                 * if they do, make sure the transparency is retained. */
-                if (!reorientedBitmap.hasAlpha()) {
-                    format = Bitmap.CompressFormat.JPEG;
-                } else {
-                    format = Bitmap.CompressFormat.PNG;
+            } finally {
+                if (bitmap != source) {
+                    bitmap.recycle();
                 }
-                reorientedBitmap.compress(format, 85, stream);
-                reorientedBitmap.recycle();
-                scaledImageSize /= 2;
-            } while (tempFile.length() > sizeLimit);
+            }
+
+            // the size is roughly proportional to the number of pixels
+            scale = Math.min(scale, 1f) * (float) Math.sqrt((double) sizeLimit / buffer.size()) * 0.9f;
+            if (source.getWidth() * scale < 1f || source.getHeight() * scale < 1f) {
+                return false;
+            }
         }
-        return true;
+    }
+
+    /** @return the size of the compressed image in bytes */
+    private static int compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality,
+                                ByteArrayOutputStream buffer) {
+        buffer.reset();
+        bitmap.compress(format, quality, buffer);
+        return buffer.size();
     }
 
     /**
@@ -25,6 +25,8 @@ import androidx.core.net.toUri
 import com.keylesspalace.tusky.BuildConfig
 import com.keylesspalace.tusky.R
 import com.keylesspalace.tusky.components.compose.ComposeActivity.QueuedMedia
+import com.keylesspalace.tusky.db.AccountEntity
+import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.entity.Attachment
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.network.ProgressRequestBody
@@ -32,12 +34,17 @@ import com.keylesspalace.tusky.util.*
 import io.reactivex.Observable
 import io.reactivex.Single
 import io.reactivex.schedulers.Schedulers
+import io.reactivex.subjects.CompletableSubject
+import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.ReplaySubject
+import io.reactivex.subjects.Subject
 import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.MultipartBody
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 sealed class UploadEvent {
     data class ProgressEvent(val percentage: Int) : UploadEvent()
@@ -60,7 +67,14 @@ data class PreparedMedia(val type: QueuedMedia.Type, val uri: Uri, val size: Lon
 
 interface MediaUploader {
     fun prepareMedia(inUri: Uri): Single<PreparedMedia>
+
+    /**
+     * Queues the upload of [media] for the active account, or joins its upload if it was queued
+     * already. The upload keeps running when the returned observable is disposed, it has to be
+     * stopped with [cancelUpload].
+     */
     fun uploadMedia(media: QueuedMedia): Observable<UploadEvent>
+    fun cancelUpload(localId: Long)
 }
 
 class AudioSizeException : Exception()
@@ -68,19 +82,61 @@ class VideoSizeException : Exception()
 class MediaTypeException : Exception()
 class CouldNotOpenFileException : Exception()
 
+/**
+ * Uploads media independently of the screen they were added on, so they continue when compose is
+ * left, e.g. after saving a draft. Every account has its own queue which runs
+ * [MAX_PARALLEL_UPLOADS] of its uploads at a time.
+ */
 class MediaUploaderImpl(
         private val context: Context,
-        private val mastodonApi: MastodonApi
+        private val mastodonApi: MastodonApi,
+        private val accountManager: AccountManager
 ) : MediaUploader {
+
+    private class Upload(
+            /** replays the latest event to late subscribers */
+            val events: Subject<UploadEvent>,
+            val cancelled: CompletableSubject
+    )
+
+    /** the queued and running uploads by [QueuedMedia.localId] */
+    private val uploads = ConcurrentHashMap<Long, Upload>()
+    private val queues = ConcurrentHashMap<Long, Subject<Observable<UploadEvent>>>()
+
     override fun uploadMedia(media: QueuedMedia): Observable<UploadEvent> {
-        return Observable
+        uploads[media.localId]?.let { return it.events }
+        val account = accountManager.activeAccount
+                ?: return Observable.error(IllegalStateException("no active account"))
+
+        val upload = Upload(ReplaySubject.createWithSize(1), CompletableSubject.create())
+        uploads[media.localId] = upload
+        val work = Observable
                 .fromCallable {
                     if (shouldResizeMedia(media)) {
                         downsize(media)
                     } else media
                 }
-                .switchMap { upload(it) }
+                .switchMap { upload(it, account) }
                 .subscribeOn(Schedulers.io())
+                .takeUntil(upload.cancelled.toObservable<Unit>())
+                .doOnEach(upload.events)
+                .onErrorResumeNext(Observable.empty())
+                .doFinally { uploads.remove(media.localId, upload) }
+        queueOf(account.id).onNext(work)
+        return upload.events
+    }
+
+    override fun cancelUpload(localId: Long) {
+        uploads.remove(localId)?.cancelled?.onComplete()
+    }
+
+    private fun queueOf(accountId: Long): Subject<Observable<UploadEvent>> {
+        return queues.getOrPut(accountId) {
+            PublishSubject.create<Observable<UploadEvent>>().toSerialized().also { queue ->
+                // lives as long as the app, the uploads are never disposed but cancelled
+                queue.flatMap({ it }, MAX_PARALLEL_UPLOADS).subscribe()
+            }
+        }
     }
 
     override fun prepareMedia(inUri: Uri): Single<PreparedMedia> {
@@ -146,7 +202,7 @@ class MediaUploaderImpl(
 
     private val contentResolver = context.contentResolver
 
-    private fun upload(media: QueuedMedia): Observable<UploadEvent> {
+    private fun upload(media: QueuedMedia, account: AccountEntity): Observable<UploadEvent> {
         return Observable.create { emitter ->
             var mimeType = contentResolver.getType(media.uri)
             val map = MimeTypeMap.getSingleton()
@@ -162,13 +218,9 @@ class MediaUploaderImpl(
             if (mimeType == null) mimeType = "multipart/form-data"
 
 
-            var lastProgress = -1
             val fileBody = ProgressRequestBody(stream, media.mediaSize,
                     mimeType.toMediaTypeOrNull()) { percentage ->
-                if (percentage != lastProgress) {
-                    emitter.onNext(UploadEvent.ProgressEvent(percentage))
-                }
-                lastProgress = percentage
+                emitter.onNext(UploadEvent.ProgressEvent(percentage))
             }
 
             val body = MultipartBody.Part.createFormData("file", filename, fileBody)
@@ -179,7 +231,7 @@ class MediaUploaderImpl(
                 null
             }
 
-            val uploadDisposable = mastodonApi.uploadMedia(body, description)
+            val uploadDisposable = mastodonApi.uploadMedia("Bearer " + account.accessToken, account.domain, body, description)
                     .subscribe({ attachment ->
                         if (media.uri.scheme == "file") {
                             media.uri.path?.let {
@@ -217,6 +269,7 @@ class MediaUploaderImpl(
         private const val STATUS_AUDIO_SIZE_LIMIT = 41943040 // 40MiB
         private const val STATUS_IMAGE_SIZE_LIMIT = 8388608 // 8MiB
         private const val STATUS_IMAGE_PIXEL_SIZE_LIMIT = 16777216 // 4096^2 Pixels
+        private const val MAX_PARALLEL_UPLOADS = 3
 
     }
 }
@@ -44,6 +44,10 @@ class DraftHelper @Inject constructor(
 
     private val draftDao = db.draftDao()
 
+    /**
+     * @return the draft as it was saved, with the id it was saved under and the uris of the media
+     * copied to the drafts folder
+     */
     fun saveDraft(
             draftId: Int,
             accountId: Long,
@@ -54,9 +58,10 @@ class DraftHelper @Inject constructor(
             visibility: Status.Visibility,
             mediaUris: List<String>,
             mediaDescriptions: List<String?>,
+            mediaIds: List<String?>,
             poll: NewPoll?,
             failedToSend: Boolean
-    ): Completable {
+    ): Single<DraftEntity> {
         return Single.fromCallable {
 
             val externalFilesDir = context.getExternalFilesDir("Tusky")
@@ -98,7 +103,8 @@ class DraftHelper @Inject constructor(
                         DraftAttachment(
                                 uriString = uris[i].toString(),
                                 description = mediaDescriptions[i],
-                                type = types[i]
+                                type = types[i],
+                                id = mediaIds[i]
                         )
                 )
             }
@@ -116,11 +122,29 @@ class DraftHelper @Inject constructor(
                     failedToSend = failedToSend
             )
 
-        }.flatMapCompletable { draft ->
-            draftDao.insertOrReplace(draft)
+        }.flatMap { draft ->
+            draftDao.insertOrReplaceForId(draft)
+                    .map { id -> draft.copy(id = id.toInt()) }
         }.subscribeOn(Schedulers.io())
     }
 
+    /**
+     * Stores the server ids of attachments which finished uploading after their draft was saved,
+     * so they don't have to be uploaded again when the draft is sent. The draft might have been
+     * edited meanwhile, ids of attachments which were removed from it are dropped.
+     * @param mediaIds the ids by the [DraftAttachment.uriString] of their attachment
+     */
+    fun updateMediaIds(draftId: Int, mediaIds: Map<String, String>): Completable {
+        return draftDao.find(draftId)
+                .flatMapCompletable { draft ->
+                    draftDao.insertOrReplace(draft.copy(
+                            attachments = draft.attachments.map { attachment ->
+                                mediaIds[attachment.uriString]?.let { attachment.copy(id = it) } ?: attachment
+                            }
+                    ))
+                }.subscribeOn(Schedulers.io())
+    }
+
     fun deleteDraftAndAttachments(draftId: Int): Completable {
         return draftDao.find(draftId)
                 .flatMapCompletable { draft ->
@@ -3,80 +3,109 @@ package com.keylesspalace.tusky.components.notifications
 import android.util.Log
 import com.keylesspalace.tusky.db.AccountEntity
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.entity.Marker
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.util.isLessThan
+import io.reactivex.Observable
+import io.reactivex.Single
+import io.reactivex.schedulers.Schedulers
 import javax.inject.Inject
 
+/**
+ * Fetches the new notifications of all accounts with enabled notifications and shows them.
+ *
+ * The accounts are fetched [MAX_PARALLEL_ACCOUNTS] at a time. Only the notifications newer than
+ * the last one shown or read are requested, so accounts without new ones only cost two small
+ * responses, and only the accounts which changed are saved, all at once.
+ */
 class NotificationFetcher @Inject constructor(
         private val mastodonApi: MastodonApi,
         private val accountManager: AccountManager,
         private val notifier: Notifier
 ) {
+    private class FetchResult(val account: AccountEntity, val notifications: List<Notification>, val changed: Boolean)
+
     fun fetchAndShow() {
-        for (account in accountManager.getAllAccountsOrderedByActive()) {
-            if (account.notificationsEnabled) {
-                try {
-                    val notifications = fetchNotifications(account)
-                    notifications.forEachIndexed { index, notification ->
-                        notifier.show(notification, account, index == 0)
-                    }
-                    accountManager.saveAccount(account)
-                } catch (e: Exception) {
-                    Log.w(TAG, "Error while fetching notifications", e)
-                }
+        val results = Observable.fromIterable(accountManager.getAllAccountsOrderedByActive())
+                .filter { it.notificationsEnabled }
+                // keeps the order of the accounts, so the notifications of the active one come first
+                .concatMapEager({ account ->
+                    fetchNotifications(account)
+                            .subscribeOn(Schedulers.io())
+                            .toObservable()
+                            .onErrorResumeNext { e: Throwable ->
+                                Log.w(TAG, "Error while fetching notifications", e)
+                                Observable.empty()
+                            }
+                }, MAX_PARALLEL_ACCOUNTS, 1)
+                .toList()
+                .blockingGet()
+
+        for (result in results) {
+            result.notifications.forEachIndexed { index, notification ->
+                notifier.show(notification, result.account, index == 0)
             }
         }
+        accountManager.saveAccounts(results.filter { it.changed }.map { it.account })
     }
 
-    private fun fetchNotifications(account: AccountEntity): MutableList<Notification> {
+    private fun fetchNotifications(account: AccountEntity): Single<FetchResult> {
         val authHeader = String.format("Bearer %s", account.accessToken)
+        val previousId = account.lastNotificationId
         // We fetch marker to not load/show notifications which user has already seen
-        val marker = fetchMarker(authHeader, account)
-        if (marker != null && account.lastNotificationId.isLessThan(marker.lastReadId)) {
-            account.lastNotificationId = marker.lastReadId
-        }
-        Log.d(TAG, "getting Notifications for " + account.fullName)
-        val notifications = mastodonApi.notificationsWithAuth(
-                authHeader,
-                account.domain,
-                account.lastNotificationId
-        ).blockingGet()
-
-        val newId = account.lastNotificationId
-        var newestId = ""
-        val result = mutableListOf<Notification>()
-        for (notification in notifications.reversed()) {
-            val currentId = notification.id
-            if (newestId.isLessThan(currentId)) {
-                newestId = currentId
-                account.lastNotificationId = currentId
+        return fetchMarker(authHeader, account).flatMap { marker ->
+            val lastReadId = marker.lastReadId
+            if (lastReadId != null && account.lastNotificationId.isLessThan(lastReadId)) {
+                account.lastNotificationId = lastReadId
             }
-            if (newId.isLessThan(currentId)) {
-                result.add(notification)
+            val newId = account.lastNotificationId
+            Log.d(TAG, "getting Notifications for " + account.fullName)
+            // min_id pages forward from the last notification, so none are skipped when there
+            // are many new ones. since_id is for servers which don't support it.
+            mastodonApi.notificationsWithAuth(
+                    authHeader,
+                    account.domain,
+                    newId,
+                    newId.takeIf { it != DEFAULT_NOTIFICATION_ID }
+            ).map { notifications ->
+                val result = mutableListOf<Notification>()
+                for (notification in notifications.reversed()) {
+                    val currentId = notification.id
+                    if (account.lastNotificationId.isLessThan(currentId)) {
+                        account.lastNotificationId = currentId
+                    }
+                    if (newId.isLessThan(currentId)) {
+                        result.add(notification)
+                    }
+                }
+                FetchResult(account, result, account.lastNotificationId != previousId)
             }
         }
-        return result
     }
 
-    private fun fetchMarker(authHeader: String, account: AccountEntity): Marker? {
-        return try {
-            val allMarkers = mastodonApi.markersWithAuth(
-                    authHeader,
-                    account.domain,
-                    listOf("notifications")
-            ).blockingGet()
+    /** @return the notifications marker, or an empty one when it could not be fetched */
+    private fun fetchMarker(authHeader: String, account: AccountEntity): Single<MarkerId> {
+        return mastodonApi.markersWithAuth(
+                authHeader,
+                account.domain,
+                listOf("notifications")
+        ).map { allMarkers ->
             val notificationMarker = allMarkers["notifications"]
             Log.d(TAG, "Fetched marker: $notificationMarker")
-            notificationMarker
-        } catch (e: Exception) {
+            MarkerId(notificationMarker?.lastReadId)
+        }.onErrorReturn { e ->
             Log.e(TAG, "Failed to fetch marker", e)
-            null
+            MarkerId(null)
         }
     }
 
+    /** Rx can't emit null, wraps the possibly missing id of the last read notification */
+    private class MarkerId(val lastReadId: String?)
+
     companion object {
         const val TAG = "NotificationFetcher"
+        private const val MAX_PARALLEL_ACCOUNTS = 4
+        /** the last notification id of accounts which were never fetched */
+        private const val DEFAULT_NOTIFICATION_ID = "0"
     }
-}
\ No newline at end of file
+}
@@ -22,6 +22,9 @@ interface AccountDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrReplace(account: AccountEntity): Long
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertOrReplace(accounts: List<AccountEntity>)
+
     @Delete
     fun delete(account: AccountEntity)
 
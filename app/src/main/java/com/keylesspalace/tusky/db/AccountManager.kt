@@ -82,6 +82,18 @@ class AccountManager @Inject constructor(db: AppDatabase) {
 
     }
 
+    /**
+     * Saves already known accounts to the database in a single transaction.
+     * @param accounts the accounts to save
+     */
+    fun saveAccounts(accounts: List<AccountEntity>) {
+        val knownAccounts = accounts.filter { it.id != 0L }
+        if (knownAccounts.isNotEmpty()) {
+            Log.d(TAG, "saveAccounts: saving ${knownAccounts.size} accounts")
+            accountDao.insertOrReplace(knownAccounts)
+        }
+    }
+
     /**
      * Logs the current account out by deleting all data of the account.
      * @return the new active account, or null if no other account was found
@@ -29,8 +29,10 @@ import com.keylesspalace.tusky.components.conversation.ConversationEntity;
  */
 
 @Database(entities = { TootEntity.class, DraftEntity.class, AccountEntity.class, InstanceEntity.class, TimelineStatusEntity.class,
-                TimelineAccountEntity.class,  ConversationEntity.class
-        }, version = 25)
+                TimelineAccountEntity.class,  ConversationEntity.class, TimelineAttachmentEntity.class,
+                TimelineMentionEntity.class, TimelineEmojiEntity.class, NotificationEntity.class,
+                TimelineFilterVerdictEntity.class, OutboxEntity.class
+        }, version = 31)
 public abstract class AppDatabase extends RoomDatabase {
 
     public abstract TootDao tootDao();
@@ -39,6 +41,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract ConversationsDao conversationDao();
     public abstract TimelineDao timelineDao();
     public abstract DraftDao draftDao();
+    public abstract NotificationsDao notificationsDao();
+    public abstract OutboxDao outboxDao();
 
     public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
         @Override
@@ -365,4 +369,155 @@ public abstract class AppDatabase extends RoomDatabase {
             );
         }
     };
+
+    public static final Migration MIGRATION_25_26 = new Migration(25, 26) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // The timeline is only a cache, drop it instead of converting the JSON columns.
+            database.execSQL("DROP TABLE IF EXISTS `TimelineStatusEntity`");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineStatusEntity` (" +
+                    "`serverId` TEXT NOT NULL, " +
+                    "`url` TEXT, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`authorServerId` TEXT, " +
+                    "`inReplyToId` TEXT, " +
+                    "`inReplyToAccountId` TEXT, " +
+                    "`content` TEXT, " +
+                    "`createdAt` INTEGER NOT NULL, " +
+                    "`reblogsCount` INTEGER NOT NULL, " +
+                    "`favouritesCount` INTEGER NOT NULL, " +
+                    "`reblogged` INTEGER NOT NULL, " +
+                    "`bookmarked` INTEGER NOT NULL, " +
+                    "`favourited` INTEGER NOT NULL, " +
+                    "`sensitive` INTEGER NOT NULL, " +
+                    "`spoilerText` TEXT, " +
+                    "`visibility` INTEGER, " +
+                    "`application` TEXT, " +
+                    "`reblogServerId` TEXT, " +
+                    "`reblogAccountId` TEXT, " +
+                    "`poll` TEXT, " +
+                    "`muted` INTEGER, " +
+                    "PRIMARY KEY(`serverId`, `timelineUserId`)," +
+                    " FOREIGN KEY(`authorServerId`, `timelineUserId`) REFERENCES `TimelineAccountEntity`(`serverId`, `timelineUserId`) " +
+                    "ON UPDATE NO ACTION ON DELETE NO ACTION )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineStatusEntity_authorServerId_timelineUserId` " +
+                    "ON `TimelineStatusEntity` (`authorServerId`, `timelineUserId`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineAttachmentEntity` (" +
+                    "`statusServerId` TEXT NOT NULL, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`position` INTEGER NOT NULL, " +
+                    "`id` TEXT NOT NULL, " +
+                    "`url` TEXT NOT NULL, " +
+                    "`previewUrl` TEXT, " +
+                    "`focusX` REAL, " +
+                    "`focusY` REAL, " +
+                    "`duration` REAL, " +
+                    "`type` TEXT NOT NULL, " +
+                    "`description` TEXT, " +
+                    "`blurhash` TEXT, " +
+                    "PRIMARY KEY(`statusServerId`, `timelineUserId`, `position`)," +
+                    " FOREIGN KEY(`statusServerId`, `timelineUserId`) REFERENCES `TimelineStatusEntity`(`serverId`, `timelineUserId`) " +
+                    "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineAttachmentEntity_statusServerId_timelineUserId` " +
+                    "ON `TimelineAttachmentEntity` (`statusServerId`, `timelineUserId`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineMentionEntity` (" +
+                    "`statusServerId` TEXT NOT NULL, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`position` INTEGER NOT NULL, " +
+                    "`id` TEXT NOT NULL, " +
+                    "`url` TEXT NOT NULL, " +
+                    "`username` TEXT NOT NULL, " +
+                    "`localUsername` TEXT NOT NULL, " +
+                    "PRIMARY KEY(`statusServerId`, `timelineUserId`, `position`)," +
+                    " FOREIGN KEY(`statusServerId`, `timelineUserId`) REFERENCES `TimelineStatusEntity`(`serverId`, `timelineUserId`) " +
+                    "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineMentionEntity_statusServerId_timelineUserId` " +
+                    "ON `TimelineMentionEntity` (`statusServerId`, `timelineUserId`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineEmojiEntity` (" +
+                    "`statusServerId` TEXT NOT NULL, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`position` INTEGER NOT NULL, " +
+                    "`shortcode` TEXT NOT NULL, " +
+                    "`url` TEXT NOT NULL, " +
+                    "`staticUrl` TEXT NOT NULL, " +
+                    "`visibleInPicker` INTEGER, " +
+                    "PRIMARY KEY(`statusServerId`, `timelineUserId`, `position`)," +
+                    " FOREIGN KEY(`statusServerId`, `timelineUserId`) REFERENCES `TimelineStatusEntity`(`serverId`, `timelineUserId`) " +
+                    "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineEmojiEntity_statusServerId_timelineUserId` " +
+                    "ON `TimelineEmojiEntity` (`statusServerId`, `timelineUserId`)");
+        }
+    };
+
+    public static final Migration MIGRATION_26_27 = new Migration(26, 27) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `TimelineStatusEntity` ADD COLUMN `sortKey` TEXT NOT NULL DEFAULT ''");
+            // same padding as TimelineStatusEntityKt.timelineSortKey(), 32 characters
+            database.execSQL("UPDATE `TimelineStatusEntity` SET `sortKey` = CASE " +
+                    "WHEN LENGTH(`serverId`) < 32 THEN SUBSTR('                                ' || `serverId`, -32) " +
+                    "ELSE `serverId` END");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineStatusEntity_timelineUserId_sortKey` " +
+                    "ON `TimelineStatusEntity` (`timelineUserId`, `sortKey`)");
+        }
+    };
+
+    public static final Migration MIGRATION_27_28 = new Migration(27, 28) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_TimelineStatusEntity_reblogAccountId_timelineUserId` " +
+                    "ON `TimelineStatusEntity` (`reblogAccountId`, `timelineUserId`)");
+        }
+    };
+
+    public static final Migration MIGRATION_28_29 = new Migration(28, 29) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `NotificationEntity` (" +
+                    "`serverId` TEXT NOT NULL, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`type` TEXT, " +
+                    "`accountServerId` TEXT, " +
+                    "`notification` TEXT, " +
+                    "`sortKey` TEXT NOT NULL, " +
+                    "PRIMARY KEY(`serverId`, `timelineUserId`))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " +
+                    "`index_NotificationEntity_timelineUserId_sortKey` " +
+                    "ON `NotificationEntity` (`timelineUserId`, `sortKey`)");
+        }
+    };
+
+    public static final Migration MIGRATION_29_30 = new Migration(29, 30) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineFilterVerdictEntity` (" +
+                    "`statusServerId` TEXT NOT NULL, " +
+                    "`timelineUserId` INTEGER NOT NULL, " +
+                    "`filterVersion` INTEGER NOT NULL, " +
+                    "`filtered` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`statusServerId`, `timelineUserId`)," +
+                    " FOREIGN KEY(`statusServerId`, `timelineUserId`) REFERENCES `TimelineStatusEntity`(`serverId`, `timelineUserId`) " +
+                    "ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
+    public static final Migration MIGRATION_30_31 = new Migration(30, 31) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `OutboxEntity` (" +
+                    "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`accountId` INTEGER NOT NULL, " +
+                    "`toot` TEXT NOT NULL)");
+        }
+    };
 }
@@ -27,6 +27,7 @@ import com.keylesspalace.tusky.TabData
 import com.keylesspalace.tusky.components.conversation.ConversationAccountEntity
 import com.keylesspalace.tusky.createTabDataFromId
 import com.keylesspalace.tusky.entity.*
+import com.keylesspalace.tusky.service.TootToSend
 import com.keylesspalace.tusky.util.trimTrailingWhitespace
 import java.net.URLDecoder
 import java.net.URLEncoder
@@ -173,4 +174,14 @@ class Converters @Inject constructor (
     fun jsonToDraftAttachmentList(draftAttachmentListJson: String?): List<DraftAttachment>? {
         return gson.fromJson(draftAttachmentListJson, object : TypeToken<List<DraftAttachment>>() {}.type)
     }
+
+    @TypeConverter
+    fun tootToSendToJson(toot: TootToSend): String {
+        return gson.toJson(toot)
+    }
+
+    @TypeConverter
+    fun jsonToTootToSend(tootJson: String): TootToSend {
+        return gson.fromJson(tootJson, TootToSend::class.java)
+    }
 }
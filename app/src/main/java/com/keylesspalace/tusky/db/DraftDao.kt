@@ -29,6 +29,10 @@ interface DraftDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrReplace(draft: DraftEntity): Completable
 
+    /** Like [insertOrReplace], but emits the id of the draft, which is generated for new drafts. */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertOrReplaceForId(draft: DraftEntity): Single<Long>
+
     @Query("SELECT * FROM DraftEntity WHERE accountId = :accountId ORDER BY id ASC")
     fun loadDrafts(accountId: Long): DataSource.Factory<Int, DraftEntity>
 
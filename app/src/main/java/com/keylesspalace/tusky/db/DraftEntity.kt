@@ -44,7 +44,9 @@ data class DraftEntity(
 data class DraftAttachment(
         val uriString: String,
         val description: String?,
-        val type: Type
+        val type: Type,
+        /** the id of the attachment on the server, set once the media was uploaded */
+        val id: String? = null
 ): Parcelable {
     val uri: Uri
         get() = uriString.toUri()
@@ -0,0 +1,40 @@
+package com.keylesspalace.tusky.db
+
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * Cached notification of the logged in account [timelineUserId].
+ * Rows without [type] are placeholders for gaps, like in [TimelineStatusEntity].
+ * Notifications are shown as a whole and never updated column by column, so the notification is
+ * stored as JSON instead of being split up into tables.
+ */
+@Entity(
+        primaryKeys = ["serverId", "timelineUserId"],
+        indices = [Index("timelineUserId", "sortKey")]
+)
+data class NotificationEntity(
+        val serverId: String,
+        val timelineUserId: Long,
+        /** [com.keylesspalace.tusky.entity.Notification.Type.presentation], null for placeholders */
+        val type: String?,
+        /** id of the account which caused the notification, null for placeholders */
+        val accountServerId: String?,
+        /** the whole notification as JSON, null for placeholders */
+        val notification: String?,
+        // derived from serverId, see timelineSortKey()
+        val sortKey: String = timelineSortKey(serverId)
+)
+
+/**
+ * A page of notifications as it is written to the cache by [NotificationsDao.insertPage].
+ */
+data class NotificationsPage(
+        val timelineUserId: Long,
+        /** newest first, like they are returned from the server */
+        val notifications: List<NotificationEntity>,
+        /** inserted unless a notification with the same id is already stored */
+        val placeholders: List<NotificationEntity>,
+        /** placeholders between each pair of (maxId, sinceId) are removed */
+        val removePlaceholdersBetween: List<Pair<String, String>>
+)
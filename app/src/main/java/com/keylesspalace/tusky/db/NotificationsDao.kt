@@ -0,0 +1,104 @@
+package com.keylesspalace.tusky.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy.IGNORE
+import androidx.room.OnConflictStrategy.REPLACE
+import androidx.room.Query
+import androidx.room.Transaction
+import io.reactivex.Single
+
+@Dao
+abstract class NotificationsDao {
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insert(notification: NotificationEntity)
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insert(notifications: List<NotificationEntity>)
+
+    @Insert(onConflict = IGNORE)
+    abstract fun insertIfNotThere(notifications: List<NotificationEntity>)
+
+    @Query("""SELECT * FROM NotificationEntity WHERE timelineUserId = :accountId
+AND sortKey < :maxKey AND sortKey > :sinceKey
+ORDER BY sortKey DESC
+LIMIT :limit""")
+    abstract fun getNotificationsByKey(accountId: Long, maxKey: String, sinceKey: String, limit: Int): Single<List<NotificationEntity>>
+
+    open fun getNotifications(accountId: Long, maxId: String?, sinceId: String?, limit: Int): Single<List<NotificationEntity>> {
+        return getNotificationsByKey(accountId, maxId?.let(::timelineSortKey) ?: MAX_SORT_KEY,
+                sinceId?.let(::timelineSortKey) ?: MIN_SORT_KEY, limit)
+    }
+
+    @Query("""DELETE FROM NotificationEntity WHERE timelineUserId = :accountId
+AND sortKey < :maxKey AND sortKey > :minKey""")
+    abstract fun deleteRangeByKey(accountId: Long, minKey: String, maxKey: String)
+
+    /**
+     * Deletes the notifications of the account with ids strictly between [minId] and [maxId].
+     */
+    open fun deleteRange(accountId: Long, minId: String, maxId: String) {
+        deleteRangeByKey(accountId, timelineSortKey(minId), timelineSortKey(maxId))
+    }
+
+    @Query("""DELETE FROM NotificationEntity WHERE type IS NULL
+AND timelineUserId = :accountId AND sortKey < :maxKey AND sortKey > :sinceKey""")
+    abstract fun removeAllPlaceholdersBetweenKeys(accountId: Long, maxKey: String, sinceKey: String)
+
+    /**
+     * Deletes the placeholders of the account with ids strictly between [sinceId] and [maxId].
+     */
+    open fun removeAllPlaceholdersBetween(accountId: Long, maxId: String, sinceId: String) {
+        removeAllPlaceholdersBetweenKeys(accountId, timelineSortKey(maxId), timelineSortKey(sinceId))
+    }
+
+    /**
+     * Writes a page loaded from the server and updates the placeholders around it in a single
+     * transaction. Notifications which were stored inside the range of the page but are not part
+     * of it anymore (e.g. dismissed ones) are removed first.
+     */
+    @Transaction
+    open fun insertPage(page: NotificationsPage) {
+        val accountId = page.timelineUserId
+        if (page.notifications.isNotEmpty()) {
+            deleteRange(accountId, page.notifications.last().serverId, page.notifications.first().serverId)
+        }
+        insert(page.notifications)
+        insertIfNotThere(page.placeholders)
+        for ((maxId, sinceId) in page.removePlaceholdersBetween) {
+            removeAllPlaceholdersBetween(accountId, maxId, sinceId)
+        }
+    }
+
+    @Query("DELETE FROM NotificationEntity WHERE timelineUserId = :accountId AND serverId = :notificationId")
+    abstract fun delete(accountId: Long, notificationId: String)
+
+    @Query("""DELETE FROM NotificationEntity WHERE timelineUserId = :accountId
+AND accountServerId = :accountServerId""")
+    abstract fun removeAllByAccount(accountId: Long, accountServerId: String)
+
+    @Query("DELETE FROM NotificationEntity WHERE timelineUserId = :accountId")
+    abstract fun removeAllForAccount(accountId: Long)
+
+    @Query("SELECT DISTINCT timelineUserId FROM NotificationEntity")
+    abstract fun getTimelineUserIds(): List<Long>
+
+    /**
+     * @return the sort key of the notification at [offset] counting from the newest one, or null
+     * if the account has fewer notifications
+     */
+    @Query("""SELECT sortKey FROM NotificationEntity WHERE timelineUserId = :accountId
+ORDER BY sortKey DESC LIMIT 1 OFFSET :offset""")
+    abstract fun getSortKeyAt(accountId: Long, offset: Int): String?
+
+    /**
+     * Deletes up to [limit] of the oldest notifications of the account with a sort key of at most
+     * [maxKey].
+     * @return the number of deleted notifications
+     */
+    @Query("""DELETE FROM NotificationEntity WHERE rowid IN
+(SELECT rowid FROM NotificationEntity WHERE timelineUserId = :accountId AND sortKey <= :maxKey
+ORDER BY sortKey LIMIT :limit)""")
+    abstract fun trimNotifications(accountId: Long, maxKey: String, limit: Int): Int
+}
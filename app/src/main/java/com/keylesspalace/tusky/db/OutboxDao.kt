@@ -0,0 +1,37 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+
+@Dao
+interface OutboxDao {
+
+    @Insert
+    fun insert(entity: OutboxEntity): Long
+
+    @Query("SELECT * FROM OutboxEntity ORDER BY id ASC")
+    fun loadAll(): List<OutboxEntity>
+
+    /** @return the number of deleted statuses, 0 when it was not in the outbox anymore */
+    @Query("DELETE FROM OutboxEntity WHERE id = :id")
+    fun delete(id: Int): Int
+
+    @Query("SELECT * FROM OutboxEntity WHERE id = :id")
+    fun find(id: Int): OutboxEntity?
+}
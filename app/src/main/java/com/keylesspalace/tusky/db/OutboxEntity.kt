@@ -0,0 +1,32 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+import androidx.room.TypeConverters
+import com.keylesspalace.tusky.service.TootToSend
+
+/**
+ * A status waiting to be sent, see [com.keylesspalace.tusky.service.Outbox].
+ */
+@Entity
+@TypeConverters(Converters::class)
+data class OutboxEntity(
+        @PrimaryKey(autoGenerate = true) val id: Int = 0,
+        val accountId: Long,
+        val toot: TootToSend
+)
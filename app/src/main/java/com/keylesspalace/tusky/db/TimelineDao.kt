@@ -17,6 +17,27 @@ abstract class TimelineDao {
     @Insert(onConflict = REPLACE)
     abstract fun insertStatus(timelineAccountEntity: TimelineStatusEntity): Long
 
+    @Insert(onConflict = REPLACE)
+    abstract fun insertAccounts(accounts: List<TimelineAccountEntity>)
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insertStatuses(statuses: List<TimelineStatusEntity>)
+
+    @Insert(onConflict = IGNORE)
+    abstract fun insertStatusesIfNotThere(statuses: List<TimelineStatusEntity>)
+
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insertAttachments(attachments: List<TimelineAttachmentEntity>)
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insertMentions(mentions: List<TimelineMentionEntity>)
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insertEmojis(emojis: List<TimelineEmojiEntity>)
+
+    @Insert(onConflict = REPLACE)
+    abstract fun insertFilterVerdicts(verdicts: List<TimelineFilterVerdictEntity>)
 
     @Insert(onConflict = IGNORE)
     abstract fun insertStatusIfNotThere(timelineAccountEntity: TimelineStatusEntity): Long
@@ -24,9 +45,9 @@ abstract class TimelineDao {
     @Query("""
 SELECT s.serverId, s.url, s.timelineUserId,
 s.authorServerId, s.inReplyToId, s.inReplyToAccountId, s.createdAt,
-s.emojis, s.reblogsCount, s.favouritesCount, s.reblogged, s.favourited, s.bookmarked, s.sensitive,
-s.spoilerText, s.visibility, s.mentions, s.application, s.reblogServerId,s.reblogAccountId,
-s.content, s.attachments, s.poll, s.muted,
+s.reblogsCount, s.favouritesCount, s.reblogged, s.favourited, s.bookmarked, s.sensitive,
+s.spoilerText, s.visibility, s.application, s.reblogServerId,s.reblogAccountId,
+s.content, s.poll, s.muted, s.sortKey,
 a.serverId as 'a_serverId', a.timelineUserId as 'a_timelineUserId',
 a.localUsername as 'a_localUsername', a.username as 'a_username',
 a.displayName as 'a_displayName', a.url as 'a_url', a.avatar as 'a_avatar',
@@ -34,44 +55,136 @@ a.emojis as 'a_emojis', a.bot as 'a_bot',
 rb.serverId as 'rb_serverId', rb.timelineUserId 'rb_timelineUserId',
 rb.localUsername as 'rb_localUsername', rb.username as 'rb_username',
 rb.displayName as 'rb_displayName', rb.url as 'rb_url', rb.avatar as 'rb_avatar',
-rb.emojis as'rb_emojis', rb.bot as 'rb_bot'
+rb.emojis as'rb_emojis', rb.bot as 'rb_bot',
+v.filtered as 'filtered'
 FROM TimelineStatusEntity s
 LEFT JOIN TimelineAccountEntity a ON (s.timelineUserId = a.timelineUserId AND s.authorServerId = a.serverId)
 LEFT JOIN TimelineAccountEntity rb ON (s.timelineUserId = rb.timelineUserId AND s.reblogAccountId = rb.serverId)
+LEFT JOIN TimelineFilterVerdictEntity v ON (s.timelineUserId = v.timelineUserId AND s.serverId = v.statusServerId
+    AND v.filterVersion = :filterVersion)
 WHERE s.timelineUserId = :account
-AND (CASE WHEN :maxId IS NOT NULL THEN
-(LENGTH(s.serverId) < LENGTH(:maxId) OR LENGTH(s.serverId) == LENGTH(:maxId) AND s.serverId < :maxId)
-ELSE 1 END)
-AND (CASE WHEN :sinceId IS NOT NULL THEN
-(LENGTH(s.serverId) > LENGTH(:sinceId) OR LENGTH(s.serverId) == LENGTH(:sinceId) AND s.serverId > :sinceId)
-ELSE 1 END)
-ORDER BY LENGTH(s.serverId) DESC, s.serverId DESC
+AND s.sortKey < :maxKey AND s.sortKey > :sinceKey
+AND (v.filtered IS NULL OR v.filtered = 0)
+ORDER BY s.sortKey DESC
 LIMIT :limit""")
-    abstract fun getStatusesForAccount(account: Long, maxId: String?, sinceId: String?, limit: Int): Single<List<TimelineStatusWithAccount>>
+    abstract fun getStatusesForAccountByKey(account: Long, maxKey: String, sinceKey: String, limit: Int,
+                                            filterVersion: Int?): Single<List<TimelineStatusWithAccount>>
+
+    /**
+     * Statuses which are filtered with [filterVersion] are left out. Without a version all statuses
+     * are loaded, and none of them have a filter verdict.
+     */
+    open fun getStatusesForAccount(account: Long, maxId: String?, sinceId: String?, limit: Int,
+                                   filterVersion: Int? = null): Single<List<TimelineStatusWithAccount>> {
+        return getStatusesForAccountByKey(account, maxId?.let(::timelineSortKey) ?: MAX_SORT_KEY,
+                sinceId?.let(::timelineSortKey) ?: MIN_SORT_KEY, limit, filterVersion)
+    }
+
+
+    @Query("""SELECT * FROM TimelineAttachmentEntity WHERE timelineUserId = :accountId
+AND statusServerId IN (:statusIds) ORDER BY position""")
+    abstract fun getAttachments(accountId: Long, statusIds: List<String>): List<TimelineAttachmentEntity>
+
+    @Query("""SELECT * FROM TimelineMentionEntity WHERE timelineUserId = :accountId
+AND statusServerId IN (:statusIds) ORDER BY position""")
+    abstract fun getMentions(accountId: Long, statusIds: List<String>): List<TimelineMentionEntity>
+
+    @Query("""SELECT * FROM TimelineEmojiEntity WHERE timelineUserId = :accountId
+AND statusServerId IN (:statusIds) ORDER BY position""")
+    abstract fun getEmojis(accountId: Long, statusIds: List<String>): List<TimelineEmojiEntity>
+
+    /**
+     * Loads the attachments, mentions and emojis of a page of statuses with one query per table.
+     */
+    @Transaction
+    open fun getChildren(accountId: Long, statusIds: List<String>): TimelineStatusChildren {
+        return TimelineStatusChildren(
+                getAttachments(accountId, statusIds),
+                getMentions(accountId, statusIds),
+                getEmojis(accountId, statusIds)
+        )
+    }
+
+    @Query("DELETE FROM TimelineAttachmentEntity WHERE timelineUserId = :accountId AND statusServerId IN (:statusIds)")
+    abstract fun deleteAttachments(accountId: Long, statusIds: List<String>)
+
+    @Query("DELETE FROM TimelineMentionEntity WHERE timelineUserId = :accountId AND statusServerId IN (:statusIds)")
+    abstract fun deleteMentions(accountId: Long, statusIds: List<String>)
 
+    @Query("DELETE FROM TimelineEmojiEntity WHERE timelineUserId = :accountId AND statusServerId IN (:statusIds)")
+    abstract fun deleteEmojis(accountId: Long, statusIds: List<String>)
+
+    @Query("DELETE FROM TimelineFilterVerdictEntity WHERE timelineUserId = :accountId AND statusServerId IN (:statusIds)")
+    abstract fun deleteFilterVerdicts(accountId: Long, statusIds: List<String>)
+
+    /** Also forgets the filter verdicts of the statuses, their content may have changed */
+    private fun replaceChildren(accountId: Long, statusIds: List<String>, children: TimelineStatusChildren) {
+        deleteAttachments(accountId, statusIds)
+        deleteMentions(accountId, statusIds)
+        deleteEmojis(accountId, statusIds)
+        deleteFilterVerdicts(accountId, statusIds)
+        insertAttachments(children.attachments)
+        insertMentions(children.mentions)
+        insertEmojis(children.emojis)
+    }
 
     @Transaction
     open fun insertInTransaction(status: TimelineStatusEntity, account: TimelineAccountEntity,
-                                 reblogAccount: TimelineAccountEntity?) {
+                                 reblogAccount: TimelineAccountEntity?,
+                                 children: TimelineStatusChildren) {
         insertAccount(account)
         reblogAccount?.let(this::insertAccount)
         insertStatus(status)
+        replaceChildren(status.timelineUserId, listOf(status.serverId), children)
     }
 
-    @Query("""DELETE FROM TimelineStatusEntity WHERE timelineUserId = :accountId AND
-        (LENGTH(serverId) < LENGTH(:maxId) OR LENGTH(serverId) == LENGTH(:maxId) AND serverId < :maxId)
-AND
-(LENGTH(serverId) > LENGTH(:minId) OR LENGTH(serverId) == LENGTH(:minId) AND serverId > :minId)
-    """)
-    abstract fun deleteRange(accountId: Long, minId: String, maxId: String)
-
-    @Query("""DELETE FROM TimelineStatusEntity WHERE authorServerId = null
-AND timelineUserId = :account AND
-(LENGTH(serverId) < LENGTH(:maxId) OR LENGTH(serverId) == LENGTH(:maxId) AND serverId < :maxId)
-AND
-(LENGTH(serverId) > LENGTH(:sinceId) OR LENGTH(serverId) == LENGTH(:sinceId) AND serverId > :sinceId)
-""")
-    abstract fun removeAllPlaceholdersBetween(account: Long, maxId: String, sinceId: String)
+    /**
+     * Writes a page loaded from the server and updates the placeholders around it in a single
+     * transaction, so readers never see a partially written page.
+     * Statuses which were stored inside the range of the page but are not part of it anymore
+     * (e.g. deleted ones) are removed first.
+     */
+    @Transaction
+    open fun insertPage(page: TimelinePage) {
+        val accountId = page.timelineUserId
+        if (page.statuses.isNotEmpty()) {
+            deleteRange(accountId, page.statuses.last().serverId, page.statuses.first().serverId)
+        }
+
+        insertAccounts(page.accounts)
+        insertStatuses(page.statuses)
+        if (page.statuses.isNotEmpty()) {
+            replaceChildren(accountId, page.statuses.map { it.serverId }, page.children)
+        }
+
+        insertStatusesIfNotThere(page.placeholders)
+        insertFilterVerdicts(page.filterVerdicts)
+        page.removePlaceholdersBetween?.let { (maxId, sinceId) ->
+            removeAllPlaceholdersBetween(accountId, maxId, sinceId)
+        }
+    }
+
+    @Query("""DELETE FROM TimelineStatusEntity WHERE timelineUserId = :accountId
+AND sortKey < :maxKey AND sortKey > :minKey""")
+    abstract fun deleteRangeByKey(accountId: Long, minKey: String, maxKey: String)
+
+    /**
+     * Deletes the statuses of the account with ids strictly between [minId] and [maxId].
+     */
+    open fun deleteRange(accountId: Long, minId: String, maxId: String) {
+        deleteRangeByKey(accountId, timelineSortKey(minId), timelineSortKey(maxId))
+    }
+
+    @Query("""DELETE FROM TimelineStatusEntity WHERE authorServerId IS NULL
+AND timelineUserId = :account AND sortKey < :maxKey AND sortKey > :sinceKey""")
+    abstract fun removeAllPlaceholdersBetweenKeys(account: Long, maxKey: String, sinceKey: String)
+
+    /**
+     * Deletes the placeholders of the account with ids strictly between [sinceId] and [maxId].
+     */
+    open fun removeAllPlaceholdersBetween(account: Long, maxId: String, sinceId: String) {
+        removeAllPlaceholdersBetweenKeys(account, timelineSortKey(maxId), timelineSortKey(sinceId))
+    }
 
     @Query("""UPDATE TimelineStatusEntity SET favourited = :favourited
 WHERE timelineUserId = :accountId AND (serverId = :statusId OR reblogServerId = :statusId)""")
@@ -99,10 +212,48 @@ WHERE timelineUserId = :accountId AND (serverId = :statusId OR reblogServerId =
 AND serverId = :statusId""")
     abstract fun delete(accountId: Long, statusId: String)
 
-    @Query("""DELETE FROM TimelineStatusEntity WHERE createdAt < :olderThan""")
-    abstract fun cleanup(olderThan: Long)
+    /**
+     * Deletes up to [limit] statuses of all accounts which were created before [olderThan].
+     * @return the number of deleted statuses
+     */
+    @Query("""DELETE FROM TimelineStatusEntity WHERE rowid IN
+(SELECT rowid FROM TimelineStatusEntity WHERE createdAt < :olderThan LIMIT :limit)""")
+    abstract fun cleanup(olderThan: Long, limit: Int): Int
+
+    @Query("SELECT DISTINCT timelineUserId FROM TimelineStatusEntity")
+    abstract fun getTimelineUserIds(): List<Long>
+
+    /**
+     * @return the sort key of the status at [offset] counting from the newest one, or null if the
+     * account has fewer statuses
+     */
+    @Query("""SELECT sortKey FROM TimelineStatusEntity WHERE timelineUserId = :accountId
+ORDER BY sortKey DESC LIMIT 1 OFFSET :offset""")
+    abstract fun getSortKeyAt(accountId: Long, offset: Int): String?
+
+    /**
+     * Deletes up to [limit] of the oldest statuses of the account with a sort key of at most [maxKey].
+     * @return the number of deleted statuses
+     */
+    @Query("""DELETE FROM TimelineStatusEntity WHERE rowid IN
+(SELECT rowid FROM TimelineStatusEntity WHERE timelineUserId = :accountId AND sortKey <= :maxKey
+ORDER BY sortKey LIMIT :limit)""")
+    abstract fun trimStatuses(accountId: Long, maxKey: String, limit: Int): Int
+
+    /**
+     * Deletes up to [limit] accounts which are neither author nor reblogger of any cached status.
+     * @return the number of deleted accounts
+     */
+    @Query("""DELETE FROM TimelineAccountEntity WHERE rowid IN
+(SELECT a.rowid FROM TimelineAccountEntity a
+WHERE NOT EXISTS (SELECT 1 FROM TimelineStatusEntity s
+    WHERE s.authorServerId = a.serverId AND s.timelineUserId = a.timelineUserId)
+AND NOT EXISTS (SELECT 1 FROM TimelineStatusEntity s
+    WHERE s.reblogAccountId = a.serverId AND s.timelineUserId = a.timelineUserId)
+LIMIT :limit)""")
+    abstract fun cleanupAccounts(limit: Int): Int
 
     @Query("""UPDATE TimelineStatusEntity SET poll = :poll
 WHERE timelineUserId = :accountId AND (serverId = :statusId OR reblogServerId = :statusId)""")
     abstract fun setVoted(accountId: Long, statusId: String, poll: String)
-}
\ No newline at end of file
+}
@@ -13,6 +13,8 @@ import com.keylesspalace.tusky.entity.Status
  * serialization).
  * "Reblog status", if present, is marked by [reblogServerId], and [reblogAccountId]
  * fields.
+ * Attachments, mentions and emojis are stored in their own tables ([TimelineAttachmentEntity],
+ * [TimelineMentionEntity], [TimelineEmojiEntity]) so they can be read without JSON decoding.
  */
 @Entity(
         primaryKeys = ["serverId", "timelineUserId"],
@@ -24,7 +26,12 @@ import com.keylesspalace.tusky.entity.Status
             )
         ]),
         // Avoiding rescanning status table when accounts table changes. Recommended by Room(c).
-        indices = [Index("authorServerId", "timelineUserId")]
+        indices = [
+            Index("authorServerId", "timelineUserId"),
+            Index("timelineUserId", "sortKey"),
+            // lets the cleanup find accounts which are only referenced as reblogger quickly
+            Index("reblogAccountId", "timelineUserId")
+        ]
 )
 @TypeConverters(Converters::class)
 data class TimelineStatusEntity(
@@ -37,7 +44,6 @@ data class TimelineStatusEntity(
         val inReplyToAccountId: String?,
         val content: String?,
         val createdAt: Long,
-        val emojis: String?,
         val reblogsCount: Int,
         val favouritesCount: Int,
         val reblogged: Boolean,
@@ -46,15 +52,30 @@ data class TimelineStatusEntity(
         val sensitive: Boolean,
         val spoilerText: String?,
         val visibility: Status.Visibility?,
-        val attachments: String?,
-        val mentions: String?,
         val application: String?,
         val reblogServerId: String?, // if it has a reblogged status, it's id is stored here
         val reblogAccountId: String?,
         val poll: String?,
-        val muted: Boolean?
+        val muted: Boolean?,
+        // derived from serverId, all range queries and sorting use it so they can use the index
+        val sortKey: String = timelineSortKey(serverId)
 )
 
+private const val SORT_KEY_LENGTH = 32
+
+/** sorts before the key of every id */
+const val MIN_SORT_KEY = ""
+/** sorts after the key of every id, ids only use ASCII characters */
+const val MAX_SORT_KEY = "\uFFFF"
+
+/**
+ * Pads [serverId] so that comparing keys as strings gives the order of the ids: shorter ids
+ * first, ids of the same length lexically. This is the order of
+ * [com.keylesspalace.tusky.util.isLessThan] for all ids up to [SORT_KEY_LENGTH] characters.
+ */
+fun timelineSortKey(serverId: String): String = serverId.padStart(SORT_KEY_LENGTH, ' ')
+
+
 @Entity(
         primaryKeys = ["serverId", "timelineUserId"]
 )
@@ -70,6 +91,141 @@ data class TimelineAccountEntity(
         val bot: Boolean
 )
 
+/**
+ * Media attachment of a cached status, [position] keeps the order of the attachments.
+ */
+@Entity(
+        primaryKeys = ["statusServerId", "timelineUserId", "position"],
+        foreignKeys = ([
+            ForeignKey(
+                    entity = TimelineStatusEntity::class,
+                    parentColumns = ["serverId", "timelineUserId"],
+                    childColumns = ["statusServerId", "timelineUserId"],
+                    onDelete = ForeignKey.CASCADE
+            )
+        ]),
+        indices = [Index("statusServerId", "timelineUserId")]
+)
+data class TimelineAttachmentEntity(
+        val statusServerId: String,
+        val timelineUserId: Long,
+        val position: Int,
+        val id: String,
+        val url: String,
+        val previewUrl: String?,
+        val focusX: Float?,
+        val focusY: Float?,
+        val duration: Float?,
+        val type: String,
+        val description: String?,
+        val blurhash: String?
+)
+
+@Entity(
+        primaryKeys = ["statusServerId", "timelineUserId", "position"],
+        foreignKeys = ([
+            ForeignKey(
+                    entity = TimelineStatusEntity::class,
+                    parentColumns = ["serverId", "timelineUserId"],
+                    childColumns = ["statusServerId", "timelineUserId"],
+                    onDelete = ForeignKey.CASCADE
+            )
+        ]),
+        indices = [Index("statusServerId", "timelineUserId")]
+)
+data class TimelineMentionEntity(
+        val statusServerId: String,
+        val timelineUserId: Long,
+        val position: Int,
+        val id: String,
+        val url: String,
+        val username: String,
+        val localUsername: String
+)
+
+@Entity(
+        primaryKeys = ["statusServerId", "timelineUserId", "position"],
+        foreignKeys = ([
+            ForeignKey(
+                    entity = TimelineStatusEntity::class,
+                    parentColumns = ["serverId", "timelineUserId"],
+                    childColumns = ["statusServerId", "timelineUserId"],
+                    onDelete = ForeignKey.CASCADE
+            )
+        ]),
+        indices = [Index("statusServerId", "timelineUserId")]
+)
+data class TimelineEmojiEntity(
+        val statusServerId: String,
+        val timelineUserId: Long,
+        val position: Int,
+        val shortcode: String,
+        val url: String,
+        val staticUrl: String,
+        val visibleInPicker: Boolean?
+)
+
+/**
+ * Whether a cached status is hidden by the filters of its account, see
+ * [com.keylesspalace.tusky.repository.TimelineFilter]. The verdict only holds as long as the
+ * filters have the same [filterVersion].
+ */
+@Entity(
+        primaryKeys = ["statusServerId", "timelineUserId"],
+        foreignKeys = ([
+            ForeignKey(
+                    entity = TimelineStatusEntity::class,
+                    parentColumns = ["serverId", "timelineUserId"],
+                    childColumns = ["statusServerId", "timelineUserId"],
+                    onDelete = ForeignKey.CASCADE
+            )
+        ])
+)
+data class TimelineFilterVerdictEntity(
+        val statusServerId: String,
+        val timelineUserId: Long,
+        val filterVersion: Int,
+        val filtered: Boolean
+)
+
+/**
+ * Rows of the child tables belonging to one or more statuses.
+ */
+data class TimelineStatusChildren(
+        val attachments: List<TimelineAttachmentEntity>,
+        val mentions: List<TimelineMentionEntity>,
+        val emojis: List<TimelineEmojiEntity>
+) {
+    companion object {
+        val EMPTY = TimelineStatusChildren(emptyList(), emptyList(), emptyList())
+
+        fun concat(children: List<TimelineStatusChildren>): TimelineStatusChildren {
+            return TimelineStatusChildren(
+                    children.flatMap { it.attachments },
+                    children.flatMap { it.mentions },
+                    children.flatMap { it.emojis }
+            )
+        }
+    }
+}
+
+/**
+ * A page of the home timeline as it is written to the cache by [TimelineDao.insertPage].
+ */
+data class TimelinePage(
+        val timelineUserId: Long,
+        /** authors and reblog authors of [statuses], each account only once */
+        val accounts: List<TimelineAccountEntity>,
+        /** newest first, like they are returned from the server */
+        val statuses: List<TimelineStatusEntity>,
+        val children: TimelineStatusChildren,
+        /** inserted unless a status with the same id is already stored */
+        val placeholders: List<TimelineStatusEntity>,
+        /** placeholders between this pair of (maxId, sinceId) are removed after inserting the page */
+        val removePlaceholdersBetween: Pair<String, String>?,
+        /** verdicts of the filters for [statuses] */
+        val filterVerdicts: List<TimelineFilterVerdictEntity> = emptyList()
+)
 
 class TimelineStatusWithAccount {
     @Embedded
@@ -78,4 +234,6 @@ class TimelineStatusWithAccount {
     lateinit var account: TimelineAccountEntity
     @Embedded(prefix = "rb_")
     var reblogAccount: TimelineAccountEntity? = null
+    /** null if the status was not checked against the current filters yet */
+    var filtered: Boolean? = null
 }
\ No newline at end of file
@@ -82,7 +82,10 @@ class AppModule {
                         AppDatabase.MIGRATION_13_14, AppDatabase.MIGRATION_14_15, AppDatabase.MIGRATION_15_16,
                         AppDatabase.MIGRATION_16_17, AppDatabase.MIGRATION_17_18, AppDatabase.MIGRATION_18_19,
                         AppDatabase.MIGRATION_19_20, AppDatabase.MIGRATION_20_21, AppDatabase.MIGRATION_21_22,
-                        AppDatabase.MIGRATION_22_23, AppDatabase.MIGRATION_23_24, AppDatabase.MIGRATION_24_25)
+                        AppDatabase.MIGRATION_22_23, AppDatabase.MIGRATION_23_24, AppDatabase.MIGRATION_24_25,
+                        AppDatabase.MIGRATION_25_26, AppDatabase.MIGRATION_26_27,
+                        AppDatabase.MIGRATION_27_28, AppDatabase.MIGRATION_28_29,
+                        AppDatabase.MIGRATION_29_30, AppDatabase.MIGRATION_30_31)
                 .build()
     }
 
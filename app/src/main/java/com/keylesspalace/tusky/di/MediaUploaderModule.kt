@@ -18,13 +18,16 @@ package com.keylesspalace.tusky.di
 import android.content.Context
 import com.keylesspalace.tusky.components.compose.MediaUploader
 import com.keylesspalace.tusky.components.compose.MediaUploaderImpl
+import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.network.MastodonApi
 import dagger.Module
 import dagger.Provides
+import javax.inject.Singleton
 
 @Module
 class MediaUploaderModule {
     @Provides
-    fun providesMediaUploder(context: Context, mastodonApi: MastodonApi): MediaUploader =
-            MediaUploaderImpl(context, mastodonApi)
+    @Singleton
+    fun providesMediaUploder(context: Context, mastodonApi: MastodonApi, accountManager: AccountManager): MediaUploader =
+            MediaUploaderImpl(context, mastodonApi, accountManager)
 }
\ No newline at end of file
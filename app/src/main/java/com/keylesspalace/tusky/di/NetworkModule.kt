@@ -22,7 +22,9 @@ import android.text.Spanned
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 import com.keylesspalace.tusky.BuildConfig
+import com.keylesspalace.tusky.appstore.EventHub
 import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.json.EntityTypeAdapterFactory
 import com.keylesspalace.tusky.json.SpannedTypeAdapter
 import com.keylesspalace.tusky.network.InstanceSwitchAuthInterceptor
 import com.keylesspalace.tusky.network.MastodonApi
@@ -31,6 +33,7 @@ import com.keylesspalace.tusky.util.getNonNullString
 import dagger.Module
 import dagger.Provides
 import net.accelf.yuito.HttpToastInterceptor
+import net.accelf.yuito.StreamingManager
 import okhttp3.Cache
 import okhttp3.OkHttp
 import okhttp3.OkHttpClient
@@ -56,6 +59,7 @@ class NetworkModule {
     fun providesGson(): Gson {
         return GsonBuilder()
                 .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+                .registerTypeAdapterFactory(EntityTypeAdapterFactory())
                 .create()
     }
 
@@ -122,6 +126,14 @@ class NetworkModule {
     @Singleton
     fun providesApi(retrofit: Retrofit): MastodonApi = retrofit.create()
 
+    @Provides
+    @Singleton
+    fun providesStreamingManager(
+            context: Context,
+            httpClient: OkHttpClient,
+            eventHub: EventHub
+    ): StreamingManager = StreamingManager(context, httpClient, eventHub)
+
     @Provides
     @Singleton
     fun providesNotestockApi(okHttpClient: OkHttpClient,
@@ -4,14 +4,18 @@ import com.google.gson.Gson
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.repository.NotificationsRepository
+import com.keylesspalace.tusky.repository.NotificationsRepositoryImpl
 import com.keylesspalace.tusky.repository.TimelineRepository
 import com.keylesspalace.tusky.repository.TimelineRepositoryImpl
 import dagger.Module
 import dagger.Provides
+import javax.inject.Singleton
 
 @Module
 class RepositoryModule {
     @Provides
+    @Singleton
     fun providesTimelineRepository(
             db: AppDatabase,
             mastodonApi: MastodonApi,
@@ -20,4 +24,15 @@ class RepositoryModule {
     ): TimelineRepository {
         return TimelineRepositoryImpl(db.timelineDao(), mastodonApi, accountManager, gson)
     }
-}
\ No newline at end of file
+
+    @Provides
+    @Singleton
+    fun providesNotificationsRepository(
+            db: AppDatabase,
+            mastodonApi: MastodonApi,
+            accountManager: AccountManager,
+            gson: Gson
+    ): NotificationsRepository {
+        return NotificationsRepositoryImpl(db.notificationsDao(), mastodonApi, accountManager, gson)
+    }
+}
@@ -4,7 +4,8 @@ import com.google.gson.annotations.SerializedName
 
 data class StreamEvent(
         var event: EventType,
-        var payload: String
+        var payload: String,
+        var stream: List<String>?
 ) {
 
     enum class EventType {
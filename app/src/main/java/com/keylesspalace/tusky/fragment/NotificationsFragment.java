@@ -73,15 +73,17 @@ import com.keylesspalace.tusky.interfaces.AccountActionListener;
 import com.keylesspalace.tusky.interfaces.ActionButtonActivity;
 import com.keylesspalace.tusky.interfaces.ReselectableFragment;
 import com.keylesspalace.tusky.interfaces.StatusActionListener;
+import com.keylesspalace.tusky.repository.NotificationsRepository;
+import com.keylesspalace.tusky.repository.TimelineRequestMode;
 import com.keylesspalace.tusky.settings.PrefKeys;
 import com.keylesspalace.tusky.util.CardViewMode;
 import com.keylesspalace.tusky.util.Either;
-import com.keylesspalace.tusky.util.HttpHeaderLink;
+import com.keylesspalace.tusky.util.IndexedPairedList;
 import com.keylesspalace.tusky.util.ListStatusAccessibilityDelegate;
 import com.keylesspalace.tusky.util.ListUtils;
 import com.keylesspalace.tusky.util.NotificationTypeConverterKt;
-import com.keylesspalace.tusky.util.PairedList;
 import com.keylesspalace.tusky.util.StatusDisplayOptions;
+import com.keylesspalace.tusky.util.TimestampTicker;
 import com.keylesspalace.tusky.util.ViewDataUtils;
 import com.keylesspalace.tusky.view.BackgroundMessageView;
 import com.keylesspalace.tusky.view.EndlessOnScrollListener;
@@ -93,16 +95,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 import at.connyduck.sparkbutton.helpers.Utils;
-import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -156,6 +155,8 @@ public class NotificationsFragment extends SFragment implements
     AccountManager accountManager;
     @Inject
     EventHub eventHub;
+    @Inject
+    NotificationsRepository notificationsRepository;
 
     private SwipeRefreshLayout swipeRefreshLayout;
     private RecyclerView recyclerView;
@@ -177,8 +178,8 @@ public class NotificationsFragment extends SFragment implements
     private boolean showingError;
 
     // Each element is either a Notification for loading data or a Placeholder
-    private final PairedList<Either<Placeholder, Notification>, NotificationViewData> notifications
-            = new PairedList<>(new Function<Either<Placeholder, Notification>, NotificationViewData>() {
+    private final IndexedPairedList<Either<Placeholder, Notification>, NotificationViewData> notifications
+            = new IndexedPairedList<>(new Function<Either<Placeholder, Notification>, NotificationViewData>() {
         @Override
         public NotificationViewData apply(Either<Placeholder, Notification> input) {
             if (input.isRight()) {
@@ -194,8 +195,29 @@ public class NotificationsFragment extends SFragment implements
                 return new NotificationViewData.Placeholder(input.asLeft().id, false);
             }
         }
+    }, input -> {
+        // only replies are looked up by their status
+        Status status = mentionStatusOf(input);
+        return status == null ? null : status.getId();
+    }, input -> {
+        Status status = mentionStatusOf(input);
+        return status == null || status.getReblog() == null ? null : status.getReblog().getId();
+    }, input -> {
+        Notification notification = input.asRightOrNull();
+        return notification == null
+                ? Collections.emptySet()
+                : Collections.singleton(notification.getAccount().getId());
     });
 
+    @Nullable
+    private static Status mentionStatusOf(Either<Placeholder, Notification> item) {
+        Notification notification = item.asRightOrNull();
+        if (notification == null || notification.getType() != Notification.Type.MENTION) {
+            return null;
+        }
+        return notification.getStatus();
+    }
+
     public static NotificationsFragment newInstance() {
         NotificationsFragment fragment = new NotificationsFragment();
         Bundle arguments = new Bundle();
@@ -279,7 +301,7 @@ public class NotificationsFragment extends SFragment implements
 
         if (notifications.isEmpty()) {
             swipeRefreshLayout.setEnabled(false);
-            sendFetchNotificationsRequest(null, null, FetchEnd.BOTTOM, -1);
+            loadCachedNotifications();
         } else {
             progressBar.setVisibility(View.GONE);
         }
@@ -454,6 +476,7 @@ public class NotificationsFragment extends SFragment implements
                 viewDataBuilder.createStatusViewData());
 
         notifications.setPairedItem(position, newViewData);
+        notificationsRepository.saveNotification(notifications.get(position).asRight());
         updateAdapter();
     }
 
@@ -489,6 +512,7 @@ public class NotificationsFragment extends SFragment implements
                 viewDataBuilder.createStatusViewData());
 
         notifications.setPairedItem(position, newViewData);
+        notificationsRepository.saveNotification(notifications.get(position).asRight());
         updateAdapter();
     }
 
@@ -524,6 +548,7 @@ public class NotificationsFragment extends SFragment implements
                 viewDataBuilder.createStatusViewData());
 
         notifications.setPairedItem(position, newViewData);
+        notificationsRepository.saveNotification(notifications.get(position).asRight());
         updateAdapter();
     }
 
@@ -693,6 +718,8 @@ public class NotificationsFragment extends SFragment implements
         //Update adapter
         updateAdapter();
 
+        notificationsRepository.clear();
+
         //Execute clear notifications request
         mastodonApi.clearNotifications()
                 .observeOn(AndroidSchedulers.mainThread())
@@ -793,6 +820,8 @@ public class NotificationsFragment extends SFragment implements
         }
         if (isChanged) {
             saveNotificationsFilter();
+            // the cache only holds notifications matching the old filter
+            notificationsRepository.clear();
             fullyRefreshWithProgressBar(true);
         }
 
@@ -878,6 +907,7 @@ public class NotificationsFragment extends SFragment implements
                 if (isAdded()) {
                     showNotificationsFilter = PreferenceManager.getDefaultSharedPreferences(getContext()).getBoolean("showNotificationsFilter", true);
                     updateFilterVisibility();
+                    notificationsRepository.clear();
                     fullyRefreshWithProgressBar(true);
                 }
                 break;
@@ -887,20 +917,20 @@ public class NotificationsFragment extends SFragment implements
 
     @Override
     public void removeItem(int position) {
-        notifications.remove(position);
+        Either<Placeholder, Notification> removed = notifications.remove(position);
+        if (removed.isRight()) {
+            notificationsRepository.removeNotification(removed.asRight().getId());
+        }
         updateAdapter();
     }
 
     private void removeAllByAccountId(String accountId) {
-        // using iterator to safely remove items while iterating
-        Iterator<Either<Placeholder, Notification>> iterator = notifications.iterator();
-        while (iterator.hasNext()) {
-            Either<Placeholder, Notification> notification = iterator.next();
-            Notification maybeNotification = notification.asRightOrNull();
-            if (maybeNotification != null && maybeNotification.getAccount().getId().equals(accountId)) {
-                iterator.remove();
-            }
+        List<Integer> positions = notifications.indicesOfAccountId(accountId);
+        // remove from the bottom so that the remaining positions stay valid
+        for (int i = positions.size() - 1; i >= 0; i--) {
+            notifications.remove((int) positions.get(i));
         }
+        notificationsRepository.removeAllByAccountId(accountId);
         updateAdapter();
     }
 
@@ -959,29 +989,77 @@ public class NotificationsFragment extends SFragment implements
             bottomLoading = true;
         }
 
-        Disposable notificationCall = mastodonApi.notifications(fromId, uptoId, LOAD_AT_ONCE, showNotificationsFilter ? notificationFilter : null)
-        .observeOn(AndroidSchedulers.mainThread())
+        Disposable notificationCall = notificationsRepository.getNotifications(fromId, uptoId,
+                LOAD_AT_ONCE, getNotificationExcludes(), TimelineRequestMode.NETWORK)
+                .observeOn(AndroidSchedulers.mainThread())
                 .as(autoDisposable(from(this, Lifecycle.Event.ON_DESTROY)))
                 .subscribe(
-                        response -> {
-                            if (response.isSuccessful()) {
-                                String linkHeader = response.headers().get("Link");
-                                onFetchNotificationsSuccess(response.body(), linkHeader, fetchEnd, pos);
-                            } else {
-                                onFetchNotificationsFailure(new Exception(response.message()), fetchEnd, pos);
-                            }
-                        },
+                        result -> onFetchNotificationsSuccess(unliftNotificationList(result), fetchEnd, pos),
                         throwable -> onFetchNotificationsFailure(throwable, fetchEnd, pos));
         disposables.add(notificationCall);
     }
 
-    private void onFetchNotificationsSuccess(List<Notification> notifications, String linkHeader,
+    /**
+     * Shows the cached notifications right away and then loads the newer ones from the server.
+     * Falls back to loading from the server if nothing is cached.
+     */
+    private void loadCachedNotifications() {
+        bottomLoading = true;
+        Disposable cacheCall = notificationsRepository.getNotifications(null, null,
+                LOAD_AT_ONCE, getNotificationExcludes(), TimelineRequestMode.DISK)
+                .observeOn(AndroidSchedulers.mainThread())
+                .as(autoDisposable(from(this, Lifecycle.Event.ON_DESTROY)))
+                .subscribe(
+                        this::onCachedNotificationsLoaded,
+                        throwable -> {
+                            Log.w(TAG, "failed to load cached notifications", throwable);
+                            onCachedNotificationsLoaded(Collections.emptyList());
+                        });
+        disposables.add(cacheCall);
+    }
+
+    private void onCachedNotificationsLoaded(
+            List<? extends Either<com.keylesspalace.tusky.repository.Placeholder, Notification>> cached) {
+        bottomLoading = false;
+
+        List<Either<Placeholder, Notification>> items = new ArrayList<>(cached.size());
+        for (Either<com.keylesspalace.tusky.repository.Placeholder, Notification> item : cached) {
+            if (item.isRight()) {
+                items.add(new Either.Right<>(item.asRight()));
+            } else if (!items.isEmpty() && items.get(items.size() - 1).isRight()) {
+                items.add(new Either.Left<>(newPlaceholder()));
+            }
+        }
+        // the end of the list is loaded by onLoadMore, no placeholder needed there
+        while (!items.isEmpty() && !items.get(items.size() - 1).isRight()) {
+            items.remove(items.size() - 1);
+        }
+
+        if (items.isEmpty()) {
+            sendFetchNotificationsRequest(null, null, FetchEnd.BOTTOM, -1);
+            return;
+        }
+
+        notifications.addAll(items);
+        bottomId = items.get(items.size() - 1).asRight().getId();
+        updateAdapter();
+        progressBar.setVisibility(View.GONE);
+        swipeRefreshLayout.setEnabled(true);
+        updateFilterVisibility();
+
+        sendFetchNotificationsRequest(null, items.get(0).asRight().getId(), FetchEnd.TOP, -1);
+    }
+
+    @Nullable
+    private Set<Notification.Type> getNotificationExcludes() {
+        return showNotificationsFilter ? notificationFilter : null;
+    }
+
+    private void onFetchNotificationsSuccess(List<Notification> notifications,
                                              FetchEnd fetchEnd, int pos) {
-        List<HttpHeaderLink> links = HttpHeaderLink.parse(linkHeader);
-        HttpHeaderLink next = HttpHeaderLink.findByRelationType(links, "next");
         String fromId = null;
-        if (next != null) {
-            fromId = next.uri.getQueryParameter("max_id");
+        if (!notifications.isEmpty()) {
+            fromId = notifications.get(notifications.size() - 1).getId();
         }
 
         switch (fetchEnd) {
@@ -1164,6 +1242,17 @@ public class NotificationsFragment extends SFragment implements
         return CollectionsKt.map(list, notificationLifter);
     }
 
+    private static List<Notification> unliftNotificationList(
+            List<? extends Either<com.keylesspalace.tusky.repository.Placeholder, Notification>> list) {
+        List<Notification> result = new ArrayList<>(list.size());
+        for (Either<com.keylesspalace.tusky.repository.Placeholder, Notification> item : list) {
+            if (item.isRight()) {
+                result.add(item.asRight());
+            }
+        }
+        return result;
+    }
+
     private void fullyRefreshWithProgressBar(boolean isShow) {
         resetNotificationsLoad();
         if (isShow) {
@@ -1180,18 +1269,11 @@ public class NotificationsFragment extends SFragment implements
 
     @Nullable
     private Pair<Integer, Notification> findReplyPosition(@NonNull String statusId) {
-        for (int i = 0; i < notifications.size(); i++) {
-            Notification notification = notifications.get(i).asRightOrNull();
-            if (notification != null
-                    && notification.getStatus() != null
-                    && notification.getType() == Notification.Type.MENTION
-                    && (statusId.equals(notification.getStatus().getId())
-                    || (notification.getStatus().getReblog() != null
-                    && statusId.equals(notification.getStatus().getReblog().getId())))) {
-                return new Pair<>(i, notification);
-            }
+        int position = notifications.indexOfIdOrReblogId(statusId);
+        if (position < 0) {
+            return null;
         }
-        return null;
+        return new Pair<>(position, notifications.get(position).asRight());
     }
 
     private void updateAdapter() {
@@ -1277,26 +1359,30 @@ public class NotificationsFragment extends SFragment implements
         Set<Notification.Type> accountNotificationFilter = NotificationTypeConverterKt.deserialize(rawAccountNotificationFilter);
         if (!notificationFilter.equals(accountNotificationFilter)) {
             loadNotificationsFilter();
+            notificationsRepository.clear();
             fullyRefreshWithProgressBar(true);
         }
         startUpdateTimestamp();
     }
 
     /**
-     * Start to update adapter every minute to refresh timestamp
+     * Start to refresh the timestamps of the visible notifications until the fragment is paused
      * If setting absoluteTimeView is false
-     * Auto dispose observable on pause
      */
     private void startUpdateTimestamp() {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
         boolean useAbsoluteTime = preferences.getBoolean("absoluteTimeView", false);
         if (!useAbsoluteTime) {
-            Observable.interval(1, TimeUnit.MINUTES)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .as(autoDisposable(from(this, Lifecycle.Event.ON_PAUSE)))
-                    .subscribe(
-                            interval -> updateAdapter()
-                    );
+            TimestampTicker.INSTANCE.start(this, recyclerView, position -> {
+                List<NotificationViewData> notifications = differ.getCurrentList();
+                if (position >= notifications.size()
+                        || !(notifications.get(position) instanceof NotificationViewData.Concrete)) {
+                    return null;
+                }
+                StatusViewData.Concrete status =
+                        ((NotificationViewData.Concrete) notifications.get(position)).getStatusViewData();
+                return status == null ? null : status.getCreatedAt();
+            });
         }
 
     }
@@ -24,7 +24,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Environment;
-import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -56,20 +55,19 @@ import com.keylesspalace.tusky.db.AccountManager;
 import com.keylesspalace.tusky.di.Injectable;
 import com.keylesspalace.tusky.entity.Attachment;
 import com.keylesspalace.tusky.entity.Filter;
-import com.keylesspalace.tusky.entity.PollOption;
 import com.keylesspalace.tusky.entity.Status;
 import com.keylesspalace.tusky.network.MastodonApi;
 import com.keylesspalace.tusky.network.TimelineCases;
+import com.keylesspalace.tusky.repository.TimelineFilter;
+import com.keylesspalace.tusky.util.FilterEngine;
 import com.keylesspalace.tusky.util.LinkHelper;
 import com.keylesspalace.tusky.view.MuteAccountDialog;
 import com.keylesspalace.tusky.viewdata.AttachmentViewData;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -97,9 +95,9 @@ public abstract class SFragment extends Fragment implements Injectable {
     private BottomSheetActivity bottomSheetActivity;
 
     private static List<Filter> filters;
-    private boolean filterRemoveRegex;
-    private Matcher filterRemoveRegexMatcher;
-    private static final Matcher alphanumeric = Pattern.compile("^\\w+$").matcher("");
+    // replaced on the main thread, but read by the filters captured for background work
+    private static volatile FilterEngine filterEngine;
+    private int filterContexts;
 
     @Inject
     public MastodonApi mastodonApi;
@@ -550,7 +548,11 @@ public abstract class SFragment extends Fragment implements Injectable {
             public void onResponse(@NonNull Call<List<Filter>> call, @NonNull Response<List<Filter>> response) {
                 filters = response.body();
                 if (response.isSuccessful() && filters != null) {
+                    filterEngine = new FilterEngine(filters);
                     applyFilters(forceRefresh);
+                    if (!forceRefresh) {
+                        onFiltersLoaded();
+                    }
                 } else {
                     Log.e(TAG, "Error getting filters from server");
                 }
@@ -563,10 +565,10 @@ public abstract class SFragment extends Fragment implements Injectable {
         });
     }
 
-    protected boolean filterIsRelevant(@NonNull Filter filter) {
-        // Called when building local filter expression
-        // Override to select relevant filters for your fragment
-        return false;
+    protected List<String> getFilterContexts() {
+        // Called when applying filters
+        // Override to select the filter contexts relevant for your fragment, e.g. Filter.HOME
+        return Collections.emptyList();
     }
 
     protected void refreshAfterApplyingFilters() {
@@ -574,46 +576,52 @@ public abstract class SFragment extends Fragment implements Injectable {
         // Override to refresh your fragment
     }
 
+    protected void onFiltersLoaded() {
+        // Called when the filters were loaded from the server without a refresh being requested
+        // Override to filter what was shown before they were loaded
+    }
+
     @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
     public boolean shouldFilterStatus(Status status) {
+        return filterEngine != null && filterEngine.shouldFilter(status, filterContexts);
+    }
 
-        if (filterRemoveRegex && status.getPoll() != null) {
-            for (PollOption option : status.getPoll().getOptions()) {
-                if (filterRemoveRegexMatcher.reset(option.getTitle()).find()) {
-                    return true;
-                }
-            }
+    /**
+     * @return the filters which currently apply to this fragment, or null if there are none. The
+     * result keeps using these filters when they are reloaded or flushed afterwards, so its
+     * verdicts always belong to its version.
+     */
+    @Nullable
+    protected TimelineFilter captureTimelineFilter() {
+        FilterEngine engine = filterEngine;
+        int contexts = filterContexts;
+        long now = System.currentTimeMillis();
+        if (engine == null || !engine.hasFilters(contexts, now)) {
+            return null;
         }
+        int version = engine.version(contexts, now);
+        return new TimelineFilter() {
+            @Override
+            public int getVersion() {
+                return version;
+            }
 
-        return (filterRemoveRegex && (filterRemoveRegexMatcher.reset(status.getActionableStatus().getContent()).find()
-                || (!status.getSpoilerText().isEmpty() && filterRemoveRegexMatcher.reset(status.getActionableStatus().getSpoilerText()).find())));
+            @Override
+            public boolean shouldFilter(@NonNull Status status) {
+                return engine.shouldFilter(status.getActionableStatus(), contexts);
+            }
+        };
     }
 
     private void applyFilters(boolean refresh) {
-        List<String> tokens = new ArrayList<>();
-        for (Filter filter : filters) {
-            if (filterIsRelevant(filter)) {
-                tokens.add(filterToRegexToken(filter));
-            }
-        }
-        filterRemoveRegex = !tokens.isEmpty();
-        if (filterRemoveRegex) {
-            filterRemoveRegexMatcher = Pattern.compile(TextUtils.join("|", tokens), Pattern.CASE_INSENSITIVE).matcher("");
-        }
+        filterContexts = FilterEngine.contextsOf(getFilterContexts());
         if (refresh) {
             refreshAfterApplyingFilters();
         }
     }
 
-    private static String filterToRegexToken(Filter filter) {
-        String phrase = filter.getPhrase();
-        String quotedPhrase = Pattern.quote(phrase);
-        return (filter.getWholeWord() && alphanumeric.reset(phrase).matches()) ? // "whole word" should only apply to alphanumeric filters, #1543
-                String.format("(^|\\W)%s($|\\W)", quotedPhrase) :
-                quotedPhrase;
-    }
-
     public static void flushFilters() {
         filters = null;
+        filterEngine = null;
     }
 }
@@ -31,15 +31,19 @@ import androidx.preference.PreferenceManager
 import androidx.recyclerview.widget.*
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout.OnRefreshListener
 import at.connyduck.sparkbutton.helpers.Utils
+import com.bumptech.glide.Glide
 import com.keylesspalace.tusky.AccountListActivity
 import com.keylesspalace.tusky.AccountListActivity.Companion.newIntent
 import com.keylesspalace.tusky.BaseActivity
 import com.keylesspalace.tusky.R
 import com.keylesspalace.tusky.adapter.StatusBaseViewHolder
+import com.keylesspalace.tusky.adapter.StatusContentPrefetcher
+import com.keylesspalace.tusky.adapter.StatusImagePreloader
 import com.keylesspalace.tusky.adapter.TimelineAdapter
 import com.keylesspalace.tusky.appstore.*
 import com.keylesspalace.tusky.components.compose.CAN_USE_QUOTE_ID
 import com.keylesspalace.tusky.databinding.FragmentTimelineBinding
+import com.keylesspalace.tusky.db.AccountEntity
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.di.Injectable
 import com.keylesspalace.tusky.entity.Filter
@@ -50,6 +54,7 @@ import com.keylesspalace.tusky.interfaces.RefreshableFragment
 import com.keylesspalace.tusky.interfaces.ReselectableFragment
 import com.keylesspalace.tusky.interfaces.StatusActionListener
 import com.keylesspalace.tusky.repository.Placeholder
+import com.keylesspalace.tusky.repository.TimelineFilter
 import com.keylesspalace.tusky.repository.TimelineRepository
 import com.keylesspalace.tusky.repository.TimelineRequestMode
 import com.keylesspalace.tusky.settings.PrefKeys
@@ -60,17 +65,12 @@ import com.keylesspalace.tusky.view.EndlessOnScrollListener
 import com.keylesspalace.tusky.viewdata.StatusViewData
 import com.uber.autodispose.android.lifecycle.AndroidLifecycleScopeProvider.from
 import com.uber.autodispose.autoDispose
-import io.reactivex.Observable
 import io.reactivex.Single
 import io.reactivex.android.schedulers.AndroidSchedulers
-import net.accelf.yuito.TimelineStreamingListener
-import okhttp3.OkHttpClient
-import okhttp3.Request
-import okhttp3.WebSocket
+import net.accelf.yuito.StreamingManager
 import retrofit2.Response
 import java.io.IOException
 import java.util.*
-import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import kotlin.collections.ArrayList
 
@@ -85,6 +85,9 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     @Inject
     lateinit var accountManager: AccountManager
 
+    @Inject
+    lateinit var streamingManager: StreamingManager
+
     private val binding by viewBinding(FragmentTimelineBinding::bind)
 
     private var kind: Kind? = null
@@ -92,6 +95,8 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     private var tags: List<String> = emptyList()
 
     private lateinit var adapter: TimelineAdapter
+    private lateinit var contentPrefetcher: StatusContentPrefetcher
+    private lateinit var imagePreloader: StatusImagePreloader
 
     private var isSwipeToRefreshEnabled = true
     private var isNeedRefresh = false
@@ -105,7 +110,28 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
             }
         }
 
-    private var webSocket: WebSocket? = null
+    /**
+     * The account the stream of this timeline is currently subscribed for, null if not subscribed.
+     */
+    private var streamingAccount: AccountEntity? = null
+
+    /**
+     * Stream updates received while the gap left by a reconnect is being fetched, oldest first.
+     */
+    private var pendingStreamUpdates: MutableList<Status>? = null
+
+    /**
+     * Whether the first status of a new stream was not shown yet, the gap to the statuses loaded
+     * before is marked with a placeholder below it.
+     */
+    private var streamGapPending = false
+
+    /**
+     * Coalesces stream updates so that a busy timeline is diffed at most once per frame.
+     */
+    private val streamUpdateBatcher = FrameBatcher<StreamUpdateEvent> { events ->
+        handleStreamUpdateEvents(events)
+    }
 
     private var eventRegistered = false
 
@@ -127,19 +153,28 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     private var reduceTimelineLoading = false
     private var checkMobileNetwork = true
 
-    private val statuses = PairedList<Either<Placeholder, Status>, StatusViewData> { input ->
-        val status = input.asRightOrNull()
-        if (status != null) {
-            ViewDataUtils.statusToViewData(
-                    status,
-                    alwaysShowSensitiveMedia,
-                    alwaysOpenSpoiler
-            )
-        } else {
-            val (id1) = input.asLeft()
-            StatusViewData.Placeholder(id1, false)
-        }
-    }
+    private val statuses = IndexedPairedList<Either<Placeholder, Status>, StatusViewData>(
+            { input ->
+                val status = input.asRightOrNull()
+                if (status != null) {
+                    ViewDataUtils.statusToViewData(
+                            status,
+                            alwaysShowSensitiveMedia,
+                            alwaysOpenSpoiler
+                    )
+                } else {
+                    val (id1) = input.asLeft()
+                    StatusViewData.Placeholder(id1, false)
+                }
+            },
+            { input -> input.asRightOrNull()?.id },
+            { input -> input.asRightOrNull()?.reblog?.id },
+            { input ->
+                input.asRightOrNull()?.let { status ->
+                    setOf(status.account.id, status.actionableStatus.account.id)
+                } ?: emptySet()
+            }
+    )
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -169,6 +204,10 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
                 quoteEnabled = CAN_USE_QUOTE_ID.contains(accountManager.activeAccount?.domain),
         )
         adapter = TimelineAdapter(dataSource, statusDisplayOptions, this)
+        contentPrefetcher = StatusContentPrefetcher(this, statusDisplayOptions.animateEmojis)
+        adapter.setContentPrefetcher(contentPrefetcher)
+        imagePreloader = StatusImagePreloader(requireContext(), Glide.with(this), dataSource, statusDisplayOptions)
+        adapter.setImagePreloader(imagePreloader)
     }
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
@@ -206,38 +245,28 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         stopStreaming()
     }
 
+    override fun onDestroy() {
+        streamUpdateBatcher.clear()
+        contentPrefetcher.dispose()
+        super.onDestroy()
+    }
+
     private fun startStreaming() {
+        if (streamingAccount != null) {
+            return
+        }
         accountManager.activeAccount?.let { activeAccount ->
-            val params = when (kind) {
-                Kind.HOME -> {
-                    "user"
-                }
-                Kind.PUBLIC_FEDERATED -> {
-                    "public"
-                }
-                Kind.PUBLIC_LOCAL -> {
-                    "public:local"
-                }
-                Kind.LIST -> {
-                    "list&list=$id"
-                }
-                else -> {
-                    return
-                }
-            }
-            val endpoint = ("wss://${activeAccount.domain}/api/v1/streaming/?access_token=${activeAccount.accessToken}&stream=${params}")
-            if (webSocket != null) {
-                stopStreaming()
+            if (streamingManager.subscribe(activeAccount, kind!!, id)) {
+                streamingAccount = activeAccount
             }
-            val request: Request = Request.Builder().url(endpoint).build()
-            val client: OkHttpClient = OkHttpClient.Builder().build()
-            webSocket = client.newWebSocket(request, TimelineStreamingListener(eventHub, kind!!, id))
         }
     }
 
     private fun stopStreaming() {
-        webSocket?.close(1000, null)
-        webSocket = null
+        streamingAccount?.let { account ->
+            streamingManager.unsubscribe(account, kind!!, id)
+        }
+        streamingAccount = null
     }
 
     private fun sendInitialRequest() {
@@ -251,16 +280,17 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     private fun tryCache() {
         // Request timeline from disk to make it quick, then replace it with timeline from
         // the server to update it
-        timelineRepo.getStatuses(null, null, null, LOAD_AT_ONCE, TimelineRequestMode.DISK)
+        val filter = homeTimelineFilter()
+        timelineRepo.getStatuses(null, null, null, LOAD_AT_ONCE, TimelineRequestMode.DISK, filter)
                 .observeOn(AndroidSchedulers.mainThread())
                 .autoDispose(from(this))
                 .subscribe { statuses: List<Either<Placeholder, Status>> ->
                     val mutableStatusResponse = statuses.toMutableList()
-                    filterStatuses(mutableStatusResponse)
+                    filterStatuses(mutableStatusResponse, filter != null)
                     if (statuses.size > 1) {
                         clearPlaceholdersForResponse(mutableStatusResponse)
                         this.statuses.clear()
-                        this.statuses.addAll(statuses)
+                        this.statuses.addAll(mutableStatusResponse)
                         updateAdapter()
                         binding.progressBar.hide()
                         // Request statuses including current top to refresh all of them
@@ -275,8 +305,9 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
             return
         }
         val topId = statuses.first { status -> status.isRight() }!!.asRight().id
+        val filter = homeTimelineFilter()
         timelineRepo.getStatuses(topId, null, null, LOAD_AT_ONCE,
-                TimelineRequestMode.NETWORK)
+                TimelineRequestMode.NETWORK, filter)
                 .observeOn(AndroidSchedulers.mainThread())
                 .autoDispose(from(this))
                 .subscribe(
@@ -286,7 +317,7 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
                             // When cached timeline is too old, we would replace it with nothing
                             if (statuses.isNotEmpty()) {
                                 val mutableStatuses = statuses.toMutableList()
-                                filterStatuses(mutableStatuses)
+                                filterStatuses(mutableStatuses, filter != null)
                                 if (!this.statuses.isEmpty()) {
                                     // clear old cached statuses
                                     val iterator = this.statuses.iterator()
@@ -331,8 +362,8 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         updateLimitedBandwidthStatus(preferences)
     }
 
-    override fun filterIsRelevant(filter: Filter): Boolean {
-        return filterContextMatchesKind(kind, filter.context)
+    override fun getFilterContexts(): List<String> {
+        return filterContextsOfKind(kind)
     }
 
     override fun refreshAfterApplyingFilters() {
@@ -359,16 +390,14 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         // CWs are expanded without animation, buttons animate itself, we don't need it basically
         (binding.recyclerView.itemAnimator as SimpleItemAnimator).supportsChangeAnimations = false
         binding.recyclerView.adapter = adapter
+        binding.recyclerView.addOnScrollListener(imagePreloader)
     }
 
     private fun deleteStatusById(id: String) {
-        for (i in statuses.indices) {
-            val either = statuses[i]
-            if (either.isRight() && id == either.asRight().id) {
-                statuses.remove(either)
-                updateAdapter()
-                break
-            }
+        val position = statuses.indexOfId(id)
+        if (position >= 0) {
+            statuses.removeAt(position)
+            updateAdapter()
         }
         if (statuses.isEmpty()) {
             showEmptyView()
@@ -471,7 +500,12 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
                             }
                             is StreamUpdateEvent -> {
                                 if (isStreamingEnabled) {
-                                    handleStreamUpdateEvent(event)
+                                    streamUpdateBatcher.add(event)
+                                }
+                            }
+                            is StreamReconnectedEvent -> {
+                                if (isStreamingEnabled) {
+                                    handleStreamReconnectedEvent(event)
                                 }
                             }
                         }
@@ -744,6 +778,7 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
                 val oldMediaPreviewEnabled = adapter.mediaPreviewEnabled
                 if (enabled != oldMediaPreviewEnabled) {
                     adapter.mediaPreviewEnabled = enabled
+                    imagePreloader.statusDisplayOptions = imagePreloader.statusDisplayOptions.copy(mediaPreviewEnabled = enabled)
                     fullyRefresh()
                 }
             }
@@ -784,6 +819,18 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         reduceTimelineLoading = sharedPreferences.getBoolean(PrefKeys.LIMITED_BANDWIDTH_ACTIVE, false)
                 && sharedPreferences.getBoolean(PrefKeys.LIMITED_BANDWIDTH_TIMELINE_LOADING, true)
         checkMobileNetwork = sharedPreferences.getBoolean(PrefKeys.LIMITED_BANDWIDTH_ONLY_MOBILE_NETWORK, true)
+        updateImagePreloading()
+    }
+
+    /**
+     * Images are only preloaded when timelines are loaded without asking, the network might have
+     * changed since so this is checked again in [onResume].
+     */
+    private fun updateImagePreloading() {
+        imagePreloader.enabled = !reduceTimelineLoading
+                || (checkMobileNetwork && activity?.let {
+                    (it.getSystemService(CONNECTIVITY_SERVICE) as ConnectivityManager).isActiveNetworkMetered
+                } == false)
     }
 
     public override fun removeItem(position: Int) {
@@ -792,15 +839,12 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     }
 
     private fun removeAllByAccountId(accountId: String) {
-        // using iterator to safely remove items while iterating
-        val iterator = statuses.iterator()
-        while (iterator.hasNext()) {
-            val status = iterator.next().asRightOrNull()
-            if (status != null &&
-                    (status.account.id == accountId || status.actionableStatus.account.id == accountId)) {
-                iterator.remove()
-            }
+        val positions = statuses.indicesOfAccountId(accountId)
+        if (positions.isEmpty()) {
+            return
         }
+        // remove from the bottom so that the remaining positions stay valid
+        positions.asReversed().forEach { position -> statuses.removeAt(position) }
         updateAdapter()
     }
 
@@ -893,11 +937,14 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
             } else {
                 TimelineRequestMode.NETWORK
             }
-            timelineRepo.getStatuses(maxId, sinceId, sinceIdMinusOne, LOAD_AT_ONCE, mode)
+            val filter = homeTimelineFilter()
+            timelineRepo.getStatuses(maxId, sinceId, sinceIdMinusOne, LOAD_AT_ONCE, mode, filter)
                     .observeOn(AndroidSchedulers.mainThread())
                     .autoDispose(from(this))
                     .subscribe(
-                            { result: List<Either<Placeholder, Status>> -> onFetchTimelineSuccess(result.toMutableList(), fetchEnd, pos) },
+                            { result: List<Either<Placeholder, Status>> ->
+                                onFetchTimelineSuccess(result.toMutableList(), fetchEnd, pos, filter != null)
+                            },
                             { t: Throwable -> onFetchTimelineFailure(t, fetchEnd, pos) }
                     )
         } else {
@@ -931,16 +978,21 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         return nextLink.getQueryParameter("max_id")
     }
 
+    /**
+     * @param filteredByRepository true when the repository already applied the filters
+     */
     private fun onFetchTimelineSuccess(statuses: MutableList<Either<Placeholder, Status>>,
-                                       fetchEnd: FetchEnd, pos: Int) {
+                                       fetchEnd: FetchEnd, pos: Int,
+                                       filteredByRepository: Boolean = false) {
 
         // We filled the hole (or reached the end) if the server returned less statuses than we
         // we asked for.
         val fullFetch = statuses.size >= LOAD_AT_ONCE
-        filterStatuses(statuses)
+        filterStatuses(statuses, filteredByRepository)
         when (fetchEnd) {
             FetchEnd.TOP -> {
                 updateStatuses(statuses, fullFetch)
+                flushPendingStreamUpdates()
             }
             FetchEnd.MIDDLE -> {
                 replacePlaceholderWithStatuses(statuses, fullFetch, pos)
@@ -983,6 +1035,9 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     }
 
     private fun onFetchTimelineFailure(throwable: Throwable, fetchEnd: FetchEnd, position: Int) {
+        if (fetchEnd == FetchEnd.TOP) {
+            flushPendingStreamUpdates()
+        }
         if (isAdded) {
             binding.swipeRefreshLayout.isRefreshing = false
             binding.topProgressBar.hide()
@@ -1024,19 +1079,40 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         }
     }
 
-    private fun filterStatuses(statuses: MutableList<Either<Placeholder, Status>>) {
+    /**
+     * @param filteredByRepository true when the repository already applied the filters, which it
+     * only does for the home timeline once they are loaded
+     */
+    private fun filterStatuses(statuses: MutableList<Either<Placeholder, Status>>,
+                               filteredByRepository: Boolean = false) {
         val it = statuses.iterator()
         while (it.hasNext()) {
             val status = it.next().asRightOrNull()
             if (status != null
                     && (status.inReplyToId != null && filterRemoveReplies
                             || status.reblog != null && filterRemoveReblogs
-                            || shouldFilterStatus(status.actionableStatus))) {
+                            || !filteredByRepository && shouldFilterStatus(status.actionableStatus))) {
                 it.remove()
             }
         }
     }
 
+    override fun onFiltersLoaded() {
+        // statuses which arrived before the filters were loaded were not filtered
+        val sizeBefore = statuses.size
+        statuses.removeAll { item ->
+            item.asRightOrNull()?.let { shouldFilterStatus(it.actionableStatus) } ?: false
+        }
+        if (statuses.size != sizeBefore) {
+            updateAdapter()
+        }
+    }
+
+    /**
+     * @return the filters for [timelineRepo], which remembers their verdicts for cached statuses
+     */
+    private fun homeTimelineFilter(): TimelineFilter? = captureTimelineFilter()
+
     private fun updateStatuses(newStatuses: MutableList<Either<Placeholder, Status>>, fullFetch: Boolean) {
         if (newStatuses.isEmpty()) {
             updateAdapter()
@@ -1091,24 +1167,24 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         }
     }
 
-    private fun addStatus(item: Either<Placeholder, Status>) {
-        if (item.isRight()) {
-            val status = item.asRight()
-            if (!(status.inReplyToId != null && filterRemoveReplies
-                            || status.reblog != null && filterRemoveReblogs
-                            || shouldFilterStatus(status))) {
-                if (findStatusOrReblogPositionById(status.id) < 0) {
-                    statuses.add(0, item)
-                    updateAdapter()
-                    if (kind == Kind.HOME) {
-                        timelineRepo.addSingleStatusToDb(status)
-                    }
-                }
-            }
-        } else {
-            statuses.add(0, item)
-            updateAdapter()
+    /**
+     * Puts a status on top of the timeline unless it is filtered or already shown.
+     * The adapter is not updated, so that several statuses can be added with a single diff.
+     *
+     * @return true if the status was added
+     */
+    private fun prependStatus(status: Status): Boolean {
+        if (status.inReplyToId != null && filterRemoveReplies
+                || status.reblog != null && filterRemoveReblogs
+                || shouldFilterStatus(status)
+                || findStatusOrReblogPositionById(status.id) >= 0) {
+            return false
+        }
+        statuses.add(0, Right(status))
+        if (kind == Kind.HOME) {
+            timelineRepo.addSingleStatusToDb(status)
         }
+        return true
     }
 
     /**
@@ -1137,12 +1213,7 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     }
 
     private fun findStatusOrReblogPositionById(statusId: String): Int {
-        return statuses.indexOfFirst { either ->
-            val status = either.asRightOrNull()
-            status != null &&
-                    (statusId == status.id ||
-                            (status.reblog != null && statusId == status.reblog.id))
-        }
+        return statuses.indexOfIdOrReblogId(statusId)
     }
 
     private val statusLifter: Function1<Status, Either<Placeholder, Status>> = { value -> Right(value) }
@@ -1156,7 +1227,7 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         if (someOldViewData is StatusViewData.Placeholder ||
                 (someOldViewData as StatusViewData.Concrete).id != status.id) {
             // try to find the status we need to update
-            val foundPos = statuses.indexOf(Right(status))
+            val foundPos = statuses.indexOfId(status.id)
             if (foundPos < 0) return null // okay, it's hopeless, give up
             statusToUpdate = statuses.getPairedItem(foundPos) as StatusViewData.Concrete
             positionToUpdate = position
@@ -1219,17 +1290,58 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         }
     }
 
-    private fun handleStreamUpdateEvent(event: StreamUpdateEvent) {
+    private fun handleStreamUpdateEvents(events: List<StreamUpdateEvent>) {
+        var changed = false
+        for (event in events) {
+            if (event.targetKind != kind || event.targetIdentifier != null && event.targetIdentifier != id) {
+                continue
+            }
+
+            val status = event.status
+            val pending = pendingStreamUpdates
+            if (pending != null) {
+                pending.add(status)
+                continue
+            }
+            if (event.first) {
+                streamGapPending = true
+            }
+            val previousTop = statuses.firstOrNull()?.asRightOrNull()
+            if (prependStatus(status)) {
+                if (streamGapPending && previousTop != null) {
+                    statuses.add(1, Left(Placeholder(previousTop.id.inc())))
+                }
+                streamGapPending = false
+                changed = true
+            }
+        }
+        if (changed) {
+            updateAdapter()
+        }
+    }
+
+    private fun handleStreamReconnectedEvent(event: StreamReconnectedEvent) {
         if (event.targetKind != kind || event.targetIdentifier != null && event.targetIdentifier != id) {
             return
         }
+        if (pendingStreamUpdates != null || statuses.none { it.isRight() }) {
+            return
+        }
 
-        val status = event.status
-        if (event.first && statuses[0].isRight()) {
-            val placeholder = Placeholder(statuses[0].asRight().id + 1)
-            updateStatuses(mutableListOf(Right(status), Left(placeholder)), false)
-        } else {
-            addStatus(Right(status))
+        // Fetch everything newer than our top status in one request. Updates arriving meanwhile
+        // are held back so that they don't become the top before the gap is filled.
+        streamGapPending = false
+        pendingStreamUpdates = mutableListOf()
+        loadAbove()
+    }
+
+    private fun flushPendingStreamUpdates() {
+        val pending = pendingStreamUpdates ?: return
+        pendingStreamUpdates = null
+        var changed = false
+        pending.forEach { status -> changed = prependStatus(status) || changed }
+        if (changed) {
+            updateAdapter()
         }
     }
 
@@ -1238,7 +1350,9 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
     }
 
     private fun updateAdapter() {
-        differ.submitList(statuses.pairedCopy)
+        val list = statuses.pairedCopy
+        contentPrefetcher.prefetch(list)
+        differ.submitList(list)
     }
 
     private val listUpdateCallback: ListUpdateCallback = object : ListUpdateCallback {
@@ -1301,22 +1415,21 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         if (talkBackWasEnabled && !wasEnabled) {
             adapter.notifyDataSetChanged()
         }
+        updateImagePreloading()
         startUpdateTimestamp()
     }
 
     /**
-     * Start to update adapter every minute to refresh timestamp
+     * Start to refresh the timestamps of the visible statuses until the fragment is paused
      * If setting absoluteTimeView is false
-     * Auto dispose observable on pause
      */
     private fun startUpdateTimestamp() {
         val preferences = PreferenceManager.getDefaultSharedPreferences(activity)
         val useAbsoluteTime = preferences.getBoolean(PrefKeys.ABSOLUTE_TIME_VIEW, false)
         if (!useAbsoluteTime) {
-            Observable.interval(1, TimeUnit.MINUTES)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .autoDispose(from(this, Lifecycle.Event.ON_PAUSE))
-                    .subscribe { updateAdapter() }
+            TimestampTicker.start(this, binding.recyclerView) { position ->
+                (differ.currentList.getOrNull(position) as? StatusViewData.Concrete)?.createdAt
+            }
         }
     }
 
@@ -1380,13 +1493,17 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
         }
 
         private fun filterContextMatchesKind(kind: Kind?, filterContext: List<String>): Boolean {
+            return filterContextsOfKind(kind).any { filterContext.contains(it) }
+        }
+
+        private fun filterContextsOfKind(kind: Kind?): List<String> {
             // home, notifications, public, thread
             return when (kind) {
-                Kind.HOME, Kind.LIST -> filterContext.contains(Filter.HOME)
-                Kind.PUBLIC_FEDERATED, Kind.PUBLIC_LOCAL, Kind.TAG -> filterContext.contains(Filter.PUBLIC)
-                Kind.FAVOURITES -> filterContext.contains(Filter.PUBLIC) || filterContext.contains(Filter.NOTIFICATIONS)
-                Kind.USER, Kind.USER_WITH_REPLIES, Kind.USER_PINNED -> filterContext.contains(Filter.ACCOUNT)
-                else -> false
+                Kind.HOME, Kind.LIST -> listOf(Filter.HOME)
+                Kind.PUBLIC_FEDERATED, Kind.PUBLIC_LOCAL, Kind.TAG -> listOf(Filter.PUBLIC)
+                Kind.FAVOURITES -> listOf(Filter.PUBLIC, Filter.NOTIFICATIONS)
+                Kind.USER, Kind.USER_WITH_REPLIES, Kind.USER_PINNED -> listOf(Filter.ACCOUNT)
+                else -> emptyList()
             }
         }
 
@@ -1400,11 +1517,14 @@ class TimelineFragment : SFragment(), OnRefreshListener, StatusActionListener, I
             }
 
             override fun getChangePayload(oldItem: StatusViewData, newItem: StatusViewData): Any? {
-                return if (oldItem.deepEquals(newItem)) {
-                    // If items are equal - update timestamp only
+                return if (oldItem is StatusViewData.Concrete && newItem is StatusViewData.Concrete) {
+                    // update the timestamp and whatever actions changed, or the whole view holder
+                    StatusBaseViewHolder.Key.payloadOf(oldItem, newItem)
+                } else if (oldItem.deepEquals(newItem)) {
                     listOf(StatusBaseViewHolder.Key.KEY_CREATED)
-                } else  // If items are different - update the whole view holder
+                } else {
                     null
+                }
             }
         }
     }
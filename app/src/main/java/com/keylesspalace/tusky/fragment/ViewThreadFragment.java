@@ -69,6 +69,7 @@ import com.keylesspalace.tusky.viewdata.StatusViewData;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -719,8 +720,8 @@ public final class ViewThreadFragment extends SFragment implements
     }
 
     @Override
-    protected boolean filterIsRelevant(@NonNull Filter filter) {
-        return filter.getContext().contains(Filter.THREAD);
+    protected List<String> getFilterContexts() {
+        return Collections.singletonList(Filter.THREAD);
     }
 
     @Override
@@ -0,0 +1,375 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.json
+
+import android.text.Spanned
+import android.text.SpannedString
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import com.keylesspalace.tusky.entity.*
+import com.keylesspalace.tusky.util.ContentRenderer
+import java.util.*
+
+/**
+ * Streaming type adapters for the entities which are parsed the most: statuses, accounts,
+ * notifications, emojis and streaming events.
+ * They read fields by name in a single pass instead of going through Gson reflection. Writing is
+ * delegated to the reflective adapters, so stored JSON keeps its format and can be read by both.
+ * Everything else (attachments, polls, cards...) is read by the adapters registered in [Gson].
+ */
+class EntityTypeAdapterFactory : TypeAdapterFactory {
+
+    @Suppress("UNCHECKED_CAST")
+    override fun <T> create(gson: Gson, type: TypeToken<T>): TypeAdapter<T>? {
+        return when (type.rawType) {
+            Status::class.java -> StatusAdapter(gson, gson.getDelegateAdapter(this, type as TypeToken<Status>))
+            Account::class.java -> AccountAdapter(gson, gson.getDelegateAdapter(this, type as TypeToken<Account>))
+            Notification::class.java -> NotificationAdapter(gson, gson.getDelegateAdapter(this, type as TypeToken<Notification>))
+            Emoji::class.java -> EmojiAdapter(gson.getDelegateAdapter(this, type as TypeToken<Emoji>))
+            StreamEvent::class.java -> StreamEventAdapter(gson, gson.getDelegateAdapter(this, type as TypeToken<StreamEvent>))
+            else -> null
+        } as TypeAdapter<T>?
+    }
+
+    private abstract class ReadingAdapter<T>(private val writer: TypeAdapter<T>) : TypeAdapter<T>() {
+
+        abstract fun readObject(reader: JsonReader): T
+
+        override fun read(reader: JsonReader): T? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            reader.beginObject()
+            val result = readObject(reader)
+            reader.endObject()
+            return result
+        }
+
+        override fun write(out: JsonWriter, value: T?) {
+            writer.write(out, value)
+        }
+    }
+
+    private class StatusAdapter(gson: Gson, writer: TypeAdapter<Status>) : ReadingAdapter<Status>(writer) {
+        private val accountAdapter = gson.getAdapter(Account::class.java)
+        private val dateAdapter = gson.getAdapter(Date::class.java)
+        private val emojisAdapter = gson.getAdapter(emojiListType)
+        private val visibilityAdapter = gson.getAdapter(Status.Visibility::class.java)
+        private val attachmentsAdapter = gson.getAdapter(attachmentListType)
+        private val mentionsAdapter = gson.getAdapter(Array<Status.Mention>::class.java)
+        private val applicationAdapter = gson.getAdapter(Status.Application::class.java)
+        private val pollAdapter = gson.getAdapter(Poll::class.java)
+        private val cardAdapter = gson.getAdapter(Card::class.java)
+
+        override fun readObject(reader: JsonReader): Status {
+            var id: String? = null
+            var url: String? = null
+            var account: Account? = null
+            var inReplyToId: String? = null
+            var inReplyToAccountId: String? = null
+            var reblog: Status? = null
+            var contentHtml: String? = null
+            var createdAt: Date? = null
+            var emojis: List<Emoji>? = null
+            var reblogsCount = 0
+            var favouritesCount = 0
+            var reblogged = false
+            var favourited = false
+            var bookmarked = false
+            var sensitive = false
+            var spoilerText: String? = null
+            var visibility: Status.Visibility? = null
+            var attachments: List<Attachment>? = null
+            var mentions: Array<Status.Mention>? = null
+            var application: Status.Application? = null
+            var pinned: Boolean? = null
+            var muted: Boolean? = null
+            var poll: Poll? = null
+            var card: Card? = null
+            var quote: Status? = null
+
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "id" -> id = reader.nextStringOrNull()
+                    "url" -> url = reader.nextStringOrNull()
+                    "account" -> account = accountAdapter.read(reader)
+                    "in_reply_to_id" -> inReplyToId = reader.nextStringOrNull()
+                    "in_reply_to_account_id" -> inReplyToAccountId = reader.nextStringOrNull()
+                    "reblog" -> reblog = read(reader)
+                    "content" -> contentHtml = reader.nextStringOrNull()
+                    "created_at", "published" -> createdAt = dateAdapter.read(reader)
+                    "emojis" -> emojis = emojisAdapter.read(reader)
+                    "reblogs_count" -> reblogsCount = reader.nextIntOrDefault(0)
+                    "favourites_count" -> favouritesCount = reader.nextIntOrDefault(0)
+                    "reblogged" -> reblogged = reader.nextBooleanOrNull() ?: false
+                    "favourited" -> favourited = reader.nextBooleanOrNull() ?: false
+                    "bookmarked" -> bookmarked = reader.nextBooleanOrNull() ?: false
+                    "sensitive" -> sensitive = reader.nextBooleanOrNull() ?: false
+                    "spoiler_text", "summary" -> spoilerText = reader.nextStringOrNull()
+                    "visibility" -> visibility = visibilityAdapter.read(reader)
+                    "media_attachments", "attachment" -> attachments = attachmentsAdapter.read(reader)
+                    "mentions" -> mentions = mentionsAdapter.read(reader)
+                    "application" -> application = applicationAdapter.read(reader)
+                    "pinned" -> pinned = reader.nextBooleanOrNull()
+                    "muted" -> muted = reader.nextBooleanOrNull()
+                    "poll" -> poll = pollAdapter.read(reader)
+                    "card" -> card = cardAdapter.read(reader)
+                    "quote" -> quote = read(reader)
+                    else -> reader.skipValue()
+                }
+            }
+
+            val statusId = id ?: throw JsonParseException("status without id")
+            return Status(
+                    id = statusId,
+                    url = url,
+                    account = account ?: throw JsonParseException("status $id without account"),
+                    inReplyToId = inReplyToId,
+                    inReplyToAccountId = inReplyToAccountId,
+                    reblog = reblog,
+                    // rendered here instead of by the Spanned adapter so the result can be cached per status
+                    content = contentHtml?.let { ContentRenderer.render(statusId, it) } ?: SpannedString(""),
+                    createdAt = createdAt ?: throw JsonParseException("status $id without created_at"),
+                    emojis = emojis.orEmpty(),
+                    reblogsCount = reblogsCount,
+                    favouritesCount = favouritesCount,
+                    reblogged = reblogged,
+                    favourited = favourited,
+                    bookmarked = bookmarked,
+                    sensitive = sensitive,
+                    spoilerText = spoilerText.orEmpty(),
+                    visibility = visibility ?: Status.Visibility.UNKNOWN,
+                    attachments = if (attachments is ArrayList) attachments else ArrayList(attachments.orEmpty()),
+                    mentions = mentions ?: emptyArray(),
+                    application = application,
+                    pinned = pinned,
+                    muted = muted,
+                    poll = poll,
+                    card = card,
+                    quote = quote
+            )
+        }
+    }
+
+    private class AccountAdapter(gson: Gson, writer: TypeAdapter<Account>) : ReadingAdapter<Account>(writer) {
+        private val spannedAdapter = gson.getAdapter(Spanned::class.java)
+        private val sourceAdapter = gson.getAdapter(AccountSource::class.java)
+        private val emojisAdapter = gson.getAdapter(emojiListType)
+        private val fieldsAdapter = gson.getAdapter(fieldListType)
+
+        override fun readObject(reader: JsonReader): Account {
+            var id: String? = null
+            var localUsername: String? = null
+            var username: String? = null
+            var displayName: String? = null
+            var note: Spanned? = null
+            var url: String? = null
+            var avatar: String? = null
+            var header: String? = null
+            var locked = false
+            var followersCount = 0
+            var followingCount = 0
+            var statusesCount = 0
+            var source: AccountSource? = null
+            var bot = false
+            var emojis: List<Emoji>? = emptyList()
+            var fields: List<Field>? = emptyList()
+            var moved: Account? = null
+            var notestockUsername: String? = null
+
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "id" -> id = reader.nextStringOrNull()
+                    "username" -> localUsername = reader.nextStringOrNull()
+                    "acct", "subject" -> username = reader.nextStringOrNull()
+                    "display_name" -> displayName = reader.nextStringOrNull()
+                    "note" -> note = spannedAdapter.read(reader)
+                    "url" -> url = reader.nextStringOrNull()
+                    "avatar" -> avatar = reader.nextStringOrNull()
+                    "header" -> header = reader.nextStringOrNull()
+                    "locked" -> locked = reader.nextBooleanOrNull() ?: false
+                    "followers_count" -> followersCount = reader.nextIntOrDefault(0)
+                    "following_count" -> followingCount = reader.nextIntOrDefault(0)
+                    "statuses_count" -> statusesCount = reader.nextIntOrDefault(0)
+                    "source" -> source = sourceAdapter.read(reader)
+                    "bot" -> bot = reader.nextBooleanOrNull() ?: false
+                    "emojis" -> emojis = emojisAdapter.read(reader)
+                    "fields" -> fields = fieldsAdapter.read(reader)
+                    "moved" -> moved = read(reader)
+                    "name" -> notestockUsername = reader.nextStringOrNull()
+                    else -> reader.skipValue()
+                }
+            }
+
+            return Account(
+                    id = id ?: throw JsonParseException("account without id"),
+                    localUsername = localUsername.orEmpty(),
+                    username = username.orEmpty(),
+                    displayName = displayName,
+                    note = note ?: SpannedString(""),
+                    url = url.orEmpty(),
+                    avatar = avatar.orEmpty(),
+                    header = header.orEmpty(),
+                    locked = locked,
+                    followersCount = followersCount,
+                    followingCount = followingCount,
+                    statusesCount = statusesCount,
+                    source = source,
+                    bot = bot,
+                    emojis = emojis,
+                    fields = fields,
+                    moved = moved,
+                    notestockUsername = notestockUsername
+            )
+        }
+    }
+
+    private class NotificationAdapter(gson: Gson, writer: TypeAdapter<Notification>) : ReadingAdapter<Notification>(writer) {
+        private val accountAdapter = gson.getAdapter(Account::class.java)
+        private val statusAdapter = gson.getAdapter(Status::class.java)
+
+        override fun readObject(reader: JsonReader): Notification {
+            var type = Notification.Type.UNKNOWN
+            var id: String? = null
+            var account: Account? = null
+            var status: Status? = null
+
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "type" -> type = reader.nextStringOrNull()?.let(Notification.Type::byString)
+                            ?: Notification.Type.UNKNOWN
+                    "id" -> id = reader.nextStringOrNull()
+                    "account" -> account = accountAdapter.read(reader)
+                    "status" -> status = statusAdapter.read(reader)
+                    else -> reader.skipValue()
+                }
+            }
+
+            return Notification(
+                    type = type,
+                    id = id ?: throw JsonParseException("notification without id"),
+                    account = account ?: throw JsonParseException("notification $id without account"),
+                    status = status
+            )
+        }
+    }
+
+    private class EmojiAdapter(writer: TypeAdapter<Emoji>) : ReadingAdapter<Emoji>(writer) {
+        override fun readObject(reader: JsonReader): Emoji {
+            var shortcode: String? = null
+            var url: String? = null
+            var staticUrl: String? = null
+            var visibleInPicker: Boolean? = null
+
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "shortcode" -> shortcode = reader.nextStringOrNull()
+                    "url" -> url = reader.nextStringOrNull()
+                    "static_url" -> staticUrl = reader.nextStringOrNull()
+                    "visible_in_picker" -> visibleInPicker = reader.nextBooleanOrNull()
+                    else -> reader.skipValue()
+                }
+            }
+
+            return Emoji(
+                    shortcode = shortcode.orEmpty(),
+                    url = url.orEmpty(),
+                    staticUrl = staticUrl ?: url.orEmpty(),
+                    visibleInPicker = visibleInPicker
+            )
+        }
+    }
+
+    /**
+     * Reads the envelope of a streaming message. The payload stays a string, it is a JSON
+     * document of its own whose type depends on the event and is parsed by the listener.
+     */
+    private class StreamEventAdapter(gson: Gson, writer: TypeAdapter<StreamEvent>) : ReadingAdapter<StreamEvent>(writer) {
+        private val eventTypeAdapter = gson.getAdapter(StreamEvent.EventType::class.java)
+
+        override fun readObject(reader: JsonReader): StreamEvent {
+            var event: StreamEvent.EventType? = null
+            var payload: String? = null
+            var stream: List<String>? = null
+
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "event" -> event = eventTypeAdapter.read(reader)
+                    "payload" -> payload = reader.nextStringOrNull()
+                    "stream" -> stream = reader.nextStringListOrNull()
+                    else -> reader.skipValue()
+                }
+            }
+
+            return StreamEvent(
+                    event = event ?: StreamEvent.EventType.UNKNOWN,
+                    payload = payload.orEmpty(),
+                    stream = stream
+            )
+        }
+    }
+
+    companion object {
+        private val emojiListType = object : TypeToken<List<Emoji>>() {}
+        private val attachmentListType = object : TypeToken<List<Attachment>>() {}
+        private val fieldListType = object : TypeToken<List<Field>>() {}
+    }
+}
+
+private fun JsonReader.nextStringOrNull(): String? {
+    if (peek() == JsonToken.NULL) {
+        nextNull()
+        return null
+    }
+    return nextString()
+}
+
+private fun JsonReader.nextBooleanOrNull(): Boolean? {
+    if (peek() == JsonToken.NULL) {
+        nextNull()
+        return null
+    }
+    return nextBoolean()
+}
+
+private fun JsonReader.nextIntOrDefault(default: Int): Int {
+    if (peek() == JsonToken.NULL) {
+        nextNull()
+        return default
+    }
+    return nextInt()
+}
+
+private fun JsonReader.nextStringListOrNull(): List<String>? {
+    if (peek() == JsonToken.NULL) {
+        nextNull()
+        return null
+    }
+    val list = mutableListOf<String>()
+    beginArray()
+    while (hasNext()) {
+        list.add(nextString())
+    }
+    endArray()
+    return list
+}
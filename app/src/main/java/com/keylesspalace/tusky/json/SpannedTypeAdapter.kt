@@ -17,25 +17,30 @@ package com.keylesspalace.tusky.json
 
 import android.text.Spanned
 import androidx.core.text.HtmlCompat
-import androidx.core.text.parseAsHtml
-import com.google.gson.*
-import com.keylesspalace.tusky.util.trimTrailingWhitespace
-import org.jsoup.Jsoup
-import java.lang.reflect.Type
+import com.google.gson.TypeAdapter
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import com.keylesspalace.tusky.util.ContentRenderer
 
-class SpannedTypeAdapter : JsonDeserializer<Spanned>, JsonSerializer<Spanned?> {
-    @Throws(JsonParseException::class)
-    override fun deserialize(json: JsonElement, typeOfT: Type, context: JsonDeserializationContext): Spanned {
-        /* Html.fromHtml returns trailing whitespace if the html ends in a </p> tag, which
-         * all status contents do, so it should be trimmed. */
-        return Jsoup.parse(json.asString ?: "")
-                .apply {
-                    select(".quote-inline").forEach { it.remove() }
-                }
-                .html().parseAsHtml().trimTrailingWhitespace()
+/**
+ * Reads html into [Spanned] with [ContentRenderer]. This is a streaming adapter so the html
+ * string is read directly instead of being wrapped into a JSON tree first.
+ */
+class SpannedTypeAdapter : TypeAdapter<Spanned>() {
+    override fun read(reader: JsonReader): Spanned? {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            return null
+        }
+        return ContentRenderer.render(reader.nextString())
     }
 
-    override fun serialize(src: Spanned?, typeOfSrc: Type, context: JsonSerializationContext): JsonElement {
-        return JsonPrimitive(HtmlCompat.toHtml(src!!, HtmlCompat.TO_HTML_PARAGRAPH_LINES_INDIVIDUAL))
+    override fun write(out: JsonWriter, value: Spanned?) {
+        if (value == null) {
+            out.nullValue()
+            return
+        }
+        out.value(HtmlCompat.toHtml(value, HtmlCompat.TO_HTML_PARAGRAPH_LINES_INDIVIDUAL))
     }
 }
@@ -103,7 +103,8 @@ interface MastodonApi {
     fun notificationsWithAuth(
             @Header("Authorization") auth: String,
             @Header(DOMAIN_HEADER) domain: String,
-            @Query("since_id") sinceId: String?
+            @Query("since_id") sinceId: String?,
+            @Query("min_id") minId: String? = null
     ): Single<List<Notification>>
 
     @POST("api/v1/notifications/clear")
@@ -112,10 +113,17 @@ interface MastodonApi {
     @Multipart
     @POST("api/v1/media")
     fun uploadMedia(
+            @Header("Authorization") auth: String,
+            @Header(DOMAIN_HEADER) domain: String,
             @Part file: MultipartBody.Part,
             @Part description: MultipartBody.Part? = null
     ): Single<Attachment>
 
+    @GET("api/v1/media/{mediaId}")
+    fun getMedia(
+            @Path("mediaId") mediaId: String
+    ): Single<Attachment>
+
     @FormUrlEncoded
     @PUT("api/v1/media/{mediaId}")
     fun updateMedia(
@@ -15,6 +15,8 @@
 
 package com.keylesspalace.tusky.network;
 
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 
 import java.io.IOException;
@@ -23,14 +25,25 @@ import java.io.InputStream;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 
+/**
+ * Streams the content into the request while reporting the upload progress.
+ *
+ * The content is read straight into the segments of the sink's buffer, which are then handed to the
+ * socket without being copied again. Progress is reported at most every
+ * {@link #PROGRESS_INTERVAL_MS} and only when the percentage changed, so slow connections don't
+ * flood the listener.
+ */
 public final class ProgressRequestBody extends RequestBody {
     private final InputStream content;
     private final long contentLength;
     private final UploadCallback uploadListener;
     private final MediaType mediaType;
 
-    private static final int DEFAULT_BUFFER_SIZE = 2048;
+    private static final long CHUNK_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 100;
 
     public interface UploadCallback {
         void onProgressUpdate(int percentage);
@@ -55,20 +68,25 @@ public final class ProgressRequestBody extends RequestBody {
 
     @Override
     public void writeTo(@NonNull BufferedSink sink) throws IOException {
-
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
         long uploaded = 0;
+        int lastPercentage = -1;
+        long lastReport = 0;
 
-        try {
-            int read;
-            while ((read = content.read(buffer)) != -1) {
-                uploadListener.onProgressUpdate((int)(100 * uploaded / contentLength));
-
+        try (Source source = Okio.source(content)) {
+            long read;
+            while ((read = source.read(sink.getBuffer(), CHUNK_SIZE)) != -1) {
                 uploaded += read;
-                sink.write(buffer, 0, read);
+                sink.emitCompleteSegments();
+
+                int percentage = contentLength > 0 ? (int) (100 * uploaded / contentLength) : 0;
+                long now = SystemClock.uptimeMillis();
+                if (percentage != lastPercentage
+                        && (now - lastReport >= PROGRESS_INTERVAL_MS || uploaded >= contentLength)) {
+                    uploadListener.onProgressUpdate(percentage);
+                    lastPercentage = percentage;
+                    lastReport = now;
+                }
             }
-        } finally {
-            content.close();
         }
     }
-}
\ No newline at end of file
+}
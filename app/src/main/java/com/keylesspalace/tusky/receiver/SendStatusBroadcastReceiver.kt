@@ -104,8 +104,7 @@ class SendStatusBroadcastReceiver : BroadcastReceiver() {
                                 accountId = account.id,
                                 savedTootUid = -1,
                                 draftId = -1,
-                                idempotencyKey = randomAlphanumericString(16),
-                                retries = 0
+                                idempotencyKey = randomAlphanumericString(16)
                         )
                 )
 
@@ -0,0 +1,83 @@
+package com.keylesspalace.tusky.repository
+
+import android.text.Spanned
+import android.text.SpannedString
+import android.util.LruCache
+import com.google.gson.Gson
+import com.keylesspalace.tusky.db.TimelineStatusEntity
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.util.ContentRenderer
+
+/**
+ * The parts of a cached status which are expensive to restore from the database:
+ * the rendered content and the columns stored as JSON.
+ */
+class DecodedStatusContent(
+        val content: Spanned,
+        val application: Status.Application?,
+        val poll: Poll?
+)
+
+/**
+ * Remembers decoded status content between reads of the timeline cache, so that rows which did
+ * not change since the last read skip HTML parsing and Gson decoding.
+ * Entries are keyed by `(timelineUserId, serverId)` and only reused while the stored columns are
+ * identical, which keeps them correct when a row is updated. The cache is bounded by the length
+ * of the stored columns and evicts least recently used entries first.
+ */
+class DecodedStatusCache(
+        private val gson: Gson,
+        maxSize: Int = DEFAULT_MAX_SIZE
+) {
+
+    private data class Key(val timelineUserId: Long, val serverId: String)
+
+    private class Entry(
+            val contentHtml: String?,
+            val application: String?,
+            val poll: String?,
+            val decoded: DecodedStatusContent
+    ) {
+        val size: Int = (contentHtml?.length ?: 0) + (application?.length ?: 0) +
+                (poll?.length ?: 0)
+
+        fun matches(entity: TimelineStatusEntity): Boolean {
+            return contentHtml == entity.content &&
+                    application == entity.application &&
+                    poll == entity.poll
+        }
+    }
+
+    private val cache = object : LruCache<Key, Entry>(maxSize) {
+        override fun sizeOf(key: Key, value: Entry): Int = value.size + ENTRY_OVERHEAD
+    }
+
+    fun get(entity: TimelineStatusEntity): DecodedStatusContent {
+        val key = Key(entity.timelineUserId, entity.serverId)
+        cache.get(key)?.let { entry ->
+            if (entry.matches(entity)) {
+                return entry.decoded
+            }
+        }
+
+        val decoded = decode(entity)
+        cache.put(key, Entry(entity.content, entity.application, entity.poll, decoded))
+        return decoded
+    }
+
+    private fun decode(entity: TimelineStatusEntity): DecodedStatusContent {
+        return DecodedStatusContent(
+                content = entity.content?.let(ContentRenderer::render) ?: SpannedString(""),
+                application = gson.fromJson(entity.application, Status.Application::class.java),
+                poll = gson.fromJson(entity.poll, Poll::class.java)
+        )
+    }
+
+    companion object {
+        /** Roughly 2 MiB worth of stored characters */
+        private const val DEFAULT_MAX_SIZE = 1024 * 1024
+        /** Accounts for the decoded objects of entries with very little stored content */
+        private const val ENTRY_OVERHEAD = 256
+    }
+}
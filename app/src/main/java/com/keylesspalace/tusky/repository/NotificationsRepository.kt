@@ -0,0 +1,256 @@
+package com.keylesspalace.tusky.repository
+
+import com.google.gson.Gson
+import com.google.gson.JsonDeserializationContext
+import com.google.gson.JsonDeserializer
+import com.google.gson.JsonElement
+import com.google.gson.JsonPrimitive
+import com.google.gson.JsonSerializationContext
+import com.google.gson.JsonSerializer
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.NotificationEntity
+import com.keylesspalace.tusky.db.NotificationsDao
+import com.keylesspalace.tusky.db.NotificationsPage
+import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.repository.TimelineRequestMode.DISK
+import com.keylesspalace.tusky.repository.TimelineRequestMode.NETWORK
+import com.keylesspalace.tusky.util.Either
+import com.keylesspalace.tusky.util.dec
+import com.keylesspalace.tusky.util.isLessThan
+import io.reactivex.Single
+import io.reactivex.schedulers.Schedulers
+import retrofit2.HttpException
+import java.io.IOException
+import java.lang.reflect.Type
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+typealias CachedNotification = Either<Placeholder, Notification>
+
+/**
+ * Notifications of the active account, cached on disk like the home timeline in
+ * [TimelineRepository]. Gaps in the cache are marked with placeholders.
+ */
+interface NotificationsRepository {
+    fun getNotifications(maxId: String?, sinceId: String?, limit: Int,
+                         excludes: Set<Notification.Type>?,
+                         requestMode: TimelineRequestMode): Single<out List<CachedNotification>>
+
+    /** Stores the current state of a notification which is already cached, e.g. after a favourite */
+    fun saveNotification(notification: Notification)
+
+    fun removeNotification(notificationId: String)
+
+    fun removeAllByAccountId(accountServerId: String)
+
+    /** Drops the cache of the active account, e.g. because the filter changed */
+    fun clear()
+
+    companion object {
+        /** How many notifications are kept in the cache for each logged in account */
+        const val MAX_NOTIFICATIONS_PER_ACCOUNT = 1000
+    }
+}
+
+class NotificationsRepositoryImpl(
+        private val notificationsDao: NotificationsDao,
+        private val mastodonApi: MastodonApi,
+        private val accountManager: AccountManager,
+        gson: Gson
+) : NotificationsRepository {
+
+    // Dates are stored as numbers so the cache does not depend on the locale
+    private val gson = gson.newBuilder()
+            .registerTypeAdapter(Date::class.java, DateAsMillisAdapter())
+            .create()
+
+    /**
+     * All writes run one after another in the order they were made, so a [clear] can't interleave
+     * with a page being stored.
+     */
+    private val writeWorker = Schedulers.io().createWorker()
+
+    /** Incremented by [clear], pages requested before a clear are not stored after it */
+    private val clearCount = AtomicInteger()
+
+    init {
+        cleanup()
+    }
+
+    override fun getNotifications(maxId: String?, sinceId: String?, limit: Int,
+                                  excludes: Set<Notification.Type>?,
+                                  requestMode: TimelineRequestMode
+    ): Single<out List<CachedNotification>> {
+        val accountId = accountManager.activeAccount?.id ?: throw IllegalStateException()
+        val clearCountAtRequest = clearCount.get()
+
+        if (requestMode == DISK) {
+            return getNotificationsFromDb(accountId, maxId, sinceId, limit, excludes)
+        }
+        return mastodonApi.notifications(maxId, sinceId, limit, excludes)
+                .map { response ->
+                    if (!response.isSuccessful) {
+                        throw HttpException(response)
+                    }
+                    val notifications = response.body().orEmpty()
+                    saveNotificationsToDb(accountId, notifications, maxId, sinceId, limit, clearCountAtRequest)
+                    notifications.map { Either.Right<Placeholder, Notification>(it) }
+                }
+                .onErrorResumeNext { error ->
+                    if (error is IOException && requestMode != NETWORK) {
+                        getNotificationsFromDb(accountId, maxId, sinceId, limit, excludes)
+                    } else {
+                        Single.error(error)
+                    }
+                }
+    }
+
+    override fun saveNotification(notification: Notification) {
+        val accountId = accountManager.activeAccount?.id ?: return
+        // serialized right away, the notification might still be changed by the caller
+        val entity = notification.toEntity(accountId)
+        writeWorker.schedule {
+            notificationsDao.insert(entity)
+        }
+    }
+
+    override fun removeNotification(notificationId: String) {
+        val accountId = accountManager.activeAccount?.id ?: return
+        writeWorker.schedule {
+            notificationsDao.delete(accountId, notificationId)
+        }
+    }
+
+    override fun removeAllByAccountId(accountServerId: String) {
+        val accountId = accountManager.activeAccount?.id ?: return
+        writeWorker.schedule {
+            notificationsDao.removeAllByAccount(accountId, accountServerId)
+        }
+    }
+
+    override fun clear() {
+        val accountId = accountManager.activeAccount?.id ?: return
+        clearCount.incrementAndGet()
+        writeWorker.schedule {
+            notificationsDao.removeAllForAccount(accountId)
+        }
+    }
+
+    private fun getNotificationsFromDb(accountId: Long, maxId: String?, sinceId: String?,
+                                       limit: Int, excludes: Set<Notification.Type>?
+    ): Single<out List<CachedNotification>> {
+        return notificationsDao.getNotifications(accountId, maxId, sinceId, limit)
+                .subscribeOn(Schedulers.io())
+                .map { entities ->
+                    entities.mapNotNull { entity -> entity.toCachedNotification() }
+                            .filter { cached ->
+                                val type = cached.asRightOrNull()?.type
+                                type == null || excludes == null || type !in excludes
+                            }
+                }
+    }
+
+    /**
+     * Stores a page loaded from the server. Placeholders are kept where the page may not connect
+     * to the cached notifications: below a page loaded without [sinceId] and below a full page
+     * loaded with it. They are removed again once the gap is known to be closed.
+     */
+    private fun saveNotificationsToDb(accountId: Long, notifications: List<Notification>,
+                                      maxId: String?, sinceId: String?, limit: Int,
+                                      clearCountAtRequest: Int) {
+        val placeholders = mutableListOf<NotificationEntity>()
+        val removePlaceholdersBetween = mutableListOf<Pair<String, String>>()
+
+        if (notifications.isEmpty()) {
+            if (maxId != null && sinceId != null) {
+                removePlaceholdersBetween.add(maxId to sinceId)
+            }
+        } else {
+            val lastId = notifications.last().id
+            if (maxId != null) {
+                // the page continues right below maxId
+                removePlaceholdersBetween.add(maxId to lastId)
+            }
+            if (sinceId != null && notifications.size < limit) {
+                // the page reaches down to sinceId
+                removePlaceholdersBetween.add(lastId to sinceId)
+            } else {
+                val placeholderId = lastId.dec()
+                if (sinceId == null || sinceId.isLessThan(placeholderId)) {
+                    placeholders.add(placeholderEntity(placeholderId, accountId))
+                }
+            }
+        }
+
+        val page = NotificationsPage(
+                timelineUserId = accountId,
+                notifications = notifications.map { it.toEntity(accountId) },
+                placeholders = placeholders,
+                removePlaceholdersBetween = removePlaceholdersBetween
+        )
+        writeWorker.schedule {
+            // the page was loaded before the cache was cleared, it would bring back what was cleared
+            if (clearCount.get() == clearCountAtRequest) {
+                notificationsDao.insertPage(page)
+            }
+        }
+    }
+
+    private fun cleanup() {
+        Schedulers.io().scheduleDirect({
+            for (timelineUserId in notificationsDao.getTimelineUserIds()) {
+                val firstKeyOverBudget = notificationsDao.getSortKeyAt(timelineUserId,
+                        NotificationsRepository.MAX_NOTIFICATIONS_PER_ACCOUNT) ?: continue
+                do {
+                    val deleted = notificationsDao.trimNotifications(timelineUserId,
+                            firstKeyOverBudget, TimelineRepository.CLEANUP_CHUNK_SIZE)
+                } while (deleted == TimelineRepository.CLEANUP_CHUNK_SIZE)
+            }
+        }, TimelineRepository.CLEANUP_DELAY_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun Notification.toEntity(timelineUserId: Long): NotificationEntity {
+        return NotificationEntity(
+                serverId = id,
+                timelineUserId = timelineUserId,
+                type = type.presentation,
+                accountServerId = account.id,
+                notification = gson.toJson(this)
+        )
+    }
+
+    private fun placeholderEntity(id: String, timelineUserId: Long): NotificationEntity {
+        return NotificationEntity(
+                serverId = id,
+                timelineUserId = timelineUserId,
+                type = null,
+                accountServerId = null,
+                notification = null
+        )
+    }
+
+    private fun NotificationEntity.toCachedNotification(): CachedNotification? {
+        if (type == null) {
+            return Either.Left(Placeholder(serverId))
+        }
+        val notification = try {
+            gson.fromJson(notification, Notification::class.java)
+        } catch (e: RuntimeException) {
+            null
+        } ?: return null
+        // the type adapter of Notification.Type only reads the presentation
+        return Either.Right(notification.copy(type = Notification.Type.byString(type)))
+    }
+
+    private class DateAsMillisAdapter : JsonSerializer<Date>, JsonDeserializer<Date> {
+        override fun serialize(src: Date, typeOfSrc: Type, context: JsonSerializationContext): JsonElement {
+            return JsonPrimitive(src.time)
+        }
+
+        override fun deserialize(json: JsonElement, typeOfT: Type, context: JsonDeserializationContext): Date {
+            return Date(json.asLong)
+        }
+    }
+}
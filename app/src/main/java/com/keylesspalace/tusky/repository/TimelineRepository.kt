@@ -1,7 +1,8 @@
 package com.keylesspalace.tusky.repository
 
+import android.database.sqlite.SQLiteConstraintException
 import android.text.SpannedString
-import androidx.core.text.parseAsHtml
+import android.util.Log
 import androidx.core.text.toHtml
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
@@ -13,7 +14,6 @@ import com.keylesspalace.tusky.repository.TimelineRequestMode.NETWORK
 import com.keylesspalace.tusky.util.Either
 import com.keylesspalace.tusky.util.dec
 import com.keylesspalace.tusky.util.inc
-import com.keylesspalace.tusky.util.trimTrailingWhitespace
 import io.reactivex.Single
 import io.reactivex.schedulers.Schedulers
 import java.io.IOException
@@ -29,13 +29,34 @@ enum class TimelineRequestMode {
     DISK, NETWORK, ANY
 }
 
+/**
+ * Decides which statuses are hidden from the timeline. Its verdicts are stored in the cache with
+ * [version] and reused until the version changes, so that cached statuses are checked only once.
+ */
+interface TimelineFilter {
+    val version: Int
+
+    /** Called on a background thread */
+    fun shouldFilter(status: Status): Boolean
+}
+
 interface TimelineRepository {
+    /**
+     * @param filter statuses it filters are left out of the result
+     */
     fun getStatuses(maxId: String?, sinceId: String?, sincedIdMinusOne: String?, limit: Int,
-                    requestMode: TimelineRequestMode): Single<out List<TimelineStatus>>
+                    requestMode: TimelineRequestMode,
+                    filter: TimelineFilter? = null): Single<out List<TimelineStatus>>
     fun addSingleStatusToDb(status: Status)
 
     companion object {
         val CLEANUP_INTERVAL = TimeUnit.DAYS.toMillis(14)
+        /** How many statuses are kept in the cache for each logged in account */
+        const val MAX_STATUSES_PER_ACCOUNT = 2000
+        /** Rows deleted per statement so that cleanup never blocks the database for long */
+        const val CLEANUP_CHUNK_SIZE = 200
+        /** Cleanup waits for the first timeline loads after startup */
+        const val CLEANUP_DELAY_SECONDS = 30L
     }
 }
 
@@ -43,23 +64,28 @@ class TimelineRepositoryImpl(
         private val timelineDao: TimelineDao,
         private val mastodonApi: MastodonApi,
         private val accountManager: AccountManager,
-        private val gson: Gson
+        private val gson: Gson,
+        private val maxStatusesPerAccount: Int = TimelineRepository.MAX_STATUSES_PER_ACCOUNT
 ) : TimelineRepository {
 
+    // shared by all timelines and kept across fragment recreation, the repository is a singleton
+    private val decodedStatusCache = DecodedStatusCache(gson)
+
     init {
         this.cleanup()
     }
 
     override fun getStatuses(maxId: String?, sinceId: String?, sincedIdMinusOne: String?,
-                             limit: Int, requestMode: TimelineRequestMode
+                             limit: Int, requestMode: TimelineRequestMode,
+                             filter: TimelineFilter?
     ): Single<out List<TimelineStatus>> {
         val acc = accountManager.activeAccount ?: throw IllegalStateException()
         val accountId = acc.id
 
         return if (requestMode == DISK) {
-            this.getStatusesFromDb(accountId, maxId, sinceId, limit)
+            this.getStatusesFromDb(accountId, maxId, sinceId, limit, filter)
         } else {
-            getStatusesFromNetwork(maxId, sinceId, sincedIdMinusOne, limit, accountId, requestMode)
+            getStatusesFromNetwork(maxId, sinceId, sincedIdMinusOne, limit, accountId, requestMode, filter)
         }
     }
 
@@ -70,24 +96,45 @@ class TimelineRepositoryImpl(
         timelineDao.insertInTransaction(
                 status.toEntity(accountId, gson),
                 status.account.toEntity(accountId, gson),
-                status.reblog?.account?.toEntity(accountId, gson)
+                status.reblog?.account?.toEntity(accountId, gson),
+                status.toChildEntities(accountId)
         )
     }
 
     private fun getStatusesFromNetwork(maxId: String?, sinceId: String?,
                                        sinceIdMinusOne: String?, limit: Int,
-                                       accountId: Long, requestMode: TimelineRequestMode
+                                       accountId: Long, requestMode: TimelineRequestMode,
+                                       filter: TimelineFilter?
     ): Single<out List<TimelineStatus>> {
         return mastodonApi.homeTimeline(maxId, sinceIdMinusOne, limit + 1)
                 .map { response ->
-                    this.saveStatusesToDb(accountId, response.body().orEmpty(), maxId, sinceId)
+                    val statuses = response.body().orEmpty()
+                    val filteredIds = if (filter == null) {
+                        emptySet<String>()
+                    } else {
+                        statuses.filter(filter::shouldFilter).mapTo(HashSet(), Status::id)
+                    }
+                    val verdicts = filter?.let {
+                        statuses.map { status ->
+                            TimelineFilterVerdictEntity(status.id, accountId, filter.version, status.id in filteredIds)
+                        }
+                    }.orEmpty()
+                    this.saveStatusesToDb(accountId, statuses, maxId, sinceId, verdicts) to filteredIds
                 }
-                .flatMap { statuses ->
-                    this.addFromDbIfNeeded(accountId, statuses, maxId, sinceId, limit, requestMode)
+                .flatMap { (statuses, filteredIds) ->
+                    // the page is complete at this point, filtered statuses are only left out now
+                    this.addFromDbIfNeeded(accountId, statuses, maxId, sinceId, limit, requestMode, filter)
+                            .map { result ->
+                                if (filteredIds.isEmpty()) {
+                                    result
+                                } else {
+                                    result.filterNot { it.asRightOrNull()?.id in filteredIds }
+                                }
+                            }
                 }
                 .onErrorResumeNext { error ->
                     if (error is IOException && requestMode != NETWORK) {
-                        this.getStatusesFromDb(accountId, maxId, sinceId, limit)
+                        this.getStatusesFromDb(accountId, maxId, sinceId, limit, filter)
                     } else {
                         Single.error(error)
                     }
@@ -96,7 +143,7 @@ class TimelineRepositoryImpl(
 
     private fun addFromDbIfNeeded(accountId: Long, statuses: List<Either<Placeholder, Status>>,
                                   maxId: String?, sinceId: String?, limit: Int,
-                                  requestMode: TimelineRequestMode
+                                  requestMode: TimelineRequestMode, filter: TimelineFilter?
     ): Single<List<TimelineStatus>> {
         return if (requestMode != NETWORK && statuses.size < 2) {
             val newMaxID = if (statuses.isEmpty()) {
@@ -104,7 +151,7 @@ class TimelineRepositoryImpl(
             } else {
                 statuses.last { it.isRight() }.asRight().id
             }
-            this.getStatusesFromDb(accountId, newMaxID, sinceId, limit)
+            this.getStatusesFromDb(accountId, newMaxID, sinceId, limit, filter)
                     .map { fromDb ->
                         // If it's just placeholders and less than limit (so we exhausted both
                         // db and server at this point)
@@ -120,16 +167,69 @@ class TimelineRepositoryImpl(
     }
 
     private fun getStatusesFromDb(accountId: Long, maxId: String?, sinceId: String?,
-                                  limit: Int): Single<out List<TimelineStatus>> {
-        return timelineDao.getStatusesForAccount(accountId, maxId, sinceId, limit)
+                                  limit: Int, filter: TimelineFilter?): Single<out List<TimelineStatus>> {
+        return timelineDao.getStatusesForAccount(accountId, maxId, sinceId, limit, filter?.version)
                 .subscribeOn(Schedulers.io())
                 .map { statuses ->
-                    statuses.map { it.toStatus() }
+                    val statusIds = statuses.mapNotNull { row ->
+                        row.status.serverId.takeIf { row.status.authorServerId != null }
+                    }
+                    val children = if (statusIds.isEmpty()) {
+                        TimelineStatusChildren.EMPTY
+                    } else {
+                        timelineDao.getChildren(accountId, statusIds)
+                    }
+                    val attachments = children.attachments.groupBy { it.statusServerId }
+                    val mentions = children.mentions.groupBy { it.statusServerId }
+                    val emojis = children.emojis.groupBy { it.statusServerId }
+                    val result = statuses.map { row ->
+                        val id = row.status.serverId
+                        row.toStatus(
+                                attachments[id].orEmpty().mapTo(ArrayList()) { it.toAttachment() },
+                                mentions[id].orEmpty().map { it.toMention() }.toTypedArray(),
+                                emojis[id].orEmpty().map { it.toEmoji() }
+                        )
+                    }
+                    if (filter == null) {
+                        result
+                    } else {
+                        applyFilter(accountId, statuses, result, filter)
+                    }
                 }
     }
 
+    /**
+     * Checks the statuses which have no verdict for the current version of [filter] yet, stores
+     * the verdicts and leaves out the filtered statuses. The others were filtered by the query.
+     */
+    private fun applyFilter(accountId: Long, rows: List<TimelineStatusWithAccount>,
+                            statuses: List<TimelineStatus>, filter: TimelineFilter
+    ): List<TimelineStatus> {
+        val verdicts = ArrayList<TimelineFilterVerdictEntity>()
+        val result = statuses.filterIndexed { index, item ->
+            val status = item.asRightOrNull()
+            if (status == null || rows[index].filtered != null) {
+                true
+            } else {
+                val filtered = filter.shouldFilter(status)
+                verdicts.add(TimelineFilterVerdictEntity(status.id, accountId, filter.version, filtered))
+                !filtered
+            }
+        }
+        if (verdicts.isNotEmpty()) {
+            try {
+                timelineDao.insertFilterVerdicts(verdicts)
+            } catch (e: SQLiteConstraintException) {
+                // a status was deleted in the meantime, its verdict is not needed anymore
+                Log.w(TAG, "could not store filter verdicts", e)
+            }
+        }
+        return result
+    }
+
     private fun saveStatusesToDb(accountId: Long, statuses: List<Status>,
-                                 maxId: String?, sinceId: String?
+                                 maxId: String?, sinceId: String?,
+                                 filterVerdicts: List<TimelineFilterVerdictEntity>
     ): List<Either<Placeholder, Status>> {
         var placeholderToInsert: Placeholder? = null
 
@@ -156,37 +256,40 @@ class TimelineRepositoryImpl(
         }
 
         Single.fromCallable {
-
-            if(statuses.isNotEmpty()) {
-                timelineDao.deleteRange(accountId, statuses.last().id, statuses.first().id)
-            }
-
-            for (status in statuses) {
-                timelineDao.insertInTransaction(
-                        status.toEntity(accountId, gson),
-                        status.account.toEntity(accountId, gson),
-                        status.reblog?.account?.toEntity(accountId, gson)
-                )
-            }
-
-            placeholderToInsert?.let {
-                timelineDao.insertStatusIfNotThere(placeholderToInsert.toEntity(accountId))
+            val placeholders = mutableListOf<TimelineStatusEntity>()
+            placeholderToInsert?.let { placeholder ->
+                placeholders.add(placeholder.toEntity(accountId))
             }
 
             // If we're loading in the bottom insert placeholder after every load
             // (for requests on next launches) but not return it.
             if (sinceId == null && statuses.isNotEmpty()) {
-                timelineDao.insertStatusIfNotThere(
-                        Placeholder(statuses.last().id.dec()).toEntity(accountId))
+                placeholders.add(Placeholder(statuses.last().id.dec()).toEntity(accountId))
             }
 
             // There may be placeholders which we thought could be from our TL but they are not
-            if (statuses.size > 2) {
-                timelineDao.removeAllPlaceholdersBetween(accountId, statuses.first().id,
-                        statuses.last().id)
+            val removePlaceholdersBetween = if (statuses.size > 2) {
+                statuses.first().id to statuses.last().id
             } else if (placeholderToInsert == null && maxId != null && sinceId != null) {
-                timelineDao.removeAllPlaceholdersBetween(accountId, maxId, sinceId)
+                maxId to sinceId
+            } else {
+                null
             }
+
+            timelineDao.insertPage(TimelinePage(
+                    timelineUserId = accountId,
+                    accounts = statuses
+                            .flatMap { status -> listOfNotNull(status.account, status.reblog?.account) }
+                            .distinctBy { account -> account.id }
+                            .map { account -> account.toEntity(accountId, gson) },
+                    statuses = statuses.map { status -> status.toEntity(accountId, gson) },
+                    children = TimelineStatusChildren.concat(
+                            statuses.map { status -> status.toChildEntities(accountId) }
+                    ),
+                    placeholders = placeholders,
+                    removePlaceholdersBetween = removePlaceholdersBetween,
+                    filterVerdicts = filterVerdicts
+            ))
         }
                 .subscribeOn(Schedulers.io())
                 .subscribe()
@@ -194,26 +297,42 @@ class TimelineRepositoryImpl(
         return resultStatuses
     }
 
+    /**
+     * Removes statuses which are too old or over the budget of their account, and afterwards the
+     * accounts no status refers to anymore. Everything is deleted in small chunks, each in its own
+     * transaction, so that timeline reads and writes are not held up.
+     */
     private fun cleanup() {
-        Schedulers.io().scheduleDirect {
+        Schedulers.io().scheduleDirect({
             val olderThan = System.currentTimeMillis() - TimelineRepository.CLEANUP_INTERVAL
-            timelineDao.cleanup(olderThan)
-        }
+            deleteInChunks { limit -> timelineDao.cleanup(olderThan, limit) }
+
+            for (timelineUserId in timelineDao.getTimelineUserIds()) {
+                val firstKeyOverBudget = timelineDao.getSortKeyAt(timelineUserId, maxStatusesPerAccount)
+                        ?: continue
+                deleteInChunks { limit ->
+                    timelineDao.trimStatuses(timelineUserId, firstKeyOverBudget, limit)
+                }
+            }
+
+            deleteInChunks { limit -> timelineDao.cleanupAccounts(limit) }
+        }, TimelineRepository.CLEANUP_DELAY_SECONDS, TimeUnit.SECONDS)
     }
 
-    private fun TimelineStatusWithAccount.toStatus(): TimelineStatus {
+    private inline fun deleteInChunks(delete: (limit: Int) -> Int) {
+        do {
+            val deleted = delete(TimelineRepository.CLEANUP_CHUNK_SIZE)
+        } while (deleted == TimelineRepository.CLEANUP_CHUNK_SIZE)
+    }
+
+    private fun TimelineStatusWithAccount.toStatus(attachments: ArrayList<Attachment>,
+                                                   mentions: Array<Status.Mention>,
+                                                   emojis: List<Emoji>): TimelineStatus {
         if (this.status.authorServerId == null) {
             return Either.Left(Placeholder(this.status.serverId))
         }
 
-        val attachments: ArrayList<Attachment> = gson.fromJson(status.attachments,
-                object : TypeToken<List<Attachment>>() {}.type) ?: ArrayList()
-        val mentions: Array<Status.Mention> = gson.fromJson(status.mentions,
-                Array<Status.Mention>::class.java) ?: arrayOf()
-        val application = gson.fromJson(status.application, Status.Application::class.java)
-        val emojis: List<Emoji> = gson.fromJson(status.emojis,
-                object : TypeToken<List<Emoji>>() {}.type) ?: listOf()
-        val poll: Poll? = gson.fromJson(status.poll, Poll::class.java)
+        val decoded = decodedStatusCache.get(status)
 
         val reblog = status.reblogServerId?.let { id ->
             Status(
@@ -223,7 +342,7 @@ class TimelineRepositoryImpl(
                     inReplyToId = status.inReplyToId,
                     inReplyToAccountId = status.inReplyToAccountId,
                     reblog = null,
-                    content = status.content?.parseAsHtml()?.trimTrailingWhitespace() ?: SpannedString(""),
+                    content = decoded.content,
                     createdAt = Date(status.createdAt),
                     emojis = emojis,
                     reblogsCount = status.reblogsCount,
@@ -236,10 +355,10 @@ class TimelineRepositoryImpl(
                     visibility = status.visibility!!,
                     attachments = attachments,
                     mentions = mentions,
-                    application = application,
+                    application = decoded.application,
                     pinned = false,
                     muted = status.muted,
-                    poll = poll,
+                    poll = decoded.poll,
                     card = null,
                     quote = null
             )
@@ -280,7 +399,7 @@ class TimelineRepositoryImpl(
                     inReplyToId = status.inReplyToId,
                     inReplyToAccountId = status.inReplyToAccountId,
                     reblog = null,
-                    content = status.content?.parseAsHtml()?.trimTrailingWhitespace() ?: SpannedString(""),
+                    content = decoded.content,
                     createdAt = Date(status.createdAt),
                     emojis = emojis,
                     reblogsCount = status.reblogsCount,
@@ -293,10 +412,10 @@ class TimelineRepositoryImpl(
                     visibility = status.visibility!!,
                     attachments = attachments,
                     mentions = mentions,
-                    application = application,
+                    application = decoded.application,
                     pinned = false,
                     muted = status.muted,
-                    poll = poll,
+                    poll = decoded.poll,
                     card = null,
                     quote = null
             )
@@ -305,6 +424,8 @@ class TimelineRepositoryImpl(
     }
 }
 
+private const val TAG = "TimelineRepository"
+
 private val emojisListTypeToken = object : TypeToken<List<Emoji>>() {}
 
 fun Account.toEntity(accountId: Long, gson: Gson): TimelineAccountEntity {
@@ -354,7 +475,6 @@ fun Placeholder.toEntity(timelineUserId: Long): TimelineStatusEntity {
             inReplyToAccountId = null,
             content = null,
             createdAt = 0L,
-            emojis = null,
             reblogsCount = 0,
             favouritesCount = 0,
             reblogged = false,
@@ -363,8 +483,6 @@ fun Placeholder.toEntity(timelineUserId: Long): TimelineStatusEntity {
             sensitive = false,
             spoilerText = null,
             visibility = null,
-            attachments = null,
-            mentions = null,
             application = null,
             reblogServerId = null,
             reblogAccountId = null,
@@ -385,7 +503,6 @@ fun Status.toEntity(timelineUserId: Long,
             inReplyToAccountId = actionable.inReplyToAccountId,
             content = actionable.content.toHtml(),
             createdAt = actionable.createdAt.time,
-            emojis = actionable.emojis.let(gson::toJson),
             reblogsCount = actionable.reblogsCount,
             favouritesCount = actionable.favouritesCount,
             reblogged = actionable.reblogged,
@@ -394,8 +511,6 @@ fun Status.toEntity(timelineUserId: Long,
             sensitive = actionable.sensitive,
             spoilerText = actionable.spoilerText,
             visibility = actionable.visibility,
-            attachments = actionable.attachments.let(gson::toJson),
-            mentions = actionable.mentions.let(gson::toJson),
             application = actionable.application.let(gson::toJson),
             reblogServerId = reblog?.id,
             reblogAccountId = reblog?.let { this.account.id },
@@ -404,4 +519,83 @@ fun Status.toEntity(timelineUserId: Long,
     )
 }
 
+/**
+ * Rows for the child tables of the status, stored under the id of the timeline entry like [toEntity].
+ */
+fun Status.toChildEntities(timelineUserId: Long): TimelineStatusChildren {
+    val actionable = actionableStatus
+    return TimelineStatusChildren(
+            attachments = actionable.attachments.mapIndexed { position, attachment ->
+                TimelineAttachmentEntity(
+                        statusServerId = id,
+                        timelineUserId = timelineUserId,
+                        position = position,
+                        id = attachment.id,
+                        url = attachment.url,
+                        previewUrl = attachment.previewUrl,
+                        focusX = attachment.meta?.focus?.x,
+                        focusY = attachment.meta?.focus?.y,
+                        duration = attachment.meta?.duration,
+                        type = attachment.type.name,
+                        description = attachment.description,
+                        blurhash = attachment.blurhash
+                )
+            },
+            mentions = actionable.mentions.mapIndexed { position, mention ->
+                TimelineMentionEntity(
+                        statusServerId = id,
+                        timelineUserId = timelineUserId,
+                        position = position,
+                        id = mention.id,
+                        url = mention.url,
+                        username = mention.username,
+                        localUsername = mention.localUsername
+                )
+            },
+            emojis = actionable.emojis.mapIndexed { position, emoji ->
+                TimelineEmojiEntity(
+                        statusServerId = id,
+                        timelineUserId = timelineUserId,
+                        position = position,
+                        shortcode = emoji.shortcode,
+                        url = emoji.url,
+                        staticUrl = emoji.staticUrl,
+                        visibleInPicker = emoji.visibleInPicker
+                )
+            }
+    )
+}
+
+fun TimelineAttachmentEntity.toAttachment(): Attachment {
+    val focus = if (focusX != null && focusY != null) Attachment.Focus(focusX, focusY) else null
+    val meta = if (focus != null || duration != null) Attachment.MetaData(focus, duration) else null
+    return Attachment(
+            id = id,
+            url = url,
+            previewUrl = previewUrl,
+            meta = meta,
+            type = Attachment.Type.values().firstOrNull { it.name == type } ?: Attachment.Type.UNKNOWN,
+            description = description,
+            blurhash = blurhash
+    )
+}
+
+fun TimelineMentionEntity.toMention(): Status.Mention {
+    return Status.Mention(
+            id = id,
+            url = url,
+            username = username,
+            localUsername = localUsername
+    )
+}
+
+fun TimelineEmojiEntity.toEmoji(): Emoji {
+    return Emoji(
+            shortcode = shortcode,
+            url = url,
+            staticUrl = staticUrl,
+            visibleInPicker = visibleInPicker
+    )
+}
+
 fun Status.lift(): Either<Placeholder, Status> = Either.Right(this)
@@ -0,0 +1,269 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.service
+
+import android.app.Notification
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.app.PendingIntent
+import android.content.Context
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import androidx.annotation.WorkerThread
+import androidx.core.app.NotificationCompat
+import androidx.core.content.ContextCompat
+import com.keylesspalace.tusky.R
+import com.keylesspalace.tusky.appstore.Dispatchable
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.StatusComposedEvent
+import com.keylesspalace.tusky.appstore.StatusScheduledEvent
+import com.keylesspalace.tusky.components.drafts.DraftHelper
+import com.keylesspalace.tusky.db.AccountEntity
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.OutboxEntity
+import com.keylesspalace.tusky.entity.NewStatus
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.util.SaveTootHelper
+import retrofit2.Call
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * The statuses waiting to be sent. They stay in the database until their server accepted or refused
+ * them, so they are sent even when the app is killed in between. Statuses which could not be sent
+ * because of a network error are sent by [SendTootWorker] once the device is online again.
+ *
+ * Every status shows a notification while it is in the outbox, its id is the negated id of the
+ * status in the outbox.
+ */
+@Singleton
+class Outbox @Inject constructor(
+        private val context: Context,
+        private val mastodonApi: MastodonApi,
+        private val accountManager: AccountManager,
+        private val eventHub: EventHub,
+        private val draftHelper: DraftHelper,
+        private val saveTootHelper: SaveTootHelper,
+        db: AppDatabase
+) {
+
+    private val outboxDao = db.outboxDao()
+    private val sendCalls = ConcurrentHashMap<Int, Call<Status>>()
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val notificationManager = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+    private var errorNotificationId = Int.MIN_VALUE // use even more negative ids to not clash with other notis
+
+    /**
+     * Adds [toot] to the outbox and makes sure it will be sent, even when the app is killed before.
+     * @return the id of the status in the outbox
+     */
+    fun add(toot: TootToSend): Int {
+        val id = outboxDao.insert(OutboxEntity(accountId = toot.accountId, toot = toot)).toInt()
+        SendTootWorker.enqueue(context)
+        return id
+    }
+
+    /**
+     * Sends all statuses in the outbox. The statuses of an account are sent in the order they were
+     * added, so replies are not sent before the status they reply to.
+     * @return true when statuses are left which could not be sent because of network errors
+     */
+    @WorkerThread
+    @Synchronized
+    fun sendAll(): Boolean {
+        var unsent = false
+        outboxDao.loadAll()
+                .groupBy { it.accountId }
+                .forEach { (accountId, entities) ->
+                    val account = accountManager.getAccountById(accountId)
+                    if (account == null) {
+                        // the user has logged out, cancel sending
+                        entities.forEach { entity ->
+                            outboxDao.delete(entity.id)
+                            notificationManager.cancel(notificationId(entity.id))
+                        }
+                        return@forEach
+                    }
+                    for (entity in entities) {
+                        if (!send(entity, account)) {
+                            unsent = true
+                            break
+                        }
+                    }
+                }
+        return unsent
+    }
+
+    /** @return false when [entity] could not be sent because of a network error */
+    private fun send(entity: OutboxEntity, account: AccountEntity): Boolean {
+        val toot = entity.toot
+        val newStatus = NewStatus(
+                toot.text,
+                toot.warningText,
+                toot.inReplyToId,
+                toot.visibility,
+                toot.sensitive,
+                toot.mediaIds,
+                toot.scheduledAt,
+                toot.poll,
+                toot.quoteId
+        )
+
+        // the idempotency key makes sure a status is created only once when it is sent again after
+        // its response was lost
+        val sendCall = mastodonApi.createStatus(
+                "Bearer " + account.accessToken,
+                account.domain,
+                toot.idempotencyKey,
+                newStatus
+        )
+        sendCalls[entity.id] = sendCall
+
+        val response = try {
+            sendCall.execute()
+        } catch (e: IOException) {
+            Log.w(TAG, "failed to send status", e)
+            // sending was cancelled or will be tried again
+            return sendCall.isCanceled
+        } finally {
+            sendCalls.remove(entity.id)
+        }
+
+        if (outboxDao.delete(entity.id) == 0) {
+            // cancelled while it was sent
+            return true
+        }
+
+        if (response.isSuccessful) {
+            // If the status was loaded from a draft, delete the draft and associated media files.
+            if (toot.savedTootUid != 0) {
+                saveTootHelper.deleteDraft(toot.savedTootUid)
+            }
+            if (toot.draftId != 0) {
+                draftHelper.deleteDraftAndAttachments(toot.draftId)
+                        .subscribe()
+            }
+
+            val scheduled = !toot.scheduledAt.isNullOrEmpty()
+            val event: Dispatchable? = if (scheduled) {
+                response.body()?.let(::StatusScheduledEvent)
+            } else {
+                response.body()?.let(::StatusComposedEvent)
+            }
+            // the timelines expect their events on the main thread
+            event?.let { handler.post { eventHub.dispatch(it) } }
+
+            notificationManager.cancel(notificationId(entity.id))
+        } else {
+            // the server refused to accept the toot, save toot & show error message. The media
+            // might be the reason, e.g. when the server deleted it before, so it is uploaded again.
+            saveTootToDrafts(toot, keepMediaIds = false)
+
+            val builder = NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_notify)
+                    .setContentTitle(context.getString(R.string.send_toot_notification_error_title))
+                    .setContentText(context.getString(R.string.send_toot_notification_saved_content))
+                    .setColor(ContextCompat.getColor(context, R.color.tusky_blue))
+
+            notificationManager.cancel(notificationId(entity.id))
+            notificationManager.notify(errorNotificationId--, builder.build())
+        }
+        return true
+    }
+
+    fun contains(id: Int): Boolean = outboxDao.find(id) != null
+
+    /** Removes the status with [id] from the outbox and saves it to the drafts instead. */
+    fun cancel(id: Int) {
+        val entity = outboxDao.find(id) ?: return
+        if (outboxDao.delete(id) == 0) {
+            return
+        }
+        sendCalls.remove(id)?.cancel()
+
+        saveTootToDrafts(entity.toot, keepMediaIds = true)
+
+        val notificationId = notificationId(id)
+        val builder = NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notify)
+                .setContentTitle(context.getString(R.string.send_toot_notification_cancel_title))
+                .setContentText(context.getString(R.string.send_toot_notification_saved_content))
+                .setColor(ContextCompat.getColor(context, R.color.tusky_blue))
+
+        notificationManager.notify(notificationId, builder.build())
+        handler.postDelayed({ notificationManager.cancel(notificationId) }, 5000)
+    }
+
+    /** @return the notification shown while the status with [id] is in the outbox */
+    fun sendingNotification(id: Int, toot: TootToSend): Notification {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            val channel = NotificationChannel(CHANNEL_ID, context.getString(R.string.send_toot_notification_channel_name), NotificationManager.IMPORTANCE_LOW)
+            notificationManager.createNotificationChannel(channel)
+        }
+
+        var notificationText = toot.warningText
+        if (notificationText.isBlank()) {
+            notificationText = toot.text
+        }
+
+        return NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notify)
+                .setContentTitle(context.getString(R.string.send_toot_notification_title))
+                .setContentText(notificationText)
+                .setProgress(1, 0, true)
+                .setOngoing(true)
+                .setColor(ContextCompat.getColor(context, R.color.tusky_blue))
+                .addAction(0, context.getString(android.R.string.cancel), cancelSendingIntent(id))
+                .build()
+    }
+
+    private fun saveTootToDrafts(toot: TootToSend, keepMediaIds: Boolean) {
+        draftHelper.saveDraft(
+                draftId = toot.draftId,
+                accountId = toot.accountId,
+                inReplyToId = toot.inReplyToId,
+                content = toot.text,
+                contentWarning = toot.warningText,
+                sensitive = toot.sensitive,
+                visibility = Status.Visibility.byString(toot.visibility),
+                mediaUris = toot.mediaUris,
+                mediaDescriptions = toot.mediaDescriptions,
+                mediaIds = if (keepMediaIds) toot.mediaIds else toot.mediaIds.map { null },
+                poll = toot.poll,
+                failedToSend = true
+        ).subscribe()
+    }
+
+    private fun cancelSendingIntent(id: Int): PendingIntent {
+        val intent = SendTootService.cancelSendingIntent(context, id)
+        return PendingIntent.getService(context, notificationId(id), intent, PendingIntent.FLAG_UPDATE_CURRENT)
+    }
+
+    companion object {
+        private const val TAG = "Outbox"
+        private const val CHANNEL_ID = "send_toots"
+
+        // use negative ids to not clash with other notis
+        fun notificationId(id: Int) = -id
+    }
+}
@@ -1,8 +1,5 @@
 package com.keylesspalace.tusky.service
 
-import android.app.NotificationChannel
-import android.app.NotificationManager
-import android.app.PendingIntent
 import android.app.Service
 import android.content.ClipData
 import android.content.ClipDescription
@@ -11,53 +8,32 @@ import android.content.Intent
 import android.os.Build
 import android.os.IBinder
 import android.os.Parcelable
-import androidx.core.app.NotificationCompat
+import android.util.Log
+import androidx.core.app.NotificationManagerCompat
 import androidx.core.app.ServiceCompat
-import androidx.core.content.ContextCompat
-import com.keylesspalace.tusky.R
-import com.keylesspalace.tusky.appstore.EventHub
-import com.keylesspalace.tusky.appstore.StatusComposedEvent
-import com.keylesspalace.tusky.appstore.StatusScheduledEvent
-import com.keylesspalace.tusky.components.drafts.DraftHelper
-import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.di.Injectable
 import com.keylesspalace.tusky.entity.NewPoll
-import com.keylesspalace.tusky.entity.NewStatus
-import com.keylesspalace.tusky.entity.Status
-import com.keylesspalace.tusky.network.MastodonApi
-import com.keylesspalace.tusky.util.SaveTootHelper
 import dagger.android.AndroidInjection
+import io.reactivex.Single
+import io.reactivex.android.schedulers.AndroidSchedulers
+import io.reactivex.schedulers.Schedulers
 import kotlinx.parcelize.Parcelize
-import retrofit2.Call
-import retrofit2.Callback
-import retrofit2.Response
-import java.util.*
-import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
+/**
+ * Sends statuses while the app is in the foreground. Every status is added to the [Outbox] first,
+ * then the whole outbox is sent at once. Statuses left after network errors are sent by
+ * [SendTootWorker] once the device is online again.
+ */
 class SendTootService : Service(), Injectable {
 
     @Inject
-    lateinit var mastodonApi: MastodonApi
-    @Inject
-    lateinit var accountManager: AccountManager
-    @Inject
-    lateinit var eventHub: EventHub
-    @Inject
-    lateinit var database: AppDatabase
-    @Inject
-    lateinit var draftHelper: DraftHelper
-    @Inject
-    lateinit var saveTootHelper: SaveTootHelper
+    lateinit var outbox: Outbox
 
-    private val tootsToSend = ConcurrentHashMap<Int, TootToSend>()
-    private val sendCalls = ConcurrentHashMap<Int, Call<Status>>()
-
-    private val timer = Timer()
-
-    private val notificationManager by lazy { getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager }
+    /** how many times the outbox is being sent right now */
+    private var sending = 0
+    /** the outbox id of the status the foreground notification belongs to */
+    private var foregroundId = 0
 
     override fun onCreate() {
         AndroidInjection.inject(this)
@@ -74,41 +50,25 @@ class SendTootService : Service(), Injectable {
             val tootToSend = intent.getParcelableExtra<TootToSend>(KEY_TOOT)
                     ?: throw IllegalStateException("SendTootService started without $KEY_TOOT extra")
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                val channel = NotificationChannel(CHANNEL_ID, getString(R.string.send_toot_notification_channel_name), NotificationManager.IMPORTANCE_LOW)
-                notificationManager.createNotificationChannel(channel)
-
-            }
-
-            var notificationText = tootToSend.warningText
-            if (notificationText.isBlank()) {
-                notificationText = tootToSend.text
-            }
-
-            val builder = NotificationCompat.Builder(this, CHANNEL_ID)
-                    .setSmallIcon(R.drawable.ic_notify)
-                    .setContentTitle(getString(R.string.send_toot_notification_title))
-                    .setContentText(notificationText)
-                    .setProgress(1, 0, true)
-                    .setOngoing(true)
-                    .setColor(ContextCompat.getColor(this, R.color.tusky_blue))
-                    .addAction(0, getString(android.R.string.cancel), cancelSendingIntent(sendingNotificationId))
+            val id = outbox.add(tootToSend)
+            val notification = outbox.sendingNotification(id, tootToSend)
 
-            if (tootsToSend.size == 0 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (sending == 0 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_DETACH)
-                startForeground(sendingNotificationId, builder.build())
+                startForeground(Outbox.notificationId(id), notification)
+                foregroundId = id
             } else {
-                notificationManager.notify(sendingNotificationId, builder.build())
+                NotificationManagerCompat.from(this).notify(Outbox.notificationId(id), notification)
             }
 
-            tootsToSend[sendingNotificationId] = tootToSend
-            sendToot(sendingNotificationId--)
+            sendAll()
 
         } else {
 
             if (intent.hasExtra(KEY_CANCEL)) {
-                cancelSending(intent.getIntExtra(KEY_CANCEL, 0))
+                outbox.cancel(intent.getIntExtra(KEY_CANCEL, 0))
             }
+            stopSelfWhenDone()
 
         }
 
@@ -116,177 +76,42 @@ class SendTootService : Service(), Injectable {
 
     }
 
-    private fun sendToot(tootId: Int) {
-
-        // when tootToSend == null, sending has been canceled
-        val tootToSend = tootsToSend[tootId] ?: return
-
-        // when account == null, user has logged out, cancel sending
-        val account = accountManager.getAccountById(tootToSend.accountId)
-
-        if (account == null) {
-            tootsToSend.remove(tootId)
-            notificationManager.cancel(tootId)
-            stopSelfWhenDone()
-            return
-        }
-
-        tootToSend.retries++
-
-        val newStatus = NewStatus(
-                tootToSend.text,
-                tootToSend.warningText,
-                tootToSend.inReplyToId,
-                tootToSend.visibility,
-                tootToSend.sensitive,
-                tootToSend.mediaIds,
-                tootToSend.scheduledAt,
-                tootToSend.poll,
-                tootToSend.quoteId
-        )
-
-        val sendCall = mastodonApi.createStatus(
-                "Bearer " + account.accessToken,
-                account.domain,
-                tootToSend.idempotencyKey,
-                newStatus
-        )
-
-
-        sendCalls[tootId] = sendCall
-
-        val callback = object : Callback<Status> {
-            override fun onResponse(call: Call<Status>, response: Response<Status>) {
-
-                val scheduled = !tootToSend.scheduledAt.isNullOrEmpty()
-                tootsToSend.remove(tootId)
-
-                if (response.isSuccessful) {
-                    // If the status was loaded from a draft, delete the draft and associated media files.
-                    if (tootToSend.savedTootUid != 0) {
-                        saveTootHelper.deleteDraft(tootToSend.savedTootUid)
-                    }
-                    if (tootToSend.draftId != 0) {
-                        draftHelper.deleteDraftAndAttachments(tootToSend.draftId)
-                                .subscribe()
-                    }
-
-                    if (scheduled) {
-                        response.body()?.let(::StatusScheduledEvent)?.let(eventHub::dispatch)
-                    } else {
-                        response.body()?.let(::StatusComposedEvent)?.let(eventHub::dispatch)
+    private fun sendAll() {
+        sending++
+        Single.fromCallable { outbox.sendAll() }
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe({ unsent ->
+                    sending--
+                    if (unsent) {
+                        SendTootWorker.enqueue(this)
                     }
-
-                    notificationManager.cancel(tootId)
-
-                } else {
-                    // the server refused to accept the toot, save toot & show error message
-                    saveTootToDrafts(tootToSend)
-
-                    val builder = NotificationCompat.Builder(this@SendTootService, CHANNEL_ID)
-                            .setSmallIcon(R.drawable.ic_notify)
-                            .setContentTitle(getString(R.string.send_toot_notification_error_title))
-                            .setContentText(getString(R.string.send_toot_notification_saved_content))
-                            .setColor(ContextCompat.getColor(this@SendTootService, R.color.tusky_blue))
-
-                    notificationManager.cancel(tootId)
-                    notificationManager.notify(errorNotificationId--, builder.build())
-
-                }
-
-                stopSelfWhenDone()
-
-            }
-
-            override fun onFailure(call: Call<Status>, t: Throwable) {
-                var backoff = TimeUnit.SECONDS.toMillis(tootToSend.retries.toLong())
-                if (backoff > MAX_RETRY_INTERVAL) {
-                    backoff = MAX_RETRY_INTERVAL
-                }
-
-                timer.schedule(object : TimerTask() {
-                    override fun run() {
-                        sendToot(tootId)
-                    }
-                }, backoff)
-            }
-        }
-
-        sendCall.enqueue(callback)
-
+                    stopSelfWhenDone()
+                }, { throwable ->
+                    Log.w(TAG, "failed to send the outbox", throwable)
+                    sending--
+                    SendTootWorker.enqueue(this)
+                    stopSelfWhenDone()
+                })
     }
 
     private fun stopSelfWhenDone() {
 
-        if (tootsToSend.isEmpty()) {
-            ServiceCompat.stopForeground(this@SendTootService, ServiceCompat.STOP_FOREGROUND_REMOVE)
+        if (sending == 0) {
+            // a status which will be sent later keeps its notification
+            ServiceCompat.stopForeground(this@SendTootService, ServiceCompat.STOP_FOREGROUND_DETACH)
+            if (foregroundId != 0 && !outbox.contains(foregroundId)) {
+                NotificationManagerCompat.from(this).cancel(Outbox.notificationId(foregroundId))
+            }
             stopSelf()
         }
     }
 
-    private fun cancelSending(tootId: Int) {
-        val tootToCancel = tootsToSend.remove(tootId)
-        if (tootToCancel != null) {
-            val sendCall = sendCalls.remove(tootId)
-            sendCall?.cancel()
-
-            saveTootToDrafts(tootToCancel)
-
-            val builder = NotificationCompat.Builder(this@SendTootService, CHANNEL_ID)
-                    .setSmallIcon(R.drawable.ic_notify)
-                    .setContentTitle(getString(R.string.send_toot_notification_cancel_title))
-                    .setContentText(getString(R.string.send_toot_notification_saved_content))
-                    .setColor(ContextCompat.getColor(this@SendTootService, R.color.tusky_blue))
-
-            notificationManager.notify(tootId, builder.build())
-
-            timer.schedule(object : TimerTask() {
-                override fun run() {
-                    notificationManager.cancel(tootId)
-                    stopSelfWhenDone()
-                }
-            }, 5000)
-
-        }
-    }
-
-    private fun saveTootToDrafts(toot: TootToSend) {
-
-        draftHelper.saveDraft(
-                draftId = toot.draftId,
-                accountId = toot.accountId,
-                inReplyToId = toot.inReplyToId,
-                content = toot.text,
-                contentWarning = toot.warningText,
-                sensitive = toot.sensitive,
-                visibility = Status.Visibility.byString(toot.visibility),
-                mediaUris = toot.mediaUris,
-                mediaDescriptions = toot.mediaDescriptions,
-                poll = toot.poll,
-                failedToSend = true
-        ).subscribe()
-    }
-
-    private fun cancelSendingIntent(tootId: Int): PendingIntent {
-
-        val intent = Intent(this, SendTootService::class.java)
-
-        intent.putExtra(KEY_CANCEL, tootId)
-
-        return PendingIntent.getService(this, tootId, intent, PendingIntent.FLAG_UPDATE_CURRENT)
-    }
-
-
     companion object {
 
+        private const val TAG = "SendTootService"
         private const val KEY_TOOT = "toot"
         private const val KEY_CANCEL = "cancel_id"
-        private const val CHANNEL_ID = "send_toots"
-
-        private val MAX_RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1)
-
-        private var sendingNotificationId = -1 // use negative ids to not clash with other notis
-        private var errorNotificationId = Int.MIN_VALUE // use even more negative ids to not clash with other notis
 
         @JvmStatic
         fun sendTootIntent(context: Context,
@@ -315,6 +140,13 @@ class SendTootService : Service(), Injectable {
             return intent
         }
 
+        /** @return an intent which cancels sending the status with [id] in the [Outbox] */
+        fun cancelSendingIntent(context: Context, id: Int): Intent {
+            val intent = Intent(context, SendTootService::class.java)
+            intent.putExtra(KEY_CANCEL, id)
+            return intent
+        }
+
     }
 }
 
@@ -336,6 +168,5 @@ data class TootToSend(
         val accountId: Long,
         val savedTootUid: Int,
         val draftId: Int,
-        val idempotencyKey: String,
-        var retries: Int
+        val idempotencyKey: String
 ) : Parcelable
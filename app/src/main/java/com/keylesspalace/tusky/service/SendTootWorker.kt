@@ -0,0 +1,82 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.service
+
+import android.content.Context
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ListenableWorker
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequest
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerFactory
+import androidx.work.WorkerParameters
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+
+/**
+ * Sends the statuses left in the [Outbox] while the device is online, with exponential backoff
+ * while they keep failing.
+ */
+class SendTootWorker(
+        context: Context,
+        params: WorkerParameters,
+        private val outbox: Outbox
+) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        return if (outbox.sendAll()) {
+            Result.retry()
+        } else {
+            Result.success()
+        }
+    }
+
+    companion object {
+        private const val WORK_NAME = "send_toots"
+        private const val MIN_BACKOFF_SECONDS = 15L
+
+        fun enqueue(context: Context) {
+            val request = OneTimeWorkRequest.Builder(SendTootWorker::class.java)
+                    .setConstraints(Constraints.Builder()
+                            .setRequiredNetworkType(NetworkType.CONNECTED)
+                            .build())
+                    .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, MIN_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                    .build()
+            // runs after a worker which is sending right now, it might have missed new statuses
+            WorkManager.getInstance(context)
+                    .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+    }
+}
+
+class SendTootWorkerFactory @Inject constructor(
+        private val outbox: Outbox
+) : WorkerFactory() {
+
+    override fun createWorker(
+            appContext: Context,
+            workerClassName: String,
+            workerParameters: WorkerParameters
+    ): ListenableWorker? {
+        if (workerClassName == SendTootWorker::class.java.name) {
+            return SendTootWorker(appContext, workerParameters, outbox)
+        }
+        return null
+    }
+}
@@ -13,8 +13,24 @@ import kotlin.math.cos
 import kotlin.math.pow
 import kotlin.math.withSign
 
+/**
+ * Decodes blurhashes into bitmaps.
+ *
+ * The buffers and the cosine tables of the last decodes are kept, so decoding placeholders of the
+ * same size over and over does not allocate more than the resulting bitmap.
+ */
 object BlurHashDecoder {
 
+    private const val MAX_COSINE_TABLES = 8
+
+    // reused by all decodes, grown as needed
+    private var colors = FloatArray(0)
+    private var pixels = IntArray(0)
+
+    /** cos(PI * x * i / size) at [x * numComp + i], by [size * 10 + numComp] */
+    private val cosineTables = HashMap<Int, FloatArray>()
+
+    @Synchronized
     fun decode(blurHash: String?, width: Int, height: Int, punch: Float = 1f): Bitmap? {
         require(width > 0) { "Width must be greater than zero" }
         require(height > 0) { "height must be greater than zero" }
@@ -29,23 +45,23 @@ object BlurHashDecoder {
         }
         val maxAcEnc = decode83(blurHash, 1, 2)
         val maxAc = (maxAcEnc + 1) / 166f
-        val colors = Array(numCompX * numCompY) { i ->
-            if (i == 0) {
-                val colorEnc = decode83(blurHash, 2, 6)
-                decodeDc(colorEnc)
-            } else {
-                val from = 4 + i * 2
-                val colorEnc = decode83(blurHash, from, from + 2)
-                decodeAc(colorEnc, maxAc * punch)
-            }
+        val numComp = numCompX * numCompY
+        if (colors.size < numComp * 3) {
+            colors = FloatArray(numComp * 3)
+        }
+        decodeDc(decode83(blurHash, 2, 6))
+        for (i in 1 until numComp) {
+            val from = 4 + i * 2
+            decodeAc(decode83(blurHash, from, from + 2), maxAc * punch, i * 3)
         }
-        return composeBitmap(width, height, numCompX, numCompY, colors)
+        return composeBitmap(width, height, numCompX, numCompY)
     }
 
     private fun decode83(str: String, from: Int = 0, to: Int = str.length): Int {
         var result = 0
         for (i in from until to) {
-            val index = charMap[str[i]] ?: -1
+            val c = str[i].toInt()
+            val index = if (c < charMap.size) charMap[c] else -1
             if (index != -1) {
                 result = result * 83 + index
             }
@@ -53,11 +69,13 @@ object BlurHashDecoder {
         return result
     }
 
-    private fun decodeDc(colorEnc: Int): FloatArray {
+    private fun decodeDc(colorEnc: Int) {
         val r = colorEnc shr 16
         val g = (colorEnc shr 8) and 255
         val b = colorEnc and 255
-        return floatArrayOf(srgbToLinear(r), srgbToLinear(g), srgbToLinear(b))
+        colors[0] = srgbToLinear(r)
+        colors[1] = srgbToLinear(g)
+        colors[2] = srgbToLinear(b)
     }
 
     private fun srgbToLinear(colorEnc: Int): Float {
@@ -69,43 +87,61 @@ object BlurHashDecoder {
         }
     }
 
-    private fun decodeAc(value: Int, maxAc: Float): FloatArray {
+    private fun decodeAc(value: Int, maxAc: Float, offset: Int) {
         val r = value / (19 * 19)
         val g = (value / 19) % 19
         val b = value % 19
-        return floatArrayOf(
-                signedPow2((r - 9) / 9.0f) * maxAc,
-                signedPow2((g - 9) / 9.0f) * maxAc,
-                signedPow2((b - 9) / 9.0f) * maxAc
-        )
+        colors[offset] = signedPow2((r - 9) / 9.0f) * maxAc
+        colors[offset + 1] = signedPow2((g - 9) / 9.0f) * maxAc
+        colors[offset + 2] = signedPow2((b - 9) / 9.0f) * maxAc
     }
 
     private fun signedPow2(value: Float) = value.pow(2f).withSign(value)
 
+    private fun cosines(size: Int, numComp: Int): FloatArray {
+        val key = size * 10 + numComp
+        cosineTables[key]?.let { return it }
+        if (cosineTables.size >= MAX_COSINE_TABLES) {
+            cosineTables.clear()
+        }
+        val table = FloatArray(size * numComp) { index ->
+            val x = index / numComp
+            val i = index % numComp
+            cos(PI * x * i / size).toFloat()
+        }
+        cosineTables[key] = table
+        return table
+    }
+
     private fun composeBitmap(
             width: Int, height: Int,
-            numCompX: Int, numCompY: Int,
-            colors: Array<FloatArray>
+            numCompX: Int, numCompY: Int
     ): Bitmap {
-        val imageArray = IntArray(width * height)
+        val cosinesX = cosines(width, numCompX)
+        val cosinesY = cosines(height, numCompY)
+        if (pixels.size < width * height) {
+            pixels = IntArray(width * height)
+        }
         for (y in 0 until height) {
             for (x in 0 until width) {
                 var r = 0f
                 var g = 0f
                 var b = 0f
                 for (j in 0 until numCompY) {
+                    val basisY = cosinesY[y * numCompY + j]
                     for (i in 0 until numCompX) {
-                        val basis = (cos(PI * x * i / width) * cos(PI * y * j / height)).toFloat()
-                        val color = colors[j * numCompX + i]
-                        r += color[0] * basis
-                        g += color[1] * basis
-                        b += color[2] * basis
+                        val basis = cosinesX[x * numCompX + i] * basisY
+                        val color = (j * numCompX + i) * 3
+                        r += colors[color] * basis
+                        g += colors[color + 1] * basis
+                        b += colors[color + 2] * basis
                     }
                 }
-                imageArray[x + width * y] = Color.rgb(linearToSrgb(r), linearToSrgb(g), linearToSrgb(b))
+                pixels[x + width * y] = Color.rgb(linearToSrgb(r), linearToSrgb(g), linearToSrgb(b))
             }
         }
-        return Bitmap.createBitmap(imageArray, width, height, Bitmap.Config.ARGB_8888)
+        // copies the pixels, the buffer can be reused right away
+        return Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888)
     }
 
     private fun linearToSrgb(value: Float): Int {
@@ -117,14 +153,15 @@ object BlurHashDecoder {
         }
     }
 
-    private val charMap = listOf(
-            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F', 'G',
-            'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X',
-            'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o',
-            'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', '#', '$', '%', '*', '+', ',',
-            '-', '.', ':', ';', '=', '?', '@', '[', ']', '^', '_', '{', '|', '}', '~'
-    )
-            .mapIndexed { i, c -> c to i }
-            .toMap()
+    /** the index of the base 83 digits by their character, -1 for all other characters */
+    private val charMap = IntArray(128) { -1 }.apply {
+        listOf(
+                '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F', 'G',
+                'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X',
+                'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o',
+                'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', '#', '$', '%', '*', '+', ',',
+                '-', '.', ':', ';', '=', '?', '@', '[', ']', '^', '_', '{', '|', '}', '~'
+        ).forEachIndexed { i, c -> this[c.toInt()] = i }
+    }
 
 }
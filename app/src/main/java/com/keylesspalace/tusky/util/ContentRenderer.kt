@@ -0,0 +1,364 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.util
+
+import android.graphics.Typeface
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.SpannedString
+import android.text.style.StrikethroughSpan
+import android.text.style.StyleSpan
+import android.text.style.TypefaceSpan
+import android.text.style.URLSpan
+import android.text.style.UnderlineSpan
+import android.util.LruCache
+import androidx.core.text.parseAsHtml
+import org.jsoup.Jsoup
+import java.util.Locale
+
+/**
+ * Renders the html of statuses and account notes into [Spanned].
+ *
+ * The html which servers send is a small sanitized subset, which is rendered in a single pass
+ * over the string: tags are tokenized and turned into spans right away, and elements with the
+ * `quote-inline` class are skipped while tokenizing. The result is the same as what
+ * [parseAsHtml] produces for that input. Anything outside of the subset (other tags, inline
+ * styles, broken markup) falls back to Jsoup and [parseAsHtml].
+ */
+object ContentRenderer {
+
+    /** Roughly 1 MiB worth of rendered characters */
+    private const val CACHE_SIZE = 512 * 1024
+
+    private data class Key(val statusId: String, val contentHash: Int)
+
+    private val cache = object : LruCache<Key, Spanned>(CACHE_SIZE) {
+        override fun sizeOf(key: Key, value: Spanned): Int = value.length + 1
+    }
+
+    fun render(html: String): Spanned {
+        val rendered = SinglePassRenderer(html).render() ?: renderWithJsoup(html)
+        return rendered.trimTrailingWhitespace()
+    }
+
+    /**
+     * Like [render], but remembers the result for the status so that loading it again, e.g. when
+     * a thread is refreshed, does not render it again. An edited status gets a new entry.
+     *
+     * The result is shared by everything showing the status, so it is immutable: the spans added
+     * when it is shown go into a copy.
+     */
+    fun render(statusId: String, html: String): Spanned {
+        val key = Key(statusId, html.hashCode())
+        cache.get(key)?.let { return it }
+        return SpannedString(render(html)).also { cache.put(key, it) }
+    }
+
+    private fun renderWithJsoup(html: String): Spanned {
+        if (!html.contains(QUOTE_INLINE)) {
+            return html.parseAsHtml()
+        }
+        return Jsoup.parse(html)
+                .apply {
+                    select(".$QUOTE_INLINE").forEach { it.remove() }
+                }
+                .html().parseAsHtml()
+    }
+
+    private const val QUOTE_INLINE = "quote-inline"
+
+    private val VOID_TAGS = setOf("br", "img", "hr", "wbr")
+
+    private val ENTITIES = mapOf(
+            "amp" to "&",
+            "lt" to "<",
+            "gt" to ">",
+            "quot" to "\"",
+            "apos" to "'",
+            "nbsp" to "\u00A0"
+    )
+
+    private class OpenTag(val name: String, val start: Int, val span: Any?)
+
+    /**
+     * Mirrors what [android.text.Html] does for the supported tags: whitespace is collapsed,
+     * paragraphs are separated by an empty line and spans are exclusive on both ends.
+     * [render] returns null as soon as it sees something it does not support.
+     */
+    private class SinglePassRenderer(private val html: String) {
+        private val out = SpannableStringBuilder()
+        private val openTags = ArrayList<OpenTag>()
+        private var position = 0
+        // how many elements deep we are inside of a skipped element, 0 if not skipping
+        private var skipDepth = 0
+
+        private var tagName = ""
+        private var tagClosing = false
+        private var tagHref: String? = null
+        private var tagClass: String? = null
+        private var tagHasStyle = false
+
+        fun render(): Spanned? {
+            val length = html.length
+            while (position < length) {
+                val c = html[position]
+                val handled = when (c) {
+                    '<' -> readTag() && handleTag()
+                    '&' -> readEntity()
+                    else -> {
+                        if (skipDepth == 0) {
+                            appendChar(c)
+                        }
+                        position++
+                        true
+                    }
+                }
+                if (!handled) {
+                    return null
+                }
+            }
+            if (skipDepth != 0 || openTags.isNotEmpty()) {
+                // unclosed elements, leave it to the lenient parser
+                return null
+            }
+            return out
+        }
+
+        private fun appendChar(c: Char) {
+            if (c == ' ' || c == '\n') {
+                val previous = if (out.isEmpty()) '\n' else out[out.length - 1]
+                if (previous != ' ' && previous != '\n') {
+                    out.append(' ')
+                }
+            } else {
+                out.append(c)
+            }
+        }
+
+        private fun readEntity(): Boolean {
+            val start = position + 1
+            if (start >= html.length || !(html[start] == '#' || html[start].isLetter())) {
+                // a bare ampersand is just text
+                if (skipDepth == 0) {
+                    appendChar('&')
+                }
+                position++
+                return true
+            }
+            val end = html.indexOf(';', start)
+            if (end < 0 || end - start > 10) {
+                return false
+            }
+            val name = html.substring(start, end)
+            val decoded = if (name[0] == '#') {
+                val codePoint = if (name.length > 1 && (name[1] == 'x' || name[1] == 'X')) {
+                    name.substring(2).toIntOrNull(16)
+                } else {
+                    name.substring(1).toIntOrNull()
+                }
+                if (codePoint == null || codePoint == 0 || !Character.isValidCodePoint(codePoint)) {
+                    return false
+                }
+                String(Character.toChars(codePoint))
+            } else {
+                ENTITIES[name] ?: return false
+            }
+            if (skipDepth == 0) {
+                decoded.forEach(::appendChar)
+            }
+            position = end + 1
+            return true
+        }
+
+        /** Reads the tag at [position] into the tag fields, returns false if it is not supported */
+        private fun readTag(): Boolean {
+            val length = html.length
+            var i = position + 1
+            if (i >= length) {
+                return false
+            }
+            if (html.startsWith("!--", i)) {
+                val end = html.indexOf("-->", i + 3)
+                if (end < 0) {
+                    return false
+                }
+                tagName = ""
+                position = end + 3
+                return true
+            }
+
+            tagClosing = html[i] == '/'
+            if (tagClosing) {
+                i++
+            }
+            val nameStart = i
+            while (i < length && html[i].isLetterOrDigit()) {
+                i++
+            }
+            if (i == nameStart) {
+                return false
+            }
+            tagName = html.substring(nameStart, i).toLowerCase(Locale.ROOT)
+            tagHref = null
+            tagClass = null
+            tagHasStyle = false
+
+            while (true) {
+                while (i < length && html[i].isWhitespace()) {
+                    i++
+                }
+                if (i >= length) {
+                    return false
+                }
+                if (html[i] == '>') {
+                    break
+                }
+                if (html[i] == '/' && i + 1 < length && html[i + 1] == '>') {
+                    i++
+                    break
+                }
+                val attributeStart = i
+                while (i < length && html[i] != '=' && html[i] != '>' && html[i] != '/' && !html[i].isWhitespace()) {
+                    i++
+                }
+                if (i == attributeStart) {
+                    return false
+                }
+                val attribute = html.substring(attributeStart, i).toLowerCase(Locale.ROOT)
+                var value: String? = null
+                if (i < length && html[i] == '=') {
+                    i++
+                    if (i >= length) {
+                        return false
+                    }
+                    val quote = html[i]
+                    if (quote == '"' || quote == '\'') {
+                        val end = html.indexOf(quote, i + 1)
+                        if (end < 0) {
+                            return false
+                        }
+                        value = html.substring(i + 1, end)
+                        i = end + 1
+                    } else {
+                        val valueStart = i
+                        while (i < length && html[i] != '>' && !html[i].isWhitespace()) {
+                            i++
+                        }
+                        value = html.substring(valueStart, i)
+                    }
+                    if (value.contains('&')) {
+                        // entities in attributes are rare, not worth decoding here
+                        return false
+                    }
+                }
+                when (attribute) {
+                    "href" -> tagHref = value
+                    "class" -> tagClass = value
+                    "style" -> tagHasStyle = true
+                }
+            }
+            position = i + 1
+            return true
+        }
+
+        private fun handleTag(): Boolean {
+            if (tagName.isEmpty()) {
+                // comment
+                return true
+            }
+            val isVoid = tagName in VOID_TAGS
+
+            if (skipDepth > 0) {
+                if (!isVoid) {
+                    if (tagClosing) skipDepth-- else skipDepth++
+                }
+                return true
+            }
+            if (!tagClosing && tagClass?.split(' ')?.contains(QUOTE_INLINE) == true) {
+                if (!isVoid) {
+                    skipDepth = 1
+                }
+                return true
+            }
+            if (tagHasStyle) {
+                return false
+            }
+            return if (tagClosing) handleEndTag() else handleStartTag()
+        }
+
+        private fun handleStartTag(): Boolean {
+            val span: Any? = when (tagName) {
+                "br" -> {
+                    out.append('\n')
+                    return true
+                }
+                "p" -> {
+                    appendNewlines()
+                    null
+                }
+                "a" -> tagHref?.let { URLSpan(it) }
+                "b", "strong" -> StyleSpan(Typeface.BOLD)
+                "i", "em", "cite", "dfn" -> StyleSpan(Typeface.ITALIC)
+                "u" -> UnderlineSpan()
+                "del", "s", "strike" -> StrikethroughSpan()
+                "tt" -> TypefaceSpan("monospace")
+                // not styled by parseAsHtml either
+                "span", "code", "pre" -> null
+                else -> return false
+            }
+            openTags.add(OpenTag(tagName, out.length, span))
+            return true
+        }
+
+        private fun handleEndTag(): Boolean {
+            if (tagName in VOID_TAGS) {
+                return false
+            }
+            val openTag = openTags.lastOrNull()
+            if (openTag == null || openTag.name != tagName) {
+                // misnested markup is repaired differently by every parser
+                return false
+            }
+            openTags.removeAt(openTags.size - 1)
+            if (tagName == "p") {
+                appendNewlines()
+            } else if (openTag.span != null && openTag.start != out.length) {
+                out.setSpan(openTag.span, openTag.start, out.length, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
+            }
+            return true
+        }
+
+        /** Makes sure the text ends with an empty line, unless it is empty */
+        private fun appendNewlines() {
+            val length = out.length
+            if (length == 0) {
+                return
+            }
+            var existing = 0
+            while (existing < PARAGRAPH_NEWLINES && existing < length && out[length - 1 - existing] == '\n') {
+                existing++
+            }
+            repeat(PARAGRAPH_NEWLINES - existing) {
+                out.append('\n')
+            }
+        }
+
+        companion object {
+            private const val PARAGRAPH_NEWLINES = 2
+        }
+    }
+}
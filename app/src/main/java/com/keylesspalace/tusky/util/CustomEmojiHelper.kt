@@ -20,17 +20,14 @@ import android.graphics.Canvas
 import android.graphics.Paint
 import android.graphics.drawable.*
 import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.TextUtils
 import android.text.style.ReplacementSpan
 import android.view.View
 
-import com.bumptech.glide.Glide
-import com.bumptech.glide.request.target.CustomTarget
-import com.bumptech.glide.request.target.Target
-import com.bumptech.glide.request.transition.Transition
 import com.keylesspalace.tusky.entity.Emoji
 
 import java.lang.ref.WeakReference
-import java.util.regex.Pattern
 import androidx.preference.PreferenceManager
 import com.keylesspalace.tusky.settings.PrefKeys
 
@@ -47,25 +44,88 @@ fun CharSequence.emojify(emojis: List<Emoji>?, view: View, animate: Boolean) : C
 
     val builder = SpannableStringBuilder.valueOf(this)
 
-    emojis.forEach { (shortcode, url) ->
-        val matcher = Pattern.compile(":$shortcode:", Pattern.LITERAL)
-            .matcher(this)
+    forEachShortcode(builder, emojis) { start, end, url ->
+        val span = EmojiSpan(WeakReference(view))
+        builder.setSpan(span, start, end, 0)
+        EmojiDrawableCache.load(view, url, animate, span)
+    }
+    return builder
+}
+
+/**
+ * Adds [EmojiSpan]s for the custom emojis in [text] like [emojify], but does not load them yet so
+ * that it can be called off the main thread. The emojis are loaded by [loadEmojis].
+ */
+fun addEmojiSpans(text: SpannableStringBuilder, emojis: List<Emoji>?) {
+    if (emojis.isNullOrEmpty())
+        return
+
+    forEachShortcode(text, emojis) { start, end, url ->
+        text.setSpan(EmojiSpan(WeakReference<View>(null), url), start, end, 0)
+    }
+}
+
+/**
+ * Shows the [EmojiSpan]s of [text] in [view] and loads the emojis which were not loaded yet.
+ */
+fun loadEmojis(text: Spanned, view: View, animate: Boolean) {
+    for (span in text.getSpans(0, text.length, EmojiSpan::class.java)) {
+        span.viewWeakReference = WeakReference(view)
+        val url = span.pendingUrl ?: continue
+        span.pendingUrl = null
+        EmojiDrawableCache.load(view, url, animate, span)
+    }
+}
 
-        while(matcher.find()) {
-            val span = EmojiSpan(WeakReference(view))
+/**
+ * Finds the `:shortcode:`s of [emojis] in [text] in a single pass and calls [action] with the
+ * range and url of each of them.
+ */
+internal inline fun forEachShortcode(text: CharSequence, emojis: List<Emoji>, action: (start: Int, end: Int, url: String) -> Unit) {
+    val urls = HashMap<String, String>(emojis.size * 2)
+    var minLength = Int.MAX_VALUE
+    var maxLength = 0
+    for ((shortcode, url) in emojis) {
+        if (shortcode.isEmpty()) {
+            continue
+        }
+        urls[shortcode] = url
+        minLength = minOf(minLength, shortcode.length)
+        maxLength = maxOf(maxLength, shortcode.length)
+    }
 
-            builder.setSpan(span, matcher.start(), matcher.end(), 0)
-            Glide.with(view)
-                .asDrawable()
-                .load(url)
-                .into(span.getTarget(animate))
+    var start = TextUtils.indexOf(text, ':', 0)
+    while (start >= 0) {
+        val end = TextUtils.indexOf(text, ':', start + 1)
+        if (end < 0) {
+            return
+        }
+        val length = end - start - 1
+        val url = if (length in minLength..maxLength) {
+            urls[text.substring(start + 1, end)]
+        } else {
+            null
+        }
+        start = if (url != null) {
+            action(start, end + 1, url)
+            TextUtils.indexOf(text, ':', end + 1)
+        } else {
+            // the closing colon can be the start of the next shortcode
+            end
         }
     }
-    return builder
 }
 
-class EmojiSpan(val viewWeakReference: WeakReference<View>) : ReplacementSpan() {
+/**
+ * @param pendingUrl the url of an emoji which still has to be loaded, see [addEmojiSpans]
+ */
+class EmojiSpan(
+        var viewWeakReference: WeakReference<View>,
+        var pendingUrl: String? = null
+) : ReplacementSpan() {
     var imageDrawable: Drawable? = null
+    /** whether an animated [imageDrawable] should be animated, set by [EmojiDrawableCache] */
+    var animate = false
     
     override fun getSize(paint: Paint, text: CharSequence, start: Int, end: Int, fm: Paint.FontMetricsInt?) : Int {
         if (fm != null) {
@@ -83,6 +143,10 @@ class EmojiSpan(val viewWeakReference: WeakReference<View>) : ReplacementSpan()
     
     override fun draw(canvas: Canvas, text: CharSequence, start: Int, end: Int, x: Float, top: Int, y: Int, bottom: Int, paint: Paint) {
         imageDrawable?.let { drawable ->
+            if (animate && drawable is Animatable && !drawable.isRunning) {
+                // the animation was stopped while nothing showed it
+                drawable.start()
+            }
             canvas.save()
 
             val emojiSize = (paint.textSize * 1.1).toInt()
@@ -96,35 +160,4 @@ class EmojiSpan(val viewWeakReference: WeakReference<View>) : ReplacementSpan()
             canvas.restore()
         }
     }
-    
-    fun getTarget(animate : Boolean): Target<Drawable> {
-        return object : CustomTarget<Drawable>() {
-            override fun onResourceReady(resource: Drawable, transition: Transition<in Drawable>?) {
-                viewWeakReference.get()?.let { view ->
-                    if(animate && resource is Animatable) {
-                        val callback = resource.callback
-
-                        resource.callback = object: Drawable.Callback {
-                            override fun unscheduleDrawable(p0: Drawable, p1: Runnable) {
-                                callback?.unscheduleDrawable(p0, p1)
-                            }
-                            override fun scheduleDrawable(p0: Drawable, p1: Runnable, p2: Long) {
-                                callback?.scheduleDrawable(p0, p1, p2)
-                            }
-                            override fun invalidateDrawable(p0: Drawable) {
-                                callback?.invalidateDrawable(p0)
-                                view.invalidate()
-                            }
-                        }
-                        resource.start()
-                    }
-
-                    imageDrawable = resource
-                    view.invalidate()
-                }
-            }
-            
-            override fun onLoadCleared(placeholder: Drawable?) {}
-        }
-    }
 }
@@ -0,0 +1,176 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.util
+
+import android.graphics.drawable.Animatable
+import android.graphics.drawable.Drawable
+import android.os.Handler
+import android.os.Looper
+import android.text.Spanned
+import android.util.LruCache
+import android.view.Choreographer
+import android.view.View
+import android.widget.TextView
+import androidx.annotation.MainThread
+import com.bumptech.glide.Glide
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.request.target.CustomTarget
+import com.bumptech.glide.request.target.Target
+import com.bumptech.glide.request.transition.Transition
+import java.lang.ref.WeakReference
+
+/**
+ * Shares the drawables of custom emojis between all [EmojiSpan]s showing the same emoji, so that
+ * every emoji is requested from Glide once instead of once per occurrence.
+ *
+ * Drawables are cached by url and by the size they are shown in. Animated emojis are shared too,
+ * their frames are decoded once and all views showing them are invalidated together on the next
+ * frame. Animations without a view showing them are stopped until they are drawn again.
+ */
+@MainThread
+object EmojiDrawableCache {
+
+    private const val CACHE_SIZE = 300
+
+    private data class Key(val url: String, val size: Int, val animate: Boolean)
+
+    private class Entry(val key: Key, val requestManager: RequestManager) : CustomTarget<Drawable>(key.size, key.size), Drawable.Callback {
+        var drawable: Drawable? = null
+        /** the spans showing the emoji, or waiting for it while it is loading */
+        val spans = ArrayList<WeakReference<EmojiSpan>>()
+
+        fun add(span: EmojiSpan) {
+            spans.removeAll { it.get() == null }
+            spans.add(WeakReference(span))
+            span.animate = key.animate
+            drawable?.let { drawable ->
+                span.imageDrawable = drawable
+                span.viewWeakReference.get()?.invalidate()
+            }
+        }
+
+        fun invalidateViews() {
+            spans.forEach { it.get()?.viewWeakReference?.get()?.invalidate() }
+        }
+
+        override fun onResourceReady(resource: Drawable, transition: Transition<in Drawable>?) {
+            if (key.animate && resource is Animatable) {
+                // drawables only keep a weak reference to their callback, the entry holds this one
+                resource.callback = this
+                resource.start()
+            }
+            drawable = resource
+            spans.forEach { it.get()?.imageDrawable = resource }
+            invalidateViews()
+        }
+
+        override fun onLoadCleared(placeholder: Drawable?) {
+            drawable = null
+            spans.forEach { span ->
+                span.get()?.let {
+                    it.imageDrawable = null
+                    // loaded again when the span is bound the next time, see loadEmojis
+                    it.pendingUrl = key.url
+                }
+            }
+            spans.clear()
+        }
+
+        override fun invalidateDrawable(who: Drawable) {
+            if (invalidatedEntries.add(this) && invalidatedEntries.size == 1) {
+                Choreographer.getInstance().postFrameCallback(frameCallback)
+            }
+        }
+
+        override fun scheduleDrawable(who: Drawable, what: Runnable, `when`: Long) {
+            handler.postAtTime(what, who, `when`)
+        }
+
+        override fun unscheduleDrawable(who: Drawable, what: Runnable) {
+            handler.removeCallbacks(what, who)
+        }
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val cache = object : LruCache<Key, Entry>(CACHE_SIZE) {
+        override fun entryRemoved(evicted: Boolean, key: Key, oldValue: Entry, newValue: Entry?) {
+            // the requests are not bound to a lifecycle, release them here
+            oldValue.requestManager.clear(oldValue)
+            invalidatedEntries.remove(oldValue)
+        }
+    }
+
+    /** animated emojis which showed a new frame since the last frame callback */
+    private val invalidatedEntries = LinkedHashSet<Entry>()
+    private val viewsToInvalidate = HashSet<View>()
+    private val frameCallback = Choreographer.FrameCallback { invalidateAnimatedViews() }
+
+    /**
+     * Shows the emoji at [url] in [span], loading it first if it is not cached yet.
+     */
+    fun load(view: View, url: String, animate: Boolean, span: EmojiSpan) {
+        // the size EmojiSpan draws emojis in, see EmojiSpan.draw
+        val size = ((view as? TextView)?.textSize?.times(1.1))?.toInt()
+            ?.takeIf { it > 0 } ?: Target.SIZE_ORIGINAL
+        val key = Key(url, size, animate)
+        cache.get(key)?.let { entry ->
+            entry.add(span)
+            return
+        }
+
+        // requests are made with the application context, a cached drawable can outlive the view
+        val entry = Entry(key, Glide.with(view.context.applicationContext))
+        entry.add(span)
+        cache.put(key, entry)
+        entry.requestManager
+            .asDrawable()
+            .load(url)
+            .into(entry)
+    }
+
+    /**
+     * Invalidates every attached view which shows one of the [invalidatedEntries] once, and stops
+     * the animations which are not shown anywhere.
+     */
+    private fun invalidateAnimatedViews() {
+        for (entry in invalidatedEntries) {
+            var shown = false
+            for (spanReference in entry.spans) {
+                val span = spanReference.get() ?: continue
+                val view = span.viewWeakReference.get() ?: continue
+                if (view.isAttachedToWindow && view.shows(span)) {
+                    viewsToInvalidate.add(view)
+                    shown = true
+                }
+            }
+            if (!shown) {
+                // started again by EmojiSpan.draw
+                (entry.drawable as? Animatable)?.stop()
+            }
+        }
+        invalidatedEntries.clear()
+
+        viewsToInvalidate.forEach(View::invalidate)
+        viewsToInvalidate.clear()
+    }
+
+    /** false if the view was recycled to show a text without the span */
+    private fun View.shows(span: EmojiSpan): Boolean {
+        val text = (this as? TextView)?.text as? Spanned ?: return true
+        return text.getSpanStart(span) >= 0
+    }
+}
@@ -0,0 +1,238 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.util
+
+import android.util.Log
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Status
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+
+/**
+ * Matches texts against all phrases of a set of [Filter]s at once.
+ *
+ * The phrases are compiled into an Aho-Corasick automaton, so a text is scanned once no matter how
+ * many filters there are. The automaton is built for all filters, the contexts a filter applies to
+ * and its expiry are checked when one of its phrases is found. That way a single engine can be
+ * shared by all timelines.
+ *
+ * Matching is case insensitive. Whole word filters only match between non-word characters, as on
+ * the server this only applies to phrases consisting of word characters.
+ */
+class FilterEngine(filters: List<Filter>) {
+
+    private data class Phrase(
+            val text: String,
+            val wholeWord: Boolean,
+            val contexts: Int,
+            val expiresAt: Long
+    )
+
+    private val phrases: Array<Phrase>
+
+    // the automaton, nodes are indices into these arrays and 0 is the root
+    /** the characters with a transition, sorted per node */
+    private val transitionChars: Array<CharArray>
+    private val transitionTargets: Array<IntArray>
+    private val failure: IntArray
+    /** the phrases ending at a node */
+    private val outputs: Array<IntArray>
+    /** the next node on the failure path which has outputs, or -1 */
+    private val outputLink: IntArray
+
+    init {
+        val phraseList = ArrayList<Phrase>()
+        val trie = ArrayList<HashMap<Char, Int>>()
+        val nodeOutputs = ArrayList<MutableList<Int>>()
+        trie.add(HashMap())
+        nodeOutputs.add(ArrayList(0))
+
+        for (filter in filters) {
+            val phrase = filter.phrase
+            val contexts = contextsOf(filter.context)
+            if (phrase.isEmpty() || contexts == 0) {
+                continue
+            }
+            var node = 0
+            for (c in phrase) {
+                val lower = fold(c)
+                node = trie[node].getOrPut(lower) {
+                    trie.add(HashMap())
+                    nodeOutputs.add(ArrayList(0))
+                    trie.size - 1
+                }
+            }
+            nodeOutputs[node].add(phraseList.size)
+            phraseList.add(Phrase(
+                    text = phrase,
+                    wholeWord = filter.wholeWord && phrase.all(::isWordChar),
+                    contexts = contexts,
+                    expiresAt = parseExpiry(filter.expiresAt)
+            ))
+        }
+
+        phrases = phraseList.toTypedArray()
+        val size = trie.size
+        transitionChars = Array(size) { node -> trie[node].keys.sorted().toCharArray() }
+        transitionTargets = Array(size) { node ->
+            IntArray(transitionChars[node].size) { i -> trie[node].getValue(transitionChars[node][i]) }
+        }
+        outputs = Array(size) { node -> nodeOutputs[node].toIntArray() }
+        failure = IntArray(size)
+        outputLink = IntArray(size) { -1 }
+
+        // breadth first, so the failure of a node is known before its children are visited
+        val queue = ArrayDeque<Int>()
+        transitionTargets[0].forEach(queue::addLast)
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            val fail = failure[node]
+            outputLink[node] = if (outputs[fail].isNotEmpty()) fail else outputLink[fail]
+            for (i in transitionChars[node].indices) {
+                val c = transitionChars[node][i]
+                val child = transitionTargets[node][i]
+                var candidate = fail
+                var target = transition(candidate, c)
+                while (target < 0 && candidate != 0) {
+                    candidate = failure[candidate]
+                    target = transition(candidate, c)
+                }
+                failure[child] = if (target < 0 || target == child) 0 else target
+                queue.addLast(child)
+            }
+        }
+    }
+
+    /**
+     * @return true if there are filters for one of the [contexts] which did not expire yet
+     */
+    fun hasFilters(contexts: Int, now: Long = System.currentTimeMillis()): Boolean {
+        return phrases.any { it.isActive(contexts, now) }
+    }
+
+    /**
+     * @return a hash of the filters for one of the [contexts] which did not expire yet. It changes
+     * when one of them is added, changed, removed or expires.
+     */
+    fun version(contexts: Int, now: Long = System.currentTimeMillis()): Int {
+        var version = 1
+        for (phrase in phrases) {
+            if (phrase.isActive(contexts, now)) {
+                version = 31 * version + phrase.hashCode()
+            }
+        }
+        return version
+    }
+
+    /**
+     * @param contexts the contexts to match filters of, see [contextsOf]
+     * @return true if [text] contains the phrase of a filter for one of the [contexts]
+     */
+    fun matches(text: CharSequence, contexts: Int, now: Long = System.currentTimeMillis()): Boolean {
+        var node = 0
+        for (end in 1..text.length) {
+            val c = fold(text[end - 1])
+            var next = transition(node, c)
+            while (next < 0 && node != 0) {
+                node = failure[node]
+                next = transition(node, c)
+            }
+            node = if (next < 0) 0 else next
+
+            var outputNode = if (outputs[node].isNotEmpty()) node else outputLink[node]
+            while (outputNode >= 0) {
+                for (index in outputs[outputNode]) {
+                    val phrase = phrases[index]
+                    if (phrase.isActive(contexts, now) && (!phrase.wholeWord || isWholeWord(text, end - phrase.text.length, end))) {
+                        return true
+                    }
+                }
+                outputNode = outputLink[outputNode]
+            }
+        }
+        return false
+    }
+
+    /**
+     * @return true if the content, content warning or a poll option of [status] matches a filter
+     * for one of the [contexts]
+     */
+    fun shouldFilter(status: Status, contexts: Int): Boolean {
+        val now = System.currentTimeMillis()
+        if (!hasFilters(contexts, now)) {
+            return false
+        }
+        status.poll?.options?.forEach { option ->
+            if (matches(option.title, contexts, now)) {
+                return true
+            }
+        }
+        val actionable = status.actionableStatus
+        return matches(actionable.content, contexts, now)
+                || (status.spoilerText.isNotEmpty() && matches(actionable.spoilerText, contexts, now))
+    }
+
+    private fun Phrase.isActive(contexts: Int, now: Long) = this.contexts and contexts != 0 && expiresAt > now
+
+    /** @return the node reached from [node] with [c], or -1 if there is no such transition */
+    private fun transition(node: Int, c: Char): Int {
+        val index = transitionChars[node].binarySearch(c)
+        return if (index < 0) -1 else transitionTargets[node][index]
+    }
+
+    private fun isWholeWord(text: CharSequence, start: Int, end: Int): Boolean {
+        return (start == 0 || !isWordChar(text[start - 1])) && (end == text.length || !isWordChar(text[end]))
+    }
+
+    companion object {
+        private const val TAG = "FilterEngine"
+
+        private val CONTEXTS = listOf(Filter.HOME, Filter.NOTIFICATIONS, Filter.PUBLIC, Filter.THREAD, Filter.ACCOUNT)
+
+        /** @return the bit mask of the [contexts] which can be passed to [matches] */
+        @JvmStatic
+        fun contextsOf(contexts: Collection<String>): Int {
+            var mask = 0
+            CONTEXTS.forEachIndexed { index, context ->
+                if (context in contexts) {
+                    mask = mask or (1 shl index)
+                }
+            }
+            return mask
+        }
+
+        private fun fold(c: Char) = Character.toLowerCase(Character.toUpperCase(c))
+
+        /** word characters as in the `\w` regex class */
+        private fun isWordChar(c: Char) = c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+
+        private fun parseExpiry(expiresAt: String?): Long {
+            if (expiresAt == null) {
+                return Long.MAX_VALUE
+            }
+            val format = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US)
+            format.timeZone = TimeZone.getTimeZone("UTC")
+            return try {
+                format.parse(expiresAt)!!.time
+            } catch (e: ParseException) {
+                Log.w(TAG, "could not parse filter expiry $expiresAt", e)
+                Long.MAX_VALUE
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.util
+
+import android.os.Handler
+import android.os.Looper
+import android.view.Choreographer
+import androidx.annotation.MainThread
+
+/**
+ * Collects items on the main thread and hands them over in batches, at most once per display
+ * frame or, if [windowMillis] is positive, once per window of that length.
+ * Nothing is scheduled while no items are pending.
+ */
+class FrameBatcher<T>(
+        private val windowMillis: Long = 0,
+        private val onBatch: (List<T>) -> Unit
+) {
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val frameCallback = Choreographer.FrameCallback { flush() }
+    private val windowCallback = Runnable { flush() }
+
+    private var pending = ArrayList<T>()
+    private var scheduled = false
+
+    @MainThread
+    fun add(item: T) {
+        pending.add(item)
+        if (!scheduled) {
+            scheduled = true
+            if (windowMillis > 0) {
+                handler.postDelayed(windowCallback, windowMillis)
+            } else {
+                Choreographer.getInstance().postFrameCallback(frameCallback)
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending items right away instead of waiting for the next frame or window.
+     */
+    @MainThread
+    fun flush() {
+        unschedule()
+        if (pending.isEmpty()) {
+            return
+        }
+        val batch = pending
+        pending = ArrayList()
+        onBatch(batch)
+    }
+
+    /**
+     * Drops the pending items without delivering them.
+     */
+    @MainThread
+    fun clear() {
+        unschedule()
+        pending.clear()
+    }
+
+    private fun unschedule() {
+        if (scheduled) {
+            scheduled = false
+            handler.removeCallbacks(windowCallback)
+            Choreographer.getInstance().removeFrameCallback(frameCallback)
+        }
+    }
+}
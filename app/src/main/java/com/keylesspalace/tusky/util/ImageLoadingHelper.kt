@@ -3,12 +3,19 @@
 package com.keylesspalace.tusky.util
 
 import android.content.Context
+import android.graphics.Bitmap
 import android.graphics.drawable.BitmapDrawable
+import android.graphics.drawable.Drawable
+import android.util.LruCache
 import android.widget.ImageView
 import androidx.annotation.Px
 import com.bumptech.glide.Glide
+import com.bumptech.glide.RequestBuilder
+import com.bumptech.glide.RequestManager
 import com.bumptech.glide.load.resource.bitmap.CenterCrop
+import com.bumptech.glide.load.resource.bitmap.GranularRoundedCorners
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners
+import com.bumptech.glide.request.target.Target
 import com.keylesspalace.tusky.R
 
 
@@ -23,22 +30,15 @@ fun loadAvatar(url: String?, imageView: ImageView, @Px radius: Int, animate: Boo
     } else {
         if (animate) {
             Glide.with(imageView)
-                    .load(url)
-                    .transform(
-                            centerCropTransformation,
-                            RoundedCorners(radius)
-                    )
+                    .asDrawable()
+                    .avatar(url, radius)
                     .placeholder(R.drawable.avatar_default)
                     .into(imageView)
 
         } else {
             Glide.with(imageView)
                     .asBitmap()
-                    .load(url)
-                    .transform(
-                            centerCropTransformation,
-                            RoundedCorners(radius)
-                    )
+                    .avatar(url, radius)
                     .placeholder(R.drawable.avatar_default)
                     .into(imageView)
         }
@@ -46,6 +46,63 @@ fun loadAvatar(url: String?, imageView: ImageView, @Px radius: Int, animate: Boo
     }
 }
 
+/**
+ * Loads the avatar [loadAvatar] would load into the memory cache, [width] and [height] have to be
+ * the size of the image view without its padding to be found again.
+ */
+fun preloadAvatar(requestManager: RequestManager, url: String, @Px radius: Int, animate: Boolean,
+                  width: Int, height: Int): Target<*> {
+    return if (animate) {
+        requestManager.asDrawable().avatar(url, radius).preload(width, height)
+    } else {
+        requestManager.asBitmap().avatar(url, radius).preload(width, height)
+    }
+}
+
+private fun <T> RequestBuilder<T>.avatar(url: String, @Px radius: Int): RequestBuilder<T> {
+    return load(url).transform(
+            centerCropTransformation,
+            RoundedCorners(radius)
+    )
+}
+
+/** The request for a media preview, shared with preloading so both end up with the same cache key */
+fun mediaPreviewRequest(requestManager: RequestManager, previewUrl: String): RequestBuilder<Drawable> {
+    return requestManager
+            .load(previewUrl)
+            .centerInside()
+}
+
+/**
+ * The request for the image of a card, shared with preloading so both end up with the same cache key.
+ * @param vertical true if the image is shown above the text of the card, false if next to it
+ */
+fun cardImageRequest(requestManager: RequestManager, url: String, @Px radius: Int, vertical: Boolean): RequestBuilder<Drawable> {
+    val corners = if (vertical) {
+        GranularRoundedCorners(radius.toFloat(), radius.toFloat(), 0f, 0f)
+    } else {
+        GranularRoundedCorners(radius.toFloat(), 0f, 0f, radius.toFloat())
+    }
+    return requestManager
+            .load(url)
+            .transform(centerCropTransformation, corners)
+}
+
+private const val BLURHASH_SIZE = 32
+
+private data class BlurHashKey(val blurhash: String, val width: Int, val height: Int)
+
+/**
+ * Decoded blurhashes, statuses with sensitive or loading media show the same placeholders on every
+ * bind. The bitmaps are shared by all drawables showing them and must not be changed.
+ */
+private val blurHashCache = object : LruCache<BlurHashKey, Bitmap>(512 * 1024) {
+    override fun sizeOf(key: BlurHashKey, value: Bitmap) = value.byteCount
+}
+
 fun decodeBlurHash(context: Context, blurhash: String): BitmapDrawable {
-    return BitmapDrawable(context.resources, BlurHashDecoder.decode(blurhash, 32, 32, 1f))
+    val key = BlurHashKey(blurhash, BLURHASH_SIZE, BLURHASH_SIZE)
+    val bitmap = blurHashCache.get(key)
+            ?: BlurHashDecoder.decode(blurhash, key.width, key.height, 1f)?.also { blurHashCache.put(key, it) }
+    return BitmapDrawable(context.resources, bitmap)
 }
\ No newline at end of file
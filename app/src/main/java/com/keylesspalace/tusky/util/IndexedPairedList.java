@@ -0,0 +1,231 @@
+package com.keylesspalace.tusky.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.arch.core.util.Function;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PairedList} which additionally keeps hash indexes from status id, reblog id and author
+ * id to the positions of the items, so events can find their items without scanning the list.
+ *
+ * Positions are stored relative to a moving origin, which keeps adding and removing items at
+ * either end (streaming, loading more) O(1). Any other structural change marks the indexes as
+ * stale, they are rebuilt once on the next lookup.
+ * @param <T> type of elements in the main list
+ * @param <V> type of elements in supplementary list
+ */
+public final class IndexedPairedList<T, V> extends PairedList<T, V> {
+    private final Function<T, String> idOf;
+    private final Function<T, String> reblogIdOf;
+    private final Function<T, Collection<String>> accountIdsOf;
+
+    private final PositionIndex ids = new PositionIndex();
+    private final PositionIndex reblogIds = new PositionIndex();
+    private final PositionIndex accountIds = new PositionIndex();
+
+    private int origin = 0;
+    private boolean stale = false;
+
+    /**
+     * @param idOf         id of the status an item shows, or null if it has none
+     * @param reblogIdOf   id of the reblogged status an item shows, or null if it has none
+     * @param accountIdsOf ids of the accounts an item belongs to, may be empty
+     */
+    public IndexedPairedList(Function<T, ? extends V> mapper,
+                             Function<T, String> idOf,
+                             Function<T, String> reblogIdOf,
+                             Function<T, Collection<String>> accountIdsOf) {
+        super(mapper);
+        this.idOf = idOf;
+        this.reblogIdOf = reblogIdOf;
+        this.accountIdsOf = accountIdsOf;
+    }
+
+    /**
+     * @return the position of the first item showing the status, or -1
+     */
+    public int indexOfId(@NonNull String id) {
+        ensureIndexed();
+        return ids.first(id);
+    }
+
+    /**
+     * @return the position of the first item showing the status or a reblog of it, or -1
+     */
+    public int indexOfIdOrReblogId(@NonNull String id) {
+        ensureIndexed();
+        int byId = ids.first(id);
+        int byReblogId = reblogIds.first(id);
+        if (byId < 0) {
+            return byReblogId;
+        } else if (byReblogId < 0) {
+            return byId;
+        } else {
+            return Math.min(byId, byReblogId);
+        }
+    }
+
+    /**
+     * @return ascending positions of all items belonging to the account
+     */
+    @NonNull
+    public List<Integer> indicesOfAccountId(@NonNull String accountId) {
+        ensureIndexed();
+        return accountIds.all(accountId);
+    }
+
+    @Override
+    public T set(int index, T element) {
+        if (!stale) {
+            int stored = index + origin;
+            unindex(get(index), stored);
+            index(element, stored);
+        }
+        return super.set(index, element);
+    }
+
+    @Override
+    public boolean add(T t) {
+        if (!stale) {
+            index(t, size() + origin);
+        }
+        return super.add(t);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        if (!stale) {
+            if (index == size()) {
+                index(element, index + origin);
+            } else if (index == 0) {
+                origin--;
+                index(element, origin);
+            } else {
+                stale = true;
+            }
+        }
+        super.add(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        if (!stale) {
+            if (index == 0) {
+                unindex(get(index), origin);
+                origin++;
+            } else if (index == size() - 1) {
+                unindex(get(index), index + origin);
+            } else {
+                stale = true;
+            }
+        }
+        return super.remove(index);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        ids.clear();
+        reblogIds.clear();
+        accountIds.clear();
+        origin = 0;
+        stale = false;
+    }
+
+    private void ensureIndexed() {
+        if (!stale) {
+            return;
+        }
+        ids.clear();
+        reblogIds.clear();
+        accountIds.clear();
+        origin = 0;
+        for (int i = 0; i < size(); i++) {
+            index(get(i), i);
+        }
+        stale = false;
+    }
+
+    private void index(T item, int stored) {
+        ids.put(idOf.apply(item), stored);
+        reblogIds.put(reblogIdOf.apply(item), stored);
+        for (String accountId : accountIdsOf.apply(item)) {
+            accountIds.put(accountId, stored);
+        }
+    }
+
+    private void unindex(T item, int stored) {
+        ids.remove(idOf.apply(item), stored);
+        reblogIds.remove(reblogIdOf.apply(item), stored);
+        for (String accountId : accountIdsOf.apply(item)) {
+            accountIds.remove(accountId, stored);
+        }
+    }
+
+    /**
+     * Multimap from a key to the stored positions of the items having it.
+     */
+    private final class PositionIndex {
+        private final Map<String, List<Integer>> positions = new HashMap<>();
+
+        void put(@Nullable String key, int stored) {
+            if (key == null) {
+                return;
+            }
+            List<Integer> list = positions.get(key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                positions.put(key, list);
+            }
+            if (!list.contains(stored)) {
+                list.add(stored);
+            }
+        }
+
+        void remove(@Nullable String key, int stored) {
+            if (key == null) {
+                return;
+            }
+            List<Integer> list = positions.get(key);
+            if (list == null) {
+                return;
+            }
+            list.remove(Integer.valueOf(stored));
+            if (list.isEmpty()) {
+                positions.remove(key);
+            }
+        }
+
+        int first(String key) {
+            List<Integer> list = positions.get(key);
+            if (list == null) {
+                return -1;
+            }
+            return Collections.min(list) - origin;
+        }
+
+        List<Integer> all(String key) {
+            List<Integer> list = positions.get(key);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            List<Integer> result = new ArrayList<>(list.size());
+            for (int stored : list) {
+                result.add(stored - origin);
+            }
+            Collections.sort(result);
+            return result;
+        }
+
+        void clear() {
+            positions.clear();
+        }
+    }
+}
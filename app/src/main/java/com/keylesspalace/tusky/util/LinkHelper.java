@@ -70,6 +70,19 @@ public class LinkHelper {
      */
     public static void setClickableText(TextView view, CharSequence content,
                                         @Nullable Status.Mention[] mentions, final LinkListener listener) {
+        view.setText(createClickableText(content, mentions, listener));
+        view.setMovementMethod(LinkMovementMethod.getInstance());
+    }
+
+    /**
+     * Does the work of {@link #setClickableText} without touching a view, so that it can be done
+     * off the main thread.
+     *
+     * @return the text with clickable spans, this is content itself if it is a SpannableStringBuilder
+     */
+    public static SpannableStringBuilder createClickableText(CharSequence content,
+                                                             @Nullable Status.Mention[] mentions,
+                                                             final LinkListener listener) {
         SpannableStringBuilder builder = SpannableStringBuilder.valueOf(content);
         URLSpan[] urlSpans = builder.getSpans(0, content.length(), URLSpan.class);
         for (URLSpan span : urlSpans) {
@@ -128,8 +141,7 @@ public class LinkHelper {
             }
         }
 
-        view.setText(builder);
-        view.setMovementMethod(LinkMovementMethod.getInstance());
+        return builder;
     }
 
     /**
@@ -138,9 +138,32 @@ fun calculateInSampleSize(options: BitmapFactory.Options, reqWidth: Int, reqHeig
 }
 
 fun reorientBitmap(bitmap: Bitmap?, orientation: Int): Bitmap? {
+    val matrix = getOrientationMatrix(orientation) ?: return bitmap
+
+    if (bitmap == null) {
+        return null
+    }
+
+    return try {
+        val result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width,
+                bitmap.height, matrix, true)
+        if (!bitmap.sameAs(result)) {
+            bitmap.recycle()
+        }
+        result
+    } catch (e: OutOfMemoryError) {
+        null
+    }
+}
+
+/**
+ * @return the transformation which shows an image with the exif [orientation] upright, null if it
+ * already is
+ */
+fun getOrientationMatrix(orientation: Int): Matrix? {
     val matrix = Matrix()
     when (orientation) {
-        ExifInterface.ORIENTATION_NORMAL -> return bitmap
+        ExifInterface.ORIENTATION_NORMAL -> return null
         ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> matrix.setScale(-1.0f, 1.0f)
         ExifInterface.ORIENTATION_ROTATE_180 -> matrix.setRotate(180.0f)
         ExifInterface.ORIENTATION_FLIP_VERTICAL -> {
@@ -157,23 +180,9 @@ fun reorientBitmap(bitmap: Bitmap?, orientation: Int): Bitmap? {
             matrix.postScale(-1.0f, 1.0f)
         }
         ExifInterface.ORIENTATION_ROTATE_270 -> matrix.setRotate(-90.0f)
-        else -> return bitmap
-    }
-
-    if (bitmap == null) {
-        return null
-    }
-
-    return try {
-        val result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width,
-                bitmap.height, matrix, true)
-        if (!bitmap.sameAs(result)) {
-            bitmap.recycle()
-        }
-        result
-    } catch (e: OutOfMemoryError) {
-        null
+        else -> return null
     }
+    return matrix
 }
 
 fun getImageOrientation(uri: Uri, contentResolver: ContentResolver): Int {
@@ -23,7 +23,7 @@ import java.util.List;
  * @param <T> type of elements in the main list
  * @param <V> type of elements in supplementary list
  */
-public final class PairedList<T, V> extends AbstractList<T> {
+public class PairedList<T, V> extends AbstractList<T> {
     private final List<T> main = new ArrayList<>();
     private final List<V> synced = new ArrayList<>();
     private final Function<T, ? extends V> mapper;
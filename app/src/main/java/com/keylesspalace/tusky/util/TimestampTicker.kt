@@ -0,0 +1,145 @@
+/* Copyright 2021 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.util
+
+import android.os.Handler
+import android.os.Looper
+import android.view.View
+import androidx.annotation.MainThread
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.LifecycleEventObserver
+import androidx.lifecycle.LifecycleOwner
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.keylesspalace.tusky.adapter.StatusBaseViewHolder
+import java.util.Date
+
+/**
+ * Refreshes the relative timestamps of the items shown by resumed lists.
+ *
+ * All lists share one tick, which is scheduled for the moment the label of one of their visible
+ * items changes: every second for the newest statuses, but only once an hour for older ones. Only
+ * the visible items whose label changed are updated, with the
+ * [StatusBaseViewHolder.Key.KEY_CREATED] payload. Lists stop ticking when they are paused, which
+ * includes the screen being turned off.
+ */
+@MainThread
+object TimestampTicker {
+
+    private class Registration(
+            val recyclerView: RecyclerView,
+            val createdAt: (position: Int) -> Date?
+    ) : RecyclerView.OnChildAttachStateChangeListener {
+
+        override fun onChildViewAttachedToWindow(view: View) {
+            // items scrolled into view might change before the scheduled tick
+            val position = recyclerView.getChildAdapterPosition(view)
+            val createdAt = if (position == RecyclerView.NO_POSITION) null else createdAt(position)
+            if (createdAt != null) {
+                val change = TimestampUtils.getNextRelativeTimeSpanChange(createdAt.time, System.currentTimeMillis())
+                if (change < scheduledAt) {
+                    scheduleAt(change)
+                }
+            }
+        }
+
+        override fun onChildViewDetachedFromWindow(view: View) {}
+    }
+
+    private val payload = listOf(StatusBaseViewHolder.Key.KEY_CREATED)
+
+    private val registrations = ArrayList<Registration>()
+    private val handler = Handler(Looper.getMainLooper())
+    private val tick = Runnable { tick() }
+    private var scheduledAt = Long.MAX_VALUE
+    /** the labels of all visible items were up to date at this time */
+    private var lastTick = 0L
+
+    /**
+     * Keeps the timestamps shown by [recyclerView] up to date until [owner] is paused.
+     * @param createdAt the time the item at the adapter position is shown with, if any
+     */
+    fun start(owner: LifecycleOwner, recyclerView: RecyclerView, createdAt: (position: Int) -> Date?) {
+        val registration = Registration(recyclerView, createdAt)
+        registrations.add(registration)
+        recyclerView.addOnChildAttachStateChangeListener(registration)
+        owner.lifecycle.addObserver(object : LifecycleEventObserver {
+            override fun onStateChanged(source: LifecycleOwner, event: Lifecycle.Event) {
+                if (event == Lifecycle.Event.ON_PAUSE) {
+                    source.lifecycle.removeObserver(this)
+                    recyclerView.removeOnChildAttachStateChangeListener(registration)
+                    registrations.remove(registration)
+                    schedule()
+                }
+            }
+        })
+        // the labels were not updated while the list was paused
+        recyclerView.adapter?.let { adapter ->
+            forEachVisibleItem(registration) { position, _ -> adapter.notifyItemChanged(position, payload) }
+        }
+        schedule()
+    }
+
+    private fun tick() {
+        scheduledAt = Long.MAX_VALUE
+        val since = lastTick
+        registrations.forEach { notifyVisibleItems(it, since) }
+        schedule()
+    }
+
+    /** Updates the visible items of [registration] whose label changed after [since]. */
+    private fun notifyVisibleItems(registration: Registration, since: Long) {
+        val adapter = registration.recyclerView.adapter ?: return
+        val now = System.currentTimeMillis()
+        forEachVisibleItem(registration) { position, createdAt ->
+            if (TimestampUtils.getNextRelativeTimeSpanChange(createdAt.time, since) <= now) {
+                adapter.notifyItemChanged(position, payload)
+            }
+        }
+    }
+
+    private fun schedule() {
+        val now = System.currentTimeMillis()
+        lastTick = now
+        var next = Long.MAX_VALUE
+        registrations.forEach { registration ->
+            forEachVisibleItem(registration) { _, createdAt ->
+                next = minOf(next, TimestampUtils.getNextRelativeTimeSpanChange(createdAt.time, now))
+            }
+        }
+        scheduleAt(next)
+    }
+
+    private fun scheduleAt(time: Long) {
+        handler.removeCallbacks(tick)
+        scheduledAt = time
+        if (time != Long.MAX_VALUE) {
+            handler.postDelayed(tick, (time - System.currentTimeMillis()).coerceAtLeast(0))
+        }
+    }
+
+    private inline fun forEachVisibleItem(registration: Registration, action: (position: Int, createdAt: Date) -> Unit) {
+        val layoutManager = registration.recyclerView.layoutManager as? LinearLayoutManager ?: return
+        val first = layoutManager.findFirstVisibleItemPosition()
+        val last = layoutManager.findLastVisibleItemPosition()
+        if (first == RecyclerView.NO_POSITION) {
+            return
+        }
+        for (position in first..last) {
+            registration.createdAt(position)?.let { action(position, it) }
+        }
+    }
+}
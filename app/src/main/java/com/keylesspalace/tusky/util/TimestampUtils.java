@@ -78,6 +78,33 @@ public class TimestampUtils {
         return context.getString(format, span);
     }
 
+    /**
+     * @return the time after {@code now} at which {@link #getRelativeTimeSpanString} returns
+     * something else for {@code then}
+     */
+    public static long getNextRelativeTimeSpanChange(long then, long now) {
+        long span = Math.abs(now - then);
+        long unit;
+        if (span < MINUTE_IN_MILLIS) {
+            unit = SECOND_IN_MILLIS;
+        } else if (span < HOUR_IN_MILLIS) {
+            unit = MINUTE_IN_MILLIS;
+        } else if (span < DAY_IN_MILLIS) {
+            unit = HOUR_IN_MILLIS;
+        } else if (span < YEAR_IN_MILLIS) {
+            unit = DAY_IN_MILLIS;
+        } else {
+            unit = YEAR_IN_MILLIS;
+        }
+        if (now >= then) {
+            // the span grows into the next unit
+            return then + (span / unit + 1) * unit;
+        } else {
+            // the span shrinks below the current unit
+            return now + span % unit + 1;
+        }
+    }
+
     public static String formatPollDuration(Context context, long then, long now) {
         long span = then - now;
         if (span < 0) {
@@ -53,6 +53,15 @@ public abstract class StatusViewData {
         private static final char SOFT_HYPHEN = '\u00ad';
         private static final char ASCII_HYPHEN = '-';
 
+        // the groups of fields changes() reports
+        public static final int CHANGE_REBLOGGED = 1;
+        public static final int CHANGE_FAVOURITED = 1 << 1;
+        public static final int CHANGE_BOOKMARKED = 1 << 2;
+        /** reblogs or favourites count */
+        public static final int CHANGE_COUNTS = 1 << 3;
+        /** any other field, there is no way to update only a part of the view for those */
+        public static final int CHANGE_OTHER = 1 << 4;
+
         private final String id;
         private final Spanned content;
         final boolean reblogged;
@@ -319,21 +328,39 @@ public abstract class StatusViewData {
         public boolean deepEquals(StatusViewData o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
-            Concrete concrete = (Concrete) o;
-            return reblogged == concrete.reblogged &&
-                    favourited == concrete.favourited &&
-                    bookmarked == concrete.bookmarked &&
-                    isSensitive == concrete.isSensitive &&
+            return changes((Concrete) o) == 0;
+        }
+
+        /**
+         * Used by list diffs to update only what changed, usually a single action was taken.
+         *
+         * @return the CHANGE_ flags of the fields which differ in {@code other}, 0 if it is equal
+         */
+        public int changes(Concrete other) {
+            if (this == other) return 0;
+            int changes = 0;
+            if (reblogged != other.reblogged) changes |= CHANGE_REBLOGGED;
+            if (favourited != other.favourited) changes |= CHANGE_FAVOURITED;
+            if (bookmarked != other.bookmarked) changes |= CHANGE_BOOKMARKED;
+            if (reblogsCount != other.reblogsCount || favouritesCount != other.favouritesCount) {
+                changes |= CHANGE_COUNTS;
+            }
+            if (!otherFieldsEqual(other)) changes |= CHANGE_OTHER;
+            return changes;
+        }
+
+        private boolean otherFieldsEqual(Concrete concrete) {
+            // the objects are mostly shared between copies, Objects.equals is an identity check then
+            return isSensitive == concrete.isSensitive &&
                     isExpanded == concrete.isExpanded &&
                     isShowingContent == concrete.isShowingContent &&
                     isBot == concrete.isBot &&
-                    reblogsCount == concrete.reblogsCount &&
-                    favouritesCount == concrete.favouritesCount &&
                     rebloggingEnabled == concrete.rebloggingEnabled &&
+                    isCollapsed == concrete.isCollapsed &&
+                    visibility == concrete.visibility &&
                     Objects.equals(id, concrete.id) &&
                     Objects.equals(content, concrete.content) &&
                     Objects.equals(spoilerText, concrete.spoilerText) &&
-                    visibility == concrete.visibility &&
                     Objects.equals(attachments, concrete.attachments) &&
                     Objects.equals(rebloggedByUsername, concrete.rebloggedByUsername) &&
                     Objects.equals(rebloggedAvatar, concrete.rebloggedAvatar) &&
@@ -350,7 +377,6 @@ public abstract class StatusViewData {
                     Objects.equals(rebloggedByAccountEmojis, concrete.rebloggedByAccountEmojis) &&
                     Objects.equals(card, concrete.card) &&
                     Objects.equals(poll, concrete.poll) &&
-                    isCollapsed == concrete.isCollapsed &&
                     Objects.equals(quote, concrete.quote);
         }
 
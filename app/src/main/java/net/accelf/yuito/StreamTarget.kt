@@ -0,0 +1,84 @@
+package net.accelf.yuito
+
+import com.google.gson.JsonObject
+import com.keylesspalace.tusky.fragment.TimelineFragment
+import java.net.URLEncoder
+
+/**
+ * A single `stream=` subscription on the multiplexed streaming socket.
+ */
+data class StreamTarget(val kind: TimelineFragment.Kind, val identifier: String? = null) {
+
+    private val stream: String
+        get() = when (kind) {
+            TimelineFragment.Kind.HOME -> STREAM_USER
+            TimelineFragment.Kind.PUBLIC_FEDERATED -> STREAM_PUBLIC
+            TimelineFragment.Kind.PUBLIC_LOCAL -> STREAM_PUBLIC_LOCAL
+            TimelineFragment.Kind.LIST -> STREAM_LIST
+            else -> throw IllegalStateException("$kind can not be streamed")
+        }
+
+    fun subscribeFrame(): String = frame("subscribe")
+
+    fun unsubscribeFrame(): String = frame("unsubscribe")
+
+    /**
+     * The query parameters which subscribe to this target when the socket is opened. Servers
+     * without multiplexing ignore the subscribe frames and only stream this target.
+     */
+    fun queryParameters(): String {
+        val query = "stream=" + URLEncoder.encode(stream, "UTF-8")
+        return if (kind == TimelineFragment.Kind.LIST) {
+            query + "&list=" + URLEncoder.encode(identifier, "UTF-8")
+        } else {
+            query
+        }
+    }
+
+    private fun frame(type: String): String {
+        return JsonObject().apply {
+            addProperty("type", type)
+            addProperty("stream", stream)
+            if (kind == TimelineFragment.Kind.LIST) {
+                addProperty("list", identifier)
+            }
+        }.toString()
+    }
+
+    override fun toString(): String {
+        return if (identifier == null) { kind.name } else { kind.name + ":" + identifier }
+    }
+
+    companion object {
+        private const val STREAM_USER = "user"
+        private const val STREAM_PUBLIC = "public"
+        private const val STREAM_PUBLIC_LOCAL = "public:local"
+        private const val STREAM_LIST = "list"
+
+        /**
+         * @return the target for a timeline, or null if the timeline has no streaming counterpart
+         */
+        fun of(kind: TimelineFragment.Kind, identifier: String?): StreamTarget? {
+            return when (kind) {
+                TimelineFragment.Kind.HOME,
+                TimelineFragment.Kind.PUBLIC_FEDERATED,
+                TimelineFragment.Kind.PUBLIC_LOCAL -> StreamTarget(kind)
+                TimelineFragment.Kind.LIST -> identifier?.let { StreamTarget(kind, it) }
+                else -> null
+            }
+        }
+
+        /**
+         * Resolves the `stream` array the server attaches to every multiplexed message.
+         */
+        fun fromStream(stream: List<String>): StreamTarget? {
+            return when (stream.firstOrNull()) {
+                STREAM_USER -> StreamTarget(TimelineFragment.Kind.HOME)
+                STREAM_PUBLIC -> StreamTarget(TimelineFragment.Kind.PUBLIC_FEDERATED)
+                STREAM_PUBLIC_LOCAL -> StreamTarget(TimelineFragment.Kind.PUBLIC_LOCAL)
+                STREAM_LIST -> stream.getOrNull(1)?.let { StreamTarget(TimelineFragment.Kind.LIST, it) }
+                else -> null
+            }
+        }
+    }
+}
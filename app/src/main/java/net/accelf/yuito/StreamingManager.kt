@@ -0,0 +1,231 @@
+package net.accelf.yuito
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.util.Log
+import androidx.core.content.getSystemService
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.StreamReconnectedEvent
+import com.keylesspalace.tusky.db.AccountEntity
+import com.keylesspalace.tusky.fragment.TimelineFragment
+import io.reactivex.Single
+import io.reactivex.disposables.Disposable
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.WebSocket
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * Keeps a single streaming socket per account and multiplexes every timeline subscription over it.
+ * Subscriptions are reference counted so that tabs showing the same timeline share one stream,
+ * and the socket is closed as soon as the last subscriber leaves.
+ *
+ * Lost sockets are reopened with jittered exponential backoff, or right away when the device
+ * regains connectivity. Subscribers are told about the reconnect with a [StreamReconnectedEvent]
+ * so that they can fetch the statuses they missed.
+ */
+class StreamingManager(
+        context: Context,
+        httpClient: OkHttpClient,
+        private val eventHub: EventHub
+) {
+
+    // shares the connection pool and dispatcher of the app wide client
+    private val client = httpClient.newBuilder()
+            .apply { interceptors().removeAll { it is HttpToastInterceptor } }
+            .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+            .build()
+
+    private val connectivityManager: ConnectivityManager? = context.getSystemService()
+
+    private val networkCallback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+            synchronized(this@StreamingManager) {
+                connections.values.forEach { it.onNetworkAvailable() }
+            }
+        }
+    }
+
+    private val connections = mutableMapOf<Long, Connection>()
+
+    /**
+     * @return true if the timeline could be streamed and the subscription was registered
+     */
+    @Synchronized
+    fun subscribe(account: AccountEntity, kind: TimelineFragment.Kind, identifier: String?): Boolean {
+        val target = StreamTarget.of(kind, identifier) ?: return false
+        if (connections.isEmpty()) {
+            registerNetworkCallback()
+        }
+        connections.getOrPut(account.id) { Connection(account, target) }
+                .subscribe(target)
+        return true
+    }
+
+    @Synchronized
+    fun unsubscribe(account: AccountEntity, kind: TimelineFragment.Kind, identifier: String?) {
+        val target = StreamTarget.of(kind, identifier) ?: return
+        val connection = connections[account.id] ?: return
+        connection.unsubscribe(target)
+        if (connection.isIdle()) {
+            connection.close()
+            connections.remove(account.id)
+            if (connections.isEmpty()) {
+                unregisterNetworkCallback()
+            }
+        }
+    }
+
+    private fun registerNetworkCallback() {
+        val request = NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build()
+        try {
+            connectivityManager?.registerNetworkCallback(request, networkCallback)
+        } catch (e: SecurityException) {
+            Log.w(TAG, "Failed to watch connectivity changes", e)
+        }
+    }
+
+    private fun unregisterNetworkCallback() {
+        try {
+            connectivityManager?.unregisterNetworkCallback(networkCallback)
+        } catch (e: IllegalArgumentException) {
+            // callback was never registered
+        }
+    }
+
+    /**
+     * @param firstTarget subscribed to in the url of the socket, so that servers without
+     * multiplexing support stream it too
+     */
+    private inner class Connection(private val account: AccountEntity, firstTarget: StreamTarget) {
+
+        private val subscribers = mutableMapOf<StreamTarget, Int>()
+        private val listener = TimelineStreamingListener(eventHub, account.fullName,
+                { webSocket -> onOpened(webSocket) },
+                { webSocket, t -> onLost(webSocket, t) })
+
+        private var urlTarget = firstTarget
+        private var webSocket: WebSocket = open()
+        private var isOpen = false
+        private var hasBeenOpen = false
+        private var isClosed = false
+        private var attempt = 0
+        private var reconnectDisposable: Disposable? = null
+
+        private fun open(): WebSocket {
+            // keep the previous target while it is still subscribed, so old servers keep streaming it
+            if (urlTarget !in subscribers) {
+                urlTarget = subscribers.keys.firstOrNull() ?: urlTarget
+            }
+            listener.urlTarget = urlTarget
+            val endpoint = "wss://${account.domain}/api/v1/streaming/?access_token=${account.accessToken}" +
+                    "&" + urlTarget.queryParameters()
+            val request = Request.Builder().url(endpoint).build()
+            return client.newWebSocket(request, listener)
+        }
+
+        fun subscribe(target: StreamTarget) {
+            val count = subscribers[target] ?: 0
+            subscribers[target] = count + 1
+            if (count == 0) {
+                Log.d(TAG, "Subscribing to $target for ${account.fullName}")
+                listener.addTarget(target)
+                if (isOpen) {
+                    webSocket.send(target.subscribeFrame())
+                }
+            }
+        }
+
+        fun unsubscribe(target: StreamTarget) {
+            val count = subscribers[target] ?: return
+            if (count > 1) {
+                subscribers[target] = count - 1
+                return
+            }
+            Log.d(TAG, "Unsubscribing from $target for ${account.fullName}")
+            subscribers.remove(target)
+            listener.removeTarget(target)
+            if (isOpen) {
+                webSocket.send(target.unsubscribeFrame())
+            }
+        }
+
+        fun isIdle(): Boolean = subscribers.isEmpty()
+
+        fun close() {
+            isClosed = true
+            reconnectDisposable?.dispose()
+            webSocket.close(1000, null)
+        }
+
+        fun onNetworkAvailable() {
+            // only short-circuit a pending backoff, a socket which is still connecting is left alone
+            if (isClosed || isOpen || reconnectDisposable?.isDisposed != false) {
+                return
+            }
+            Log.d(TAG, "Network available, reconnecting ${account.fullName} now")
+            reconnectDisposable?.dispose()
+            attempt = 0
+            webSocket = open()
+        }
+
+        private fun onOpened(openedSocket: WebSocket) = synchronized(this@StreamingManager) {
+            if (isClosed || openedSocket !== webSocket) {
+                return@synchronized
+            }
+            isOpen = true
+            attempt = 0
+            subscribers.keys.forEach { target ->
+                openedSocket.send(target.subscribeFrame())
+            }
+            if (hasBeenOpen) {
+                subscribers.keys.forEach { target ->
+                    // the subscriber fetches the gap itself, no placeholder is needed for the next status
+                    listener.markContinued(target)
+                    eventHub.dispatch(StreamReconnectedEvent(target.kind, target.identifier))
+                }
+            }
+            hasBeenOpen = true
+        }
+
+        private fun onLost(lostSocket: WebSocket, t: Throwable?) = synchronized(this@StreamingManager) {
+            if (isClosed || lostSocket !== webSocket) {
+                return@synchronized
+            }
+            isOpen = false
+            val delay = backoffDelay(attempt++)
+            Log.d(TAG, "Stream for ${account.fullName} lost, reconnecting in $delay ms", t)
+            reconnectDisposable = Single.timer(delay, TimeUnit.MILLISECONDS)
+                    .subscribe { _ ->
+                        synchronized(this@StreamingManager) {
+                            if (!isClosed) {
+                                webSocket = open()
+                            }
+                        }
+                    }
+        }
+    }
+
+    companion object {
+        private const val TAG = "StreamingManager"
+        private const val PING_INTERVAL_SECONDS = 30L
+        private const val BACKOFF_BASE_MILLIS = 1000L
+        private const val BACKOFF_MAX_MILLIS = 5 * 60 * 1000L
+
+        /**
+         * Exponential backoff with "equal jitter": the delay is drawn from the upper half of the
+         * exponential window, so sockets dropped at the same time don't reconnect in lockstep.
+         */
+        fun backoffDelay(attempt: Int, random: Random = Random.Default): Long {
+            val window = min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS shl min(attempt, 16))
+            return window / 2 + random.nextLong(window / 2 + 1)
+        }
+    }
+}
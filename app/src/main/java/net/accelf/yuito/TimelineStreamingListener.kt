@@ -11,34 +11,65 @@ import com.keylesspalace.tusky.appstore.StreamUpdateEvent
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.entity.StreamEvent
-import com.keylesspalace.tusky.fragment.TimelineFragment
+import com.keylesspalace.tusky.json.EntityTypeAdapterFactory
 import com.keylesspalace.tusky.json.SpannedTypeAdapter
 import okhttp3.Response
 import okhttp3.WebSocket
 import okhttp3.WebSocketListener
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Demultiplexes the messages of a shared streaming socket into events for every subscribed target.
+ */
 class TimelineStreamingListener(private val eventHub: EventHub,
-                                private val kind: TimelineFragment.Kind,
-                                private val identifier: String? = null) : WebSocketListener() {
+                                private val name: String,
+                                private val onOpened: (WebSocket) -> Unit,
+                                private val onLost: (WebSocket, Throwable?) -> Unit) : WebSocketListener() {
 
     private val gson = buildGson()
-    private val target = if (identifier == null) { kind.name } else { kind.name + ":" + identifier }
-    private var isFirstStatus = true
+    private val eventAdapter = gson.getAdapter(StreamEvent::class.java)
+    private val statusAdapter = gson.getAdapter(Status::class.java)
+
+    /**
+     * Subscribed targets, mapped to whether the next status is the first one since subscribing.
+     */
+    private val targets = ConcurrentHashMap<StreamTarget, Boolean>()
+
+    /**
+     * The target subscribed to in the url of the socket, messages without a `stream` belong to it.
+     */
+    @Volatile
+    var urlTarget: StreamTarget? = null
+
+    fun addTarget(target: StreamTarget) {
+        targets[target] = true
+    }
+
+    fun removeTarget(target: StreamTarget) {
+        targets.remove(target)
+    }
+
+    /**
+     * Treats the next status of [target] as a continuation instead of the first one of a new stream.
+     */
+    fun markContinued(target: StreamTarget) {
+        targets.replace(target, false)
+    }
 
     override fun onOpen(webSocket: WebSocket, response: Response) {
-        Log.d(TAG, "Stream connected to: $target")
+        Log.d(TAG, "Stream connected to: $name")
+        onOpened(webSocket)
     }
 
     override fun onMessage(webSocket: WebSocket, text: String) {
-        val event = gson.fromJson(text, StreamEvent::class.java)
+        val event = eventAdapter.fromJson(text)
         val payload = event.payload
         when (event.event) {
             StreamEvent.EventType.UPDATE -> {
-                val status = gson.fromJson(payload, Status::class.java)
-                eventHub.dispatch(StreamUpdateEvent(status, kind, identifier, isFirstStatus))
-                if (isFirstStatus) {
-                    isFirstStatus = false
-                }
+                val target = resolveTarget(event) ?: return
+                val status = statusAdapter.fromJson(payload)
+                val isFirstStatus = targets.replace(target, true, false)
+                eventHub.dispatch(StreamUpdateEvent(status, target.kind, target.identifier, isFirstStatus))
             }
             StreamEvent.EventType.DELETE -> eventHub.dispatch(StatusDeletedEvent(payload))
             StreamEvent.EventType.FILTERS_CHANGED -> eventHub.dispatch(PreferenceChangedEvent(Filter.HOME)) // It may be not a home but it doesn't matter
@@ -46,8 +77,29 @@ class TimelineStreamingListener(private val eventHub: EventHub,
         }
     }
 
+    override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+        webSocket.close(1000, null)
+    }
+
     override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
-        Log.d(TAG, "Stream closed for: $target")
+        Log.d(TAG, "Stream closed for: $name")
+        onLost(webSocket, null)
+    }
+
+    override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+        Log.w(TAG, "Stream failed for: $name", t)
+        onLost(webSocket, t)
+    }
+
+    private fun resolveTarget(event: StreamEvent): StreamTarget? {
+        val stream = event.stream
+        val target = if (stream == null) {
+            // servers without multiplexing support only ever serve the stream of the url
+            urlTarget
+        } else {
+            StreamTarget.fromStream(stream)
+        }
+        return target?.takeIf { targets.containsKey(it) }
     }
 
     companion object {
@@ -56,6 +108,7 @@ class TimelineStreamingListener(private val eventHub: EventHub,
         private fun buildGson(): Gson {
             return GsonBuilder()
                     .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+                    .registerTypeAdapterFactory(EntityTypeAdapterFactory())
                     .create()
         }
     }
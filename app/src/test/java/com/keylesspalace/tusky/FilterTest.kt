@@ -88,6 +88,14 @@ class FilterTest {
                                                 irreversible = false,
                                                 wholeWord = true
                                         ),
+                                        Filter(
+                                                id = "123",
+                                                phrase = "expiredWord",
+                                                context = listOf(Filter.HOME),
+                                                expiresAt = "2020-01-01T00:00:00.000Z",
+                                                irreversible = false,
+                                                wholeWord = false
+                                        ),
                                         Filter(
                                                 id = "123",
                                                 phrase = "@twitter.com",
@@ -136,6 +144,13 @@ class FilterTest {
         ))
     }
 
+    @Test
+    fun shouldNotFilter_whenFilterExpired() {
+        assertFalse(fragment.shouldFilterStatus(
+                mockStatus(content = "one two expiredWord three")
+        ))
+    }
+
     @Test
     fun shouldFilter_whenContentMatchesBadWord() {
         assertTrue(fragment.shouldFilterStatus(
@@ -255,7 +270,7 @@ class FakeFragment: SFragment() {
     override fun onReblog(reblog: Boolean, position: Int) {
     }
 
-    override fun filterIsRelevant(filter: Filter): Boolean {
-        return filter.context.contains(Filter.HOME)
+    override fun getFilterContexts(): List<String> {
+        return listOf(Filter.HOME)
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.keylesspalace.tusky
 
+import com.keylesspalace.tusky.db.timelineSortKey
 import com.keylesspalace.tusky.util.dec
 import com.keylesspalace.tusky.util.inc
 import com.keylesspalace.tusky.util.isLessThan
@@ -43,4 +44,15 @@ class StringUtilsTest {
                 "2" to "1"
         ).forEach { (l, r) -> assertEquals("$l - 1 = $r", r, l.dec()) }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun timelineSortKeyKeepsOrder() {
+        val ids = listOf("abc", "bcd", "ab", "cb", "1", "2", "11z", "zz", "106304474329398021",
+                "106304474329398022", "9UsFMkbTg1BHRjX3xo")
+        for (l in ids) {
+            for (r in ids) {
+                assertEquals("$l < $r", l.isLessThan(r), timelineSortKey(l) < timelineSortKey(r))
+            }
+        }
+    }
+}
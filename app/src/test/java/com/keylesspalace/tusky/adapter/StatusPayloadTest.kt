@@ -0,0 +1,54 @@
+package com.keylesspalace.tusky.adapter
+
+import android.text.SpannedString
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.keylesspalace.tusky.adapter.StatusBaseViewHolder.Key
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.util.Date
+
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class StatusPayloadTest {
+
+    private val status = StatusViewData.Builder()
+            .setId("1")
+            .setContent(SpannedString("content"))
+            .setVisibility(Status.Visibility.PUBLIC)
+            .setAttachments(emptyList())
+            .setCreatedAt(Date(1000))
+            .setFavouritesCount(1)
+            .createStatusViewData()
+
+    @Test
+    fun onlyUpdatesTimestamp_whenNothingChanged() {
+        val copy = StatusViewData.Builder(status).createStatusViewData()
+        assertEquals(listOf(Key.KEY_CREATED), Key.payloadOf(status, copy))
+    }
+
+    @Test
+    fun updatesChangedActions() {
+        val favourited = StatusViewData.Builder(status)
+                .setFavourited(true)
+                .setFavouritesCount(2)
+                .createStatusViewData()
+        assertEquals(listOf(Key.KEY_CREATED, Key.KEY_FAVOURITED, Key.KEY_COUNTS), Key.payloadOf(status, favourited))
+
+        val bookmarked = StatusViewData.Builder(status).setBookmarked(true).createStatusViewData()
+        assertEquals(listOf(Key.KEY_CREATED, Key.KEY_BOOKMARKED), Key.payloadOf(status, bookmarked))
+    }
+
+    @Test
+    fun bindsAgain_whenOtherFieldsChanged() {
+        val expanded = StatusViewData.Builder(status)
+                .setReblogged(true)
+                .setIsExpanded(true)
+                .createStatusViewData()
+        assertNull(Key.payloadOf(status, expanded))
+    }
+}
@@ -0,0 +1,136 @@
+package com.keylesspalace.tusky.fragment
+
+import android.text.SpannableString
+import android.text.Spanned
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.gson.GsonBuilder
+import com.keylesspalace.tusky.db.AccountEntity
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.NotificationsDao
+import com.keylesspalace.tusky.db.NotificationsPage
+import com.keylesspalace.tusky.entity.Account
+import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.json.SpannedTypeAdapter
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.repository.NotificationsRepository
+import com.keylesspalace.tusky.repository.NotificationsRepositoryImpl
+import com.keylesspalace.tusky.repository.TimelineRequestMode
+import com.keylesspalace.tusky.util.Either
+import com.nhaarman.mockitokotlin2.argumentCaptor
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.isNull
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.reactivex.Single
+import io.reactivex.plugins.RxJavaPlugins
+import io.reactivex.schedulers.TestScheduler
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mock
+import org.mockito.MockitoAnnotations
+import org.robolectric.annotation.Config
+import retrofit2.Response
+import java.util.concurrent.TimeUnit
+
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class NotificationsRepositoryTest {
+    @Mock
+    lateinit var notificationsDao: NotificationsDao
+
+    @Mock
+    lateinit var mastodonApi: MastodonApi
+
+    @Mock
+    private lateinit var accountManager: AccountManager
+
+    private lateinit var subject: NotificationsRepository
+
+    private lateinit var testScheduler: TestScheduler
+
+    private val limit = 3
+    private val account = AccountEntity(
+            id = 2,
+            accessToken = "token",
+            domain = "domain.com",
+            isActive = true
+    )
+
+    @Before
+    fun setup() {
+        MockitoAnnotations.initMocks(this)
+        whenever(accountManager.activeAccount).thenReturn(account)
+
+        val gson = GsonBuilder()
+                .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+                .create()
+        testScheduler = TestScheduler()
+        RxJavaPlugins.setIoSchedulerHandler { testScheduler }
+        subject = NotificationsRepositoryImpl(notificationsDao, mastodonApi, accountManager, gson)
+    }
+
+    @Test
+    fun fullPageLeavesPlaceholder() {
+        val notifications = listOf(makeNotification("5"), makeNotification("4"), makeNotification("3"))
+        whenever(mastodonApi.notifications(isNull(), isNull(), anyInt(), isNull()))
+                .thenReturn(Single.just(Response.success(notifications)))
+
+        val result = subject.getNotifications(null, null, limit, null, TimelineRequestMode.NETWORK)
+                .blockingGet()
+
+        assertEquals(notifications.map { Either.Right<Any, Notification>(it) }, result)
+        val page = capturePage()
+        assertEquals(listOf("5", "4", "3"), page.notifications.map { it.serverId })
+        assertEquals(listOf("2"), page.placeholders.map { it.serverId })
+        assertEquals(listOf<Pair<String, String>>(), page.removePlaceholdersBetween)
+    }
+
+    @Test
+    fun shortPageClosesGap() {
+        val notifications = listOf(makeNotification("5"), makeNotification("4"))
+        whenever(mastodonApi.notifications(isNull(), eq("2"), anyInt(), isNull()))
+                .thenReturn(Single.just(Response.success(notifications)))
+
+        subject.getNotifications(null, "2", limit, null, TimelineRequestMode.NETWORK)
+                .blockingGet()
+
+        val page = capturePage()
+        assertEquals(listOf<String>(), page.placeholders.map { it.serverId })
+        assertEquals(listOf("4" to "2"), page.removePlaceholdersBetween)
+    }
+
+    private fun capturePage(): NotificationsPage {
+        testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
+        val captor = argumentCaptor<NotificationsPage>()
+        verify(notificationsDao).insertPage(captor.capture())
+        return captor.firstValue
+    }
+
+    private fun makeNotification(id: String): Notification {
+        return Notification(
+                type = Notification.Type.FOLLOW,
+                id = id,
+                account = Account(
+                        id = "account$id",
+                        localUsername = "test$id",
+                        username = "test$id@example.com",
+                        displayName = "Example Account $id",
+                        note = SpannableString("Note! $id"),
+                        url = "https://example.com/@test$id",
+                        avatar = "avatar$id",
+                        header = "Header$id",
+                        followersCount = 300,
+                        followingCount = 400,
+                        statusesCount = 1000,
+                        bot = false,
+                        emojis = listOf(),
+                        fields = null,
+                        source = null
+                ),
+                status = null
+        )
+    }
+}
@@ -6,6 +6,8 @@ import com.google.gson.Gson
 import com.keylesspalace.tusky.db.AccountEntity
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.TimelineDao
+import com.keylesspalace.tusky.db.TimelinePage
+import com.keylesspalace.tusky.db.TimelineStatusChildren
 import com.keylesspalace.tusky.db.TimelineStatusWithAccount
 import com.keylesspalace.tusky.entity.Account
 import com.keylesspalace.tusky.entity.Status
@@ -13,6 +15,7 @@ import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.repository.*
 import com.keylesspalace.tusky.util.Either
 import com.nhaarman.mockitokotlin2.isNull
+import com.nhaarman.mockitokotlin2.times
 import com.nhaarman.mockitokotlin2.verify
 import com.nhaarman.mockitokotlin2.verifyNoMoreInteractions
 import com.nhaarman.mockitokotlin2.whenever
@@ -84,18 +87,8 @@ class TimelineRepositoryTest {
 
         assertEquals(statuses.map(Status::lift), result)
         testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
-
-        verify(timelineDao).deleteRange(account.id, statuses.last().id, statuses.first().id)
-
-        verify(timelineDao).insertStatusIfNotThere(Placeholder("1").toEntity(account.id))
-        for (status in statuses) {
-            verify(timelineDao).insertInTransaction(
-                    status.toEntity(account.id, gson),
-                    status.account.toEntity(account.id, gson),
-                    null
-            )
-        }
-        verify(timelineDao).cleanup(anyLong())
+        verify(timelineDao).insertPage(makePage(statuses, placeholders = listOf(Placeholder("1"))))
+        verifyCleanup()
         verifyNoMoreInteractions(timelineDao)
     }
 
@@ -119,18 +112,9 @@ class TimelineRepositoryTest {
                 result
         )
         testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
-        verify(timelineDao).deleteRange(account.id, response.last().id, response.first().id)
-        // We assume for now that overlapped one is inserted but it's not that important
-        for (status in response) {
-            verify(timelineDao).insertInTransaction(
-                    status.toEntity(account.id, gson),
-                    status.account.toEntity(account.id, gson),
-                    null
-            )
-        }
-        verify(timelineDao).removeAllPlaceholdersBetween(account.id, response.first().id,
-                response.last().id)
-        verify(timelineDao).cleanup(anyLong())
+        verify(timelineDao).insertPage(makePage(response,
+                removePlaceholdersBetween = response.first().id to response.last().id))
+        verifyCleanup()
         verifyNoMoreInteractions(timelineDao)
     }
 
@@ -151,16 +135,8 @@ class TimelineRepositoryTest {
         val placeholder = Placeholder("3")
         assertEquals(response.map(Status::lift) + Either.Left(placeholder), result)
         testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
-        verify(timelineDao).deleteRange(account.id, response.last().id, response.first().id)
-        for (status in response) {
-            verify(timelineDao).insertInTransaction(
-                    status.toEntity(account.id, gson),
-                    status.account.toEntity(account.id, gson),
-                    null
-            )
-        }
-        verify(timelineDao).insertStatusIfNotThere(placeholder.toEntity(account.id))
-        verify(timelineDao).cleanup(anyLong())
+        verify(timelineDao).insertPage(makePage(response, placeholders = listOf(placeholder)))
+        verifyCleanup()
         verifyNoMoreInteractions(timelineDao)
     }
 
@@ -193,18 +169,9 @@ class TimelineRepositoryTest {
                 result
         )
         testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
-        verify(timelineDao).deleteRange(account.id, response.last().id, response.first().id)
-        // We assume for now that overlapped one is inserted but it's not that important
-        for (status in response) {
-            verify(timelineDao).insertInTransaction(
-                    status.toEntity(account.id, gson),
-                    status.account.toEntity(account.id, gson),
-                    null
-            )
-        }
-        verify(timelineDao).removeAllPlaceholdersBetween(account.id, response.first().id,
-                response.last().id)
-        verify(timelineDao).cleanup(anyLong())
+        verify(timelineDao).insertPage(makePage(response,
+                removePlaceholdersBetween = response.first().id to response.last().id))
+        verifyCleanup()
         verifyNoMoreInteractions(timelineDao)
     }
 
@@ -237,21 +204,9 @@ class TimelineRepositoryTest {
                 result
         )
         testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
-        // We assume for now that overlapped one is inserted but it's not that important
-
-        verify(timelineDao).deleteRange(account.id, response.last().id, response.first().id)
-
-        for (status in response) {
-            verify(timelineDao).insertInTransaction(
-                    status.toEntity(account.id, gson),
-                    status.account.toEntity(account.id, gson),
-                    null
-            )
-        }
-        verify(timelineDao).removeAllPlaceholdersBetween(account.id, response.first().id,
-                response.last().id)
-        verify(timelineDao).insertStatusIfNotThere(placeholder.toEntity(account.id))
-        verify(timelineDao).cleanup(anyLong())
+        verify(timelineDao).insertPage(makePage(response, placeholders = listOf(placeholder),
+                removePlaceholdersBetween = response.first().id to response.last().id))
+        verifyCleanup()
         verifyNoMoreInteractions(timelineDao)
     }
 
@@ -268,6 +223,8 @@ class TimelineRepositoryTest {
                 .thenReturn(Single.just(Response.success((listOf(status)))))
         whenever(timelineDao.getStatusesForAccount(account.id, status.id, null, 30))
                 .thenReturn(Single.just(listOf(dbResult)))
+        whenever(timelineDao.getChildren(account.id, listOf(dbStatus.id)))
+                .thenReturn(dbStatus.toChildEntities(account.id))
         val result = subject.getStatuses(null, null, null, limit, TimelineRequestMode.ANY)
                 .blockingGet()
         assertEquals(listOf(status, dbStatus).map(Status::lift), result)
@@ -291,6 +248,51 @@ class TimelineRepositoryTest {
         assertEquals(listOf(status).map(Status::lift), result)
     }
 
+    @Test
+    fun cleanupTrimsAccountsOverBudget() {
+        val otherAccountId = 3L
+        whenever(timelineDao.getTimelineUserIds()).thenReturn(listOf(account.id, otherAccountId))
+        whenever(timelineDao.getSortKeyAt(account.id, 10)).thenReturn("key")
+        whenever(timelineDao.trimStatuses(account.id, "key", TimelineRepository.CLEANUP_CHUNK_SIZE))
+                .thenReturn(TimelineRepository.CLEANUP_CHUNK_SIZE, 1)
+        whenever(timelineDao.getSortKeyAt(otherAccountId, 10)).thenReturn(null)
+        TimelineRepositoryImpl(timelineDao, mastodonApi, accountManager, gson, 10)
+
+        testScheduler.advanceTimeBy(100, TimeUnit.SECONDS)
+
+        // the subject created in setup cleans up too, but with the default budget
+        verify(timelineDao, times(2)).cleanup(anyLong(), eq(TimelineRepository.CLEANUP_CHUNK_SIZE))
+        verify(timelineDao, times(2)).getTimelineUserIds()
+        verify(timelineDao).getSortKeyAt(account.id, TimelineRepository.MAX_STATUSES_PER_ACCOUNT)
+        verify(timelineDao).getSortKeyAt(otherAccountId, TimelineRepository.MAX_STATUSES_PER_ACCOUNT)
+        verify(timelineDao).getSortKeyAt(account.id, 10)
+        verify(timelineDao).getSortKeyAt(otherAccountId, 10)
+        verify(timelineDao, times(2)).trimStatuses(account.id, "key", TimelineRepository.CLEANUP_CHUNK_SIZE)
+        verify(timelineDao, times(2)).cleanupAccounts(TimelineRepository.CLEANUP_CHUNK_SIZE)
+        verifyNoMoreInteractions(timelineDao)
+    }
+
+    private fun verifyCleanup() {
+        verify(timelineDao).cleanup(anyLong(), eq(TimelineRepository.CLEANUP_CHUNK_SIZE))
+        verify(timelineDao).getTimelineUserIds()
+        verify(timelineDao).cleanupAccounts(TimelineRepository.CLEANUP_CHUNK_SIZE)
+    }
+
+    private fun makePage(
+            statuses: List<Status>,
+            placeholders: List<Placeholder> = listOf(),
+            removePlaceholdersBetween: Pair<String, String>? = null
+    ): TimelinePage {
+        return TimelinePage(
+                timelineUserId = account.id,
+                accounts = statuses.map { it.account.toEntity(account.id, gson) },
+                statuses = statuses.map { it.toEntity(account.id, gson) },
+                children = TimelineStatusChildren.concat(statuses.map { it.toChildEntities(account.id) }),
+                placeholders = placeholders.map { it.toEntity(account.id) },
+                removePlaceholdersBetween = removePlaceholdersBetween
+        )
+    }
+
     private fun makeStatus(id: String, account: Account = makeAccount(id)): Status {
         return Status(
                 id = id,
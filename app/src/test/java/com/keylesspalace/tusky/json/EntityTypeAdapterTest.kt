@@ -0,0 +1,81 @@
+package com.keylesspalace.tusky.json
+
+import android.text.Spanned
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.reflect.TypeToken
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.entity.StreamEvent
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+/**
+ * Checks that the streaming entity adapters produce the same statuses as Gson reflection on a
+ * recorded home timeline page of 40 statuses. The timing comparison is EntityTypeAdapterBenchmark
+ * in androidTest.
+ */
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class EntityTypeAdapterTest {
+
+    private val reflectionGson = GsonBuilder()
+            .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+            .create()
+
+    private val streamingGson = GsonBuilder()
+            .registerTypeAdapter(Spanned::class.java, SpannedTypeAdapter())
+            .registerTypeAdapterFactory(EntityTypeAdapterFactory())
+            .create()
+
+    private val page = javaClass.classLoader!!.getResource("json/home_timeline.json").readText()
+
+    @Test
+    fun parseHomeTimelinePage() {
+        val expected = parse(reflectionGson)
+        val actual = parse(streamingGson)
+        assertEquals(40, actual.size)
+        assertEquals(expected.map(::summarize), actual.map(::summarize))
+    }
+
+    @Test
+    fun parseStreamEvent() {
+        val status = streamingGson.fromJson<List<Status>>(page, statusListType).first()
+        val message = streamingGson.toJson(mapOf(
+                "stream" to listOf("user"),
+                "event" to "update",
+                "payload" to reflectionGson.toJson(status)
+        ))
+
+        val event = streamingGson.fromJson(message, StreamEvent::class.java)
+        assertEquals(StreamEvent.EventType.UPDATE, event.event)
+        assertEquals(listOf("user"), event.stream)
+        assertEquals(summarize(status), summarize(streamingGson.fromJson(event.payload, Status::class.java)))
+    }
+
+    private fun parse(gson: Gson): List<Status> = gson.fromJson(page, statusListType)
+
+    /** The fields of a status which can be compared by value */
+    private fun summarize(status: Status?): List<Any?>? {
+        if (status == null) {
+            return null
+        }
+        return listOf(
+                status.id, status.url, status.account.id,
+                status.account.name, status.account.note.toString(), status.account.emojis,
+                status.account.fields?.map { it.name to it.value.toString() },
+                status.inReplyToId, status.inReplyToAccountId, summarize(status.reblog),
+                status.content.toString(), status.createdAt, status.emojis, status.reblogsCount,
+                status.favouritesCount, status.reblogged, status.favourited, status.bookmarked,
+                status.sensitive, status.spoilerText, status.visibility, status.attachments,
+                status.mentions.toList(), status.application, status.pinned, status.muted,
+                status.poll, status.card
+        )
+    }
+
+    companion object {
+        private val statusListType = object : TypeToken<List<Status>>() {}.type
+    }
+}
@@ -0,0 +1,68 @@
+package com.keylesspalace.tusky.repository
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.gson.Gson
+import com.keylesspalace.tusky.db.TimelineStatusEntity
+import com.keylesspalace.tusky.entity.Status
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class DecodedStatusCacheTest {
+
+    private val cache = DecodedStatusCache(Gson())
+
+    private val entity = TimelineStatusEntity(
+            serverId = "1",
+            url = null,
+            timelineUserId = 1,
+            authorServerId = "10",
+            inReplyToId = null,
+            inReplyToAccountId = null,
+            content = "<p>content</p>",
+            createdAt = 1000,
+            reblogsCount = 0,
+            favouritesCount = 0,
+            reblogged = false,
+            bookmarked = false,
+            favourited = false,
+            sensitive = false,
+            spoilerText = "",
+            visibility = Status.Visibility.PUBLIC,
+            application = """{"name":"Tusky","website":"https://tusky.app"}""",
+            reblogServerId = null,
+            reblogAccountId = null,
+            poll = null,
+            muted = false
+    )
+
+    @Test
+    fun reusesDecodedContent_whenTheRowDidNotChange() {
+        val first = cache.get(entity)
+        // only counts and flags changed, they are not part of the decoded content
+        val second = cache.get(entity.copy(favouritesCount = 3, favourited = true))
+        assertSame(first, second)
+        assertEquals("content", first.content.toString())
+        assertEquals("Tusky", first.application?.name)
+    }
+
+    @Test
+    fun decodesAgain_whenTheContentChanged() {
+        val first = cache.get(entity)
+        val edited = cache.get(entity.copy(content = "<p>edited</p>"))
+        assertNotSame(first, edited)
+        assertEquals("edited", edited.content.toString())
+        assertSame(edited, cache.get(entity.copy(content = "<p>edited</p>")))
+    }
+
+    @Test
+    fun keepsAccountsApart() {
+        val first = cache.get(entity)
+        assertNotSame(first, cache.get(entity.copy(timelineUserId = 2)))
+    }
+}
@@ -0,0 +1,76 @@
+package com.keylesspalace.tusky.util
+
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.URLSpan
+import androidx.core.text.parseAsHtml
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class ContentRendererTest {
+
+    @Test
+    fun rendersLikeHtml() {
+        val samples = listOf(
+                "<p>Hello world</p>",
+                "<p>First paragraph</p><p>Second   paragraph\nwith a <br>line break</p>",
+                "<p><span class=\"h-card\"><a href=\"https://example.com/@user\" class=\"u-url mention\">@<span>user</span></a></span> hi</p>",
+                "<p><a href=\"https://example.com/article\" rel=\"nofollow noopener noreferrer\" target=\"_blank\"><span class=\"invisible\">https://</span><span class=\"ellipsis\">example.com/</span><span class=\"invisible\">article</span></a></p>",
+                "<p>Fish &amp; chips &lt;3 &quot;quoted&quot; &#39;single&#39; &#x1F600; a&nbsp;b</p>",
+                "<p><strong>bold</strong> <em>italic</em> <del>gone</del> <code>code</code> <u>under</u></p>",
+                "<p>Tom & Jerry</p>",
+                "<p></p><p>  leading whitespace</p>",
+                "plain text without tags",
+                "<p>unsupported <blockquote>quote</blockquote></p>",
+                "<p>misnested <b><i>tags</b></i></p>",
+                "<p>styled <span style=\"color: red\">text</span></p>"
+        )
+        for (html in samples) {
+            assertSameRendering(html, html.parseAsHtml().trimTrailingWhitespace(), ContentRenderer.render(html))
+        }
+    }
+
+    @Test
+    fun stripsQuoteInline() {
+        val html = "<p>Look at this<span class=\"quote-inline\"><br>QT: <a href=\"https://example.com/@user/1\">https://example.com/@user/1</a></span></p>"
+        val rendered = ContentRenderer.render(html)
+        assertEquals("Look at this", rendered.toString())
+        assertEquals(0, rendered.getSpans(0, rendered.length, URLSpan::class.java).size)
+    }
+
+    @Test
+    fun cachesByStatusAndContent() {
+        val first = ContentRenderer.render("1", "<p>content</p>")
+        assertSame(first, ContentRenderer.render("1", "<p>content</p>"))
+        assertEquals("edited", ContentRenderer.render("1", "<p>edited</p>").toString())
+    }
+
+    @Test
+    fun cachedContent_isNotChangedWhenShown() {
+        val cached = ContentRenderer.render("2", "<p>content</p>")
+        assertFalse(cached is Spannable)
+        // what CustomEmojiHelper and LinkHelper do before adding their spans
+        SpannableStringBuilder.valueOf(cached).setSpan(Any(), 0, 1, 0)
+        assertEquals(0, cached.getSpans(0, cached.length, Any::class.java).size)
+    }
+
+    private fun assertSameRendering(html: String, expected: Spanned, actual: Spanned) {
+        assertEquals(html, expected.toString(), actual.toString())
+        assertEquals(html, describeSpans(expected), describeSpans(actual))
+    }
+
+    private fun describeSpans(text: Spanned): List<String> {
+        return text.getSpans(0, text.length, Any::class.java).map { span ->
+            val url = (span as? URLSpan)?.url.orEmpty()
+            "${span.javaClass.simpleName} ${text.getSpanStart(span)}-${text.getSpanEnd(span)} $url"
+        }.sorted()
+    }
+}
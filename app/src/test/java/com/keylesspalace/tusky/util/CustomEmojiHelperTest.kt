@@ -0,0 +1,45 @@
+package com.keylesspalace.tusky.util
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.keylesspalace.tusky.entity.Emoji
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class CustomEmojiHelperTest {
+
+    private val emojis = listOf(
+            Emoji("blobcat", "https://example.com/blobcat.png", "https://example.com/blobcat.png", true),
+            Emoji("a", "https://example.com/a.png", "https://example.com/a.png", true),
+            Emoji("party_parrot", "https://example.com/party_parrot.gif", "https://example.com/party_parrot.png", true)
+    )
+
+    @Test
+    fun findsAllShortcodes() {
+        assertEquals(
+                listOf("0-9 blobcat.png", "10-13 a.png", "17-31 party_parrot.gif", "31-40 blobcat.png"),
+                shortcodes(":blobcat: :a: hi :party_parrot::blobcat:")
+        )
+    }
+
+    @Test
+    fun closingColonCanStartShortcode() {
+        assertEquals(listOf("7-10 a.png"), shortcodes("time:12:a: ::"))
+    }
+
+    @Test
+    fun ignoresUnknownShortcodes() {
+        assertEquals(emptyList<String>(), shortcodes(":unknown: :blob cat: :: : a :"))
+    }
+
+    private fun shortcodes(text: String): List<String> {
+        val found = ArrayList<String>()
+        forEachShortcode(text, emojis) { start, end, url ->
+            found.add("$start-$end ${url.substringAfterLast('/')}")
+        }
+        return found
+    }
+}
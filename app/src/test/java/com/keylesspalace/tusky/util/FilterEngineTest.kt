@@ -0,0 +1,76 @@
+package com.keylesspalace.tusky.util
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.keylesspalace.tusky.entity.Filter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.util.Random
+import java.util.regex.Pattern
+
+/**
+ * Checks that [FilterEngine] finds the same statuses as the joined regex SFragment used before, on
+ * a few hundred filters. The timing comparison is FilterEngineBenchmark in androidTest.
+ */
+@Config(sdk = [28])
+@RunWith(AndroidJUnit4::class)
+class FilterEngineTest {
+
+    private val random = Random(42)
+
+    private val filters = List(FILTER_COUNT) { i ->
+        Filter(
+                id = i.toString(),
+                phrase = if (i % 10 == 0) "${word(PHRASE_LENGTH)}@${word(PHRASE_LENGTH)}.com" else word(PHRASE_LENGTH),
+                context = listOf(Filter.HOME),
+                expiresAt = null,
+                irreversible = false,
+                wholeWord = i % 2 == 0
+        )
+    }
+
+    private val texts = List(TEXT_COUNT) { i ->
+        val words = MutableList(60) { word(2 + random.nextInt(5)) }
+        when (i % 3) {
+            // contains a filtered phrase
+            0 -> words[random.nextInt(words.size)] = filters[random.nextInt(FILTER_COUNT)].phrase.toUpperCase()
+            // contains a filtered phrase as part of a longer word
+            1 -> words[random.nextInt(words.size)] = filters[random.nextInt(FILTER_COUNT)].phrase + "s"
+        }
+        words.joinToString(" ")
+    }
+
+    @Test
+    fun matchesLikeTheOldRegex() {
+        val engine = FilterEngine(filters)
+        val contexts = FilterEngine.contextsOf(listOf(Filter.HOME))
+        val regex = buildRegex(filters)
+
+        val expected = texts.map { regex.reset(it).find() }
+        assertEquals(expected, texts.map { engine.matches(it, contexts) })
+        // make sure both outcomes are covered
+        assertTrue(expected.any { it } && expected.any { !it })
+    }
+
+    private fun word(length: Int): String {
+        return String(CharArray(length) { 'a' + random.nextInt(26) })
+    }
+
+    /** What SFragment.applyFilters built before the engine */
+    private fun buildRegex(filters: List<Filter>) = Pattern.compile(filters.joinToString("|") { filter ->
+        val quotedPhrase = Pattern.quote(filter.phrase)
+        if (filter.wholeWord && filter.phrase.matches(Regex("^\\w+$"))) {
+            "(^|\\W)$quotedPhrase($|\\W)"
+        } else {
+            quotedPhrase
+        }
+    }, Pattern.CASE_INSENSITIVE).matcher("")
+
+    companion object {
+        private const val FILTER_COUNT = 300
+        private const val PHRASE_LENGTH = 7
+        private const val TEXT_COUNT = 40
+    }
+}
@@ -0,0 +1,80 @@
+package com.keylesspalace.tusky.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class IndexedPairedListTest {
+
+    private data class Item(val id: String, val reblogId: String? = null, val accountId: String = "a")
+
+    private fun newList() = IndexedPairedList<Item, String>(
+            { item -> item.id },
+            { item -> item.id },
+            { item -> item.reblogId },
+            { item -> setOf(item.accountId) }
+    )
+
+    private fun assertIndexed(list: IndexedPairedList<Item, String>) {
+        list.forEachIndexed { index, item ->
+            assertEquals(list.indexOfFirst { it.id == item.id }, list.indexOfId(item.id))
+            assertEquals(
+                    list.indexOfFirst { it.id == item.id || it.reblogId == item.id },
+                    list.indexOfIdOrReblogId(item.id)
+            )
+            assertEquals(
+                    list.indices.filter { list[it].accountId == item.accountId },
+                    list.indicesOfAccountId(item.accountId)
+            )
+            assertEquals(item.id, list.getPairedItem(index))
+        }
+    }
+
+    @Test
+    fun prependAndAppend() {
+        val list = newList()
+        list.add(Item("5"))
+        list.add(0, Item("6", accountId = "b"))
+        list.add(Item("4", reblogId = "6"))
+        list.add(0, Item("7"))
+        assertIndexed(list)
+        assertEquals(-1, list.indexOfId("8"))
+        assertEquals(listOf(1), list.indicesOfAccountId("b"))
+    }
+
+    @Test
+    fun removeAtEnds() {
+        val list = newList()
+        list.addAll(listOf(Item("4"), Item("3", accountId = "b"), Item("2"), Item("1", accountId = "b")))
+        list.removeAt(0)
+        list.removeAt(list.size - 1)
+        assertIndexed(list)
+        assertEquals(-1, list.indexOfId("4"))
+        assertEquals(-1, list.indexOfId("1"))
+        assertEquals(listOf(0), list.indicesOfAccountId("b"))
+    }
+
+    @Test
+    fun middleChangesRebuildIndex() {
+        val list = newList()
+        list.addAll(listOf(Item("4"), Item("2"), Item("1", reblogId = "9")))
+        list.add(1, Item("3", accountId = "b"))
+        assertIndexed(list)
+        list.removeAt(2)
+        assertIndexed(list)
+        list[1] = Item("8", reblogId = "3")
+        assertIndexed(list)
+        list.subList(0, 2).clear()
+        assertIndexed(list)
+        assertEquals(0, list.indexOfIdOrReblogId("9"))
+    }
+
+    @Test
+    fun clear() {
+        val list = newList()
+        list.addAll(listOf(Item("2"), Item("1")))
+        list.clear()
+        assertEquals(-1, list.indexOfId("2"))
+        list.add(Item("3"))
+        assertIndexed(list)
+    }
+}
@@ -0,0 +1,26 @@
+package com.keylesspalace.tusky.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class TimestampUtilsTest {
+
+    private val second = 1000L
+    private val minute = 60 * second
+    private val hour = 60 * minute
+
+    @Test
+    fun nextChange_isTheNextFullUnit() {
+        val then = 1_000_000L
+        assertEquals(then + 6 * second, TimestampUtils.getNextRelativeTimeSpanChange(then, then + 5 * second + 300))
+        assertEquals(then + minute, TimestampUtils.getNextRelativeTimeSpanChange(then, then + 59 * second))
+        assertEquals(then + 6 * minute, TimestampUtils.getNextRelativeTimeSpanChange(then, then + 5 * minute))
+        assertEquals(then + 3 * hour, TimestampUtils.getNextRelativeTimeSpanChange(then, then + 2 * hour + 1))
+    }
+
+    @Test
+    fun nextChange_ofFutureTime_isWhenTheSpanShrinks() {
+        val now = 1_000_000L
+        assertEquals(now + 30 * second + 1, TimestampUtils.getNextRelativeTimeSpanChange(now + 5 * minute + 30 * second, now))
+    }
+}